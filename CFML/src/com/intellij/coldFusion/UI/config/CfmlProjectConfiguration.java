@@ -20,6 +20,7 @@ import com.intellij.openapi.components.*;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.JDOMUtil;
+import com.intellij.openapi.util.ModificationTracker;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.xmlb.annotations.Property;
 import com.intellij.util.xmlb.annotations.Tag;
@@ -34,8 +35,9 @@ import org.jetbrains.annotations.Nullable;
          @Storage(file = StoragePathMacros.PROJECT_FILE),
          @Storage(file = StoragePathMacros.PROJECT_CONFIG_DIR + "/cfml.xml", scheme = StorageScheme.DIRECTORY_BASED)
        })
-public class CfmlProjectConfiguration implements PersistentStateComponent<CfmlProjectConfiguration.State> {
+public class CfmlProjectConfiguration implements PersistentStateComponent<CfmlProjectConfiguration.State>, ModificationTracker {
   private State myState = new State();
+  private volatile long myModificationCount;
 
   public static CfmlProjectConfiguration getInstance(Project project) {
     return ServiceManager.getService(project, CfmlProjectConfiguration.class);
@@ -48,12 +50,18 @@ public class CfmlProjectConfiguration implements PersistentStateComponent<CfmlPr
 
   public void loadState(State state) {
     myState = state;
+    myModificationCount++;
     if (state == null) {
       return;
     }
     state.migrateIfNeeded();
   }
 
+  @Override
+  public long getModificationCount() {
+    return myModificationCount;
+  }
+
   /*
   public CfmlMappingsConfig getMappings() {
     if (myState.getMappings().serverMappings.size() == 0) {
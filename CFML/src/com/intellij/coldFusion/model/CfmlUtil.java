@@ -244,8 +244,7 @@ public class CfmlUtil {
   }
 
   public static boolean isPredefinedFunction(String functionName, Project project) {
-    return ArrayUtil.find(CfmlLangInfo.getInstance(anyProject(project)).getPredefinedFunctionsInLowCase(), functionName.toLowerCase()) !=
-           -1;
+    return CfmlLangInfo.getInstance(anyProject(project)).isPredefinedFunction(functionName);
   }
 
   public static boolean isPredefinedTagVariables(CfmlReferenceExpression cfmlRef, Project project) {
@@ -263,9 +262,7 @@ public class CfmlUtil {
     String tagName = ((CfmlTagImpl)referenceName).getTagName();
     String tagNameWithoutCf = tagName.startsWith("cf") ? tagName.substring(2) : tagName;
     return
-      CfmlLangInfo.getInstance(anyProject(project)).getPredefinedVariables().keySet()
-        .contains(tagNameWithoutCf.toLowerCase() + "." + predefVarText
-          .toLowerCase());
+      CfmlLangInfo.getInstance(anyProject(project)).getPredefinedVariables().containsKey(tagNameWithoutCf + "." + predefVarText);
   }
 
   private static String[] EMPTY_STRING_ARRAY = ArrayUtil.EMPTY_STRING_ARRAY;
@@ -290,6 +287,10 @@ public class CfmlUtil {
     return CfmlLangInfo.getInstance(anyProject(project)).getVariableScopes();
   }
 
+  public static boolean isVariableScope(String name, Project project) {
+    return CfmlLangInfo.getInstance(anyProject(project)).isVariableScope(name);
+  }
+
   @NotNull
   public static String getFileName(PsiElement element) {
     final String fileName = element.getContainingFile().getName();
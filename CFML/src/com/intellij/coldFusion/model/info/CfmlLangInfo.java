@@ -21,26 +21,33 @@ import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.text.StringUtil;
-import com.intellij.reference.SoftReference;
+import com.intellij.util.containers.CaseInsensitiveStringHashingStrategy;
+import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.text.LineReader;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
 import org.jetbrains.annotations.Nullable;
 import org.xml.sax.InputSource;
 import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.XMLReaderFactory;
 
 import java.io.InputStream;
-import java.lang.ref.Reference;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author vnikolaenko
  */
 public class CfmlLangInfo {
+  private static final Logger LOG = Logger.getInstance(CfmlLangInfo.class.getName());
+
+  // dictionaries don't depend on the project, so they are loaded once per language level and shared by all projects
+  private static volatile CfmlLangDictionary ourCF8Dictionary;
+  private static volatile CfmlLangDictionary ourCF9Dictionary;
+  private static volatile CfmlLangDictionary ourRailoDictionary;
+
   private final Project myProject;
-  private Reference<CfmlLangDictionary> myCF8Dictionary;
-  private Reference<CfmlLangDictionary> myCF9Dictionary;
-  private Reference<CfmlLangDictionary> myRailoDictionary;
 
   public static CfmlLangInfo getInstance(Project project) {
     return ServiceManager.getService(project, CfmlLangInfo.class);
@@ -50,12 +57,18 @@ public class CfmlLangInfo {
     myProject = project;
   }
 
+  /**
+   * All name lookups are case-insensitive, as names are in CFML.
+   */
   public static class CfmlLangDictionary {
     public CfmlLangDictionary(String scopesFileName, String tagsFileName) {
       if (StringUtil.isEmpty(scopesFileName) || StringUtil.isEmpty(tagsFileName)) {
         return;
       }
       myVariableScopes = readStringsFromFile(scopesFileName);
+      if (myVariableScopes != null) {
+        ContainerUtil.addAll(myVariableScopesSet, myVariableScopes);
+      }
 
       final CfmlTagsDescriptionsParser cfmlTagsParser = new CfmlTagsDescriptionsParser();
       try {
@@ -66,56 +79,63 @@ public class CfmlLangInfo {
       catch (Exception e) {
         LOG.error(e);
       }
-      myTagAttributes = cfmlTagsParser.getTags();
-      myFunctionParameters = cfmlTagsParser.getFunctions();
+      myTagAttributes.putAll(cfmlTagsParser.getTags());
+      myFunctionParameters.putAll(cfmlTagsParser.getFunctions());
       myPredefinedFunctions = cfmlTagsParser.getFunctionsList();
       myPredefinedFunctionsInLowCase = cfmlTagsParser.getFunctionsListLowerCased();
-      myPredefinedVariables = cfmlTagsParser.getPredefinedVariables();
+      ContainerUtil.addAll(myPredefinedFunctionsSet, myPredefinedFunctionsInLowCase);
+      myPredefinedVariables.putAll(cfmlTagsParser.getPredefinedVariables());
     }
 
     public String[] myPredefinedFunctions;
-    public Map<String, Integer> myPredefinedVariables;
+    public final Map<String, Integer> myPredefinedVariables = newCaseInsensitiveMap();
     public String[] myPredefinedFunctionsInLowCase;
     public String[] myVariableScopes;
-    public Map<String, CfmlTagDescription> myTagAttributes;
-    public Map<String, CfmlFunctionDescription> myFunctionParameters;
+    public final Map<String, CfmlTagDescription> myTagAttributes = newCaseInsensitiveMap();
+    public final Map<String, CfmlFunctionDescription> myFunctionParameters = newCaseInsensitiveMap();
+    private final Set<String> myPredefinedFunctionsSet = new THashSet<String>(CaseInsensitiveStringHashingStrategy.INSTANCE);
+    private final Set<String> myVariableScopesSet = new THashSet<String>(CaseInsensitiveStringHashingStrategy.INSTANCE);
+
+    private static <V> Map<String, V> newCaseInsensitiveMap() {
+      return new THashMap<String, V>(CaseInsensitiveStringHashingStrategy.INSTANCE);
+    }
   }
 
   private CfmlLangDictionary getProjectDictionary() {
     String languageLevel = getLanguageLevel();
     CfmlLangDictionary dictionary;
     if (languageLevel.equals(CfmlLanguage.CF8)) {
-      dictionary = SoftReference.dereference(myCF8Dictionary);
+      dictionary = ourCF8Dictionary;
       if (dictionary == null) {
         synchronized (CfmlLangInfo.class) {
-          dictionary = SoftReference.dereference(myCF8Dictionary);
+          dictionary = ourCF8Dictionary;
           if (dictionary == null) {
             dictionary = new CfmlLangDictionary("scopes.txt", "cf8_tags.xml");
-            myCF8Dictionary = new SoftReference<CfmlLangDictionary>(dictionary);
+            ourCF8Dictionary = dictionary;
           }
         }
       }
     }
     else if (languageLevel.equals(CfmlLanguage.RAILO)) {
-      dictionary = SoftReference.dereference(myRailoDictionary);
+      dictionary = ourRailoDictionary;
       if (dictionary == null) {
         synchronized (CfmlLangInfo.class) {
-          dictionary = SoftReference.dereference(myRailoDictionary);
+          dictionary = ourRailoDictionary;
           if (dictionary == null) {
             dictionary = new CfmlLangDictionary("scopes.txt", "Railo_tags.xml");
-            myRailoDictionary = new SoftReference<CfmlLangDictionary>(dictionary);
+            ourRailoDictionary = dictionary;
           }
         }
       }
     }
     else /*if (languageLevel.equals(CfmlLanguage.CF9))*/ {
-      dictionary = SoftReference.dereference(myCF9Dictionary);
+      dictionary = ourCF9Dictionary;
       if (dictionary == null) {
         synchronized (CfmlLangInfo.class) {
-          dictionary = SoftReference.dereference(myCF9Dictionary);
+          dictionary = ourCF9Dictionary;
           if (dictionary == null) {
             dictionary = new CfmlLangDictionary("scopes.txt", "tags.xml");
-            myCF9Dictionary = new SoftReference<CfmlLangDictionary>(dictionary);
+            ourCF9Dictionary = dictionary;
           }
         }
       }
@@ -156,7 +176,13 @@ public class CfmlLangInfo {
     return getProjectDictionary().myFunctionParameters;
   }
 
-  private static final Logger LOG = Logger.getInstance(CfmlLangInfo.class.getName());
+  public boolean isPredefinedFunction(String functionName) {
+    return getProjectDictionary().myPredefinedFunctionsSet.contains(functionName);
+  }
+
+  public boolean isVariableScope(String name) {
+    return getProjectDictionary().myVariableScopesSet.contains(name);
+  }
 
   @Nullable
   private static String[] readStringsFromFile(String fileName) {
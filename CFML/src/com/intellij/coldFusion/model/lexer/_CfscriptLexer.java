@@ -25,7 +25,6 @@ import com.intellij.coldFusion.model.lexer.CfscriptTokenTypes;
 import com.intellij.coldFusion.model.lexer.CfmlTokenTypes;
 import com.intellij.coldFusion.model.CfmlUtil;
 import com.intellij.util.containers.Stack;
-import com.intellij.util.ArrayUtil;
 
 
 /**
@@ -1429,7 +1428,7 @@ class _CfscriptLexer implements FlexLexer {
         case 43: 
           // lookahead expression with fixed lookahead length
           yypushback(1);
-          { if (ArrayUtil.find(CfmlUtil.getVariableScopes(myProject), yytext().toString().toLowerCase()) != -1) {
+          { if (CfmlUtil.isVariableScope(yytext().toString(), myProject)) {
         return CfscriptTokenTypes.SCOPE_KEYWORD;
     } else {
         return CfscriptTokenTypes.IDENTIFIER;
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.coldFusion.model.psi;
+
+import com.intellij.coldFusion.UI.config.CfmlMappingsConfig;
+import com.intellij.coldFusion.UI.config.CfmlProjectConfiguration;
+import com.intellij.coldFusion.model.psi.stubs.CfmlIndex;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.ModificationTracker;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.*;
+import com.intellij.psi.search.FilenameIndex;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.containers.MultiMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maps virtual dotted component paths (as seen through the server mappings, e.g. <code>mapping.dir.service</code>) to the
+ * component files of the project. Rebuilt when the mappings or project roots change, or when a component file or a directory
+ * is created, deleted, moved, copied or renamed; edits of the files don't affect the paths and keep the table.
+ */
+public class CfmlComponentPathIndex {
+  private static final String COMPONENT_EXTENSION = "cfc";
+
+  private final Project myProject;
+  private final AtomicLong myStructureModificationCount = new AtomicLong();
+  private volatile PathData myData;
+
+  private static class PathData {
+    private final CfmlMappingsConfig myMappings;
+    private final long myModificationCount;
+    // keys have the component name lower-cased, as in CfmlIndex
+    private final MultiMap<String, VirtualFile> myFiles;
+
+    private PathData(CfmlMappingsConfig mappings, long modificationCount, MultiMap<String, VirtualFile> files) {
+      myMappings = mappings;
+      myModificationCount = modificationCount;
+      myFiles = files;
+    }
+  }
+
+  public static CfmlComponentPathIndex getInstance(Project project) {
+    return ServiceManager.getService(project, CfmlComponentPathIndex.class);
+  }
+
+  public CfmlComponentPathIndex(Project project) {
+    myProject = project;
+
+    VirtualFileManager.getInstance().addVirtualFileListener(new VirtualFileAdapter() {
+      @Override
+      public void fileCreated(@NotNull VirtualFileEvent event) {
+        structureChanged(event.getFile(), null);
+      }
+
+      @Override
+      public void fileDeleted(@NotNull VirtualFileEvent event) {
+        structureChanged(event.getFile(), null);
+      }
+
+      @Override
+      public void fileMoved(@NotNull VirtualFileMoveEvent event) {
+        structureChanged(event.getFile(), null);
+      }
+
+      @Override
+      public void fileCopied(@NotNull VirtualFileCopyEvent event) {
+        structureChanged(event.getFile(), null);
+      }
+
+      @Override
+      public void propertyChanged(@NotNull VirtualFilePropertyEvent event) {
+        if (VirtualFile.PROP_NAME.equals(event.getPropertyName())) {
+          structureChanged(event.getFile(), (String)event.getOldValue());
+        }
+      }
+    }, project);
+  }
+
+  private void structureChanged(@NotNull VirtualFile file, @Nullable String oldName) {
+    if (file.isDirectory() || isComponentFile(file.getName()) || (oldName != null && isComponentFile(oldName))) {
+      myStructureModificationCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Changes whenever a component file or a directory is created, deleted, moved, copied or renamed.
+   */
+  @NotNull
+  public ModificationTracker getStructureModificationTracker() {
+    return new ModificationTracker() {
+      @Override
+      public long getModificationCount() {
+        return myStructureModificationCount.get();
+      }
+    };
+  }
+
+  private static boolean isComponentFile(@NotNull String fileName) {
+    return COMPONENT_EXTENSION.equalsIgnoreCase(FileUtil.getExtension(fileName));
+  }
+
+  /**
+   * @param directoryName dotted virtual directory, empty for the mapping roots
+   * @param componentName short component name
+   */
+  @NotNull
+  public Collection<CfmlComponent> getComponents(@NotNull String directoryName, @NotNull String componentName) {
+    if (componentName.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    final List<String> path = new ArrayList<String>();
+    final StringTokenizer st = new StringTokenizer(directoryName, ".");
+    while (st.hasMoreTokens()) {
+      path.add(st.nextToken());
+    }
+    path.add(componentName.toLowerCase());
+
+    final Collection<VirtualFile> files = getData().myFiles.get(StringUtil.join(path, "."));
+    if (files.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    final CfmlIndex cfmlIndex = CfmlIndex.getInstance(myProject);
+    final List<CfmlComponent> result = new ArrayList<CfmlComponent>();
+    for (VirtualFile file : files) {
+      if (!file.isValid()) continue;
+      final GlobalSearchScope scope = GlobalSearchScope.fileScope(myProject, file);
+      result.addAll(cfmlIndex.getComponentsByNameInScope(componentName, scope));
+      result.addAll(cfmlIndex.getInterfacesByNameInScope(componentName, scope));
+    }
+    return result;
+  }
+
+  @NotNull
+  private PathData getData() {
+    final CfmlMappingsConfig mappings = getMappings();
+    final long modificationCount = myStructureModificationCount.get() +
+                                   ProjectRootManager.getInstance(myProject).getModificationCount();
+    PathData data = myData;
+    if (data == null || data.myModificationCount != modificationCount || !data.myMappings.equals(mappings)) {
+      data = new PathData(mappings, modificationCount, buildPaths(mappings));
+      myData = data;
+    }
+    return data;
+  }
+
+  @NotNull
+  private CfmlMappingsConfig getMappings() {
+    CfmlProjectConfiguration.State state = CfmlProjectConfiguration.getInstance(myProject).getState();
+    CfmlMappingsConfig mappings = state != null ? state.getMapps().clone() : new CfmlMappingsConfig();
+    CfmlComponentReference.adjustMappingsIfEmpty(mappings, myProject);
+    return mappings;
+  }
+
+  /**
+   * Inverse of {@link CfmlMappingsConfig#mapVirtualToReal(String)}: every component file is registered under each dotted path
+   * that maps to its directory.
+   */
+  @NotNull
+  private MultiMap<String, VirtualFile> buildPaths(@NotNull CfmlMappingsConfig mappings) {
+    final MultiMap<String, VirtualFile> result = MultiMap.createSet();
+    final Collection<VirtualFile> files =
+      FilenameIndex.getAllFilesByExt(myProject, COMPONENT_EXTENSION, CfmlIndex.getInstance(myProject).getSearchScope());
+    if (files.isEmpty()) {
+      return result;
+    }
+
+    final List<Map.Entry<String, String>> entries = new ArrayList<Map.Entry<String, String>>();
+    for (Map.Entry<String, String> entry : mappings.getServerMappings().entrySet()) {
+      entries.add(new AbstractMap.SimpleEntry<String, String>(entry.getKey(), StringUtil.trimEnd(
+        FileUtil.toSystemIndependentName(entry.getValue()), "/")));
+    }
+
+    for (VirtualFile file : files) {
+      ProgressManager.checkCanceled();
+      final VirtualFile parent = file.getParent();
+      if (parent == null) continue;
+
+      final String directoryPath = FileUtil.toSystemIndependentName(parent.getPresentableUrl());
+      final String componentName = file.getNameWithoutExtension().toLowerCase();
+      for (Map.Entry<String, String> entry : entries) {
+        final String mappedPath = entry.getValue();
+        final String relativePath;
+        if (directoryPath.equals(mappedPath)) {
+          relativePath = "";
+        }
+        else if (directoryPath.startsWith(mappedPath + "/")) {
+          relativePath = directoryPath.substring(mappedPath.length() + 1);
+        }
+        else {
+          continue;
+        }
+
+        final List<String> path = new ArrayList<String>();
+        final StringTokenizer logicalPath = new StringTokenizer(entry.getKey(), "\\/");
+        while (logicalPath.hasMoreTokens()) {
+          path.add(logicalPath.nextToken());
+        }
+        final StringTokenizer relative = new StringTokenizer(relativePath, "/");
+        while (relative.hasMoreTokens()) {
+          path.add(relative.nextToken());
+        }
+        path.add(componentName);
+        result.putValue(StringUtil.join(path, "."), file);
+      }
+    }
+    return result;
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.intellij.coldFusion.model.psi;
 
+import com.intellij.coldFusion.UI.config.CfmlProjectConfiguration;
 import com.intellij.coldFusion.model.CfmlLanguage;
 import com.intellij.coldFusion.model.files.CfmlFile;
 import com.intellij.coldFusion.model.files.CfmlFileType;
@@ -25,25 +26,31 @@ import com.intellij.coldFusion.model.psi.impl.CfmlNamedAttributeImpl;
 import com.intellij.coldFusion.model.psi.impl.CfmlTagScriptImpl;
 import com.intellij.lang.ASTNode;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.*;
 import com.intellij.psi.scope.PsiScopeProcessor;
 import com.intellij.psi.search.GlobalSearchScope;
-import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.util.*;
+import com.intellij.util.ArrayUtil;
 import com.intellij.util.containers.HashSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Collection;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Created by Lera Nikolaenko
  * Date: 12.02.2009
  */
 public class CfmlPsiUtil {
+  private static final Key<CachedValue<CfmlFunction[]>> FUNCTIONS_KEY = Key.create("CFML_FUNCTIONS_WITH_SUPERS");
+  private static final Key<CachedValue<CfmlFunction[]>> FUNCTIONS_SUPER_PRIORITY_KEY = Key.create("CFML_FUNCTIONS_WITH_SUPERS_FIRST");
+  private static final Key<CachedValue<CfmlProperty[]>> PROPERTIES_KEY = Key.create("CFML_PROPERTIES_WITH_SUPERS");
+  private static final Key<CachedValue<CfmlProperty[]>> PROPERTIES_SUPER_PRIORITY_KEY = Key.create("CFML_PROPERTIES_WITH_SUPERS_FIRST");
+  private static final Key<CachedValue<List<CfmlAssignmentExpression>>> ASSIGNMENTS_KEY = Key.create("CFML_COMPONENT_ASSIGNMENTS");
+
   @Nullable
   public static Collection<String> findBetween(@NotNull String source, @NotNull String startMarker, @NotNull String endMarker) {
     int fromIndex = 0;
@@ -320,7 +327,11 @@ public class CfmlPsiUtil {
 
   private static <Result extends PsiNamedElement> Result[] componentHierarchyGatherer(CfmlComponent component,
                                                                                       Getter<Result[], CfmlComponent> gatherer,
-                                                                                      Result[] EMPTY_ARRAY, boolean isSuperPriority) {
+                                                                                      Result[] EMPTY_ARRAY, boolean isSuperPriority,
+                                                                                      Collection<Object> dependencies) {
+    Set<CfmlComponent> visited = new HashSet<CfmlComponent>();
+    visited.add(component);
+    addFileDependency(component, dependencies);
     CfmlComponent currentComponent = isSuperPriority ? component.getSuper() : component;
     Set<String> names = new HashSet<String>();
     List<Result> result = new LinkedList<Result>();
@@ -331,6 +342,11 @@ public class CfmlPsiUtil {
         }
       }
       currentComponent = currentComponent.getSuper();
+      // cyclic extends
+      if (currentComponent != null && !visited.add(currentComponent)) {
+        break;
+      }
+      addFileDependency(currentComponent, dependencies);
     }
     if (isSuperPriority) {
       currentComponent = component;
@@ -343,60 +359,114 @@ public class CfmlPsiUtil {
     return result.toArray(EMPTY_ARRAY);
   }
 
-  @NotNull
-  public static CfmlFunction[] getFunctionsWithSupers(CfmlComponent component, boolean isSuperPriority) {
-    return componentHierarchyGatherer(component, new Getter<CfmlFunction[], CfmlComponent>() {
+  private static void addFileDependency(@Nullable CfmlComponent component, Collection<Object> dependencies) {
+    final PsiFile file = component != null ? component.getContainingFile() : null;
+    if (file != null) {
+      dependencies.add(file);
+    }
+  }
+
+  /**
+   * Members of the component and its supers are remembered until one of the files of the hierarchy changes or super components
+   * may resolve differently (files added or renamed, roots or mappings changed).
+   */
+  private static <T extends PsiNamedElement> T[] getCachedWithSupers(final CfmlComponent component,
+                                                                      Key<CachedValue<T[]>> key,
+                                                                      final Getter<T[], CfmlComponent> gatherer,
+                                                                      final T[] EMPTY_ARRAY,
+                                                                      final boolean isSuperPriority) {
+    final Project project = component.getProject();
+    return CachedValuesManager.getManager(project).getCachedValue(component, key, new CachedValueProvider<T[]>() {
       @Override
-      public CfmlFunction[] get(CfmlComponent component) {
-        return component.getFunctions();
+      public Result<T[]> compute() {
+        final List<Object> dependencies = new ArrayList<Object>();
+        final T[] members = componentHierarchyGatherer(component, gatherer, EMPTY_ARRAY, isSuperPriority, dependencies);
+        dependencies.add(CfmlComponentPathIndex.getInstance(project).getStructureModificationTracker());
+        dependencies.add(ProjectRootManager.getInstance(project));
+        dependencies.add(CfmlProjectConfiguration.getInstance(project));
+        return Result.create(members, ArrayUtil.toObjectArray(dependencies));
       }
-    }, CfmlFunction.EMPTY_ARRAY, isSuperPriority);
+    }, false);
+  }
+
+  private static final Getter<CfmlFunction[], CfmlComponent> FUNCTIONS_GETTER = new Getter<CfmlFunction[], CfmlComponent>() {
+    @Override
+    public CfmlFunction[] get(CfmlComponent component) {
+      return component.getFunctions();
+    }
+  };
+
+  private static final Getter<CfmlProperty[], CfmlComponent> PROPERTIES_GETTER = new Getter<CfmlProperty[], CfmlComponent>() {
+    @Override
+    public CfmlProperty[] get(CfmlComponent component) {
+      return component.getProperties();
+    }
+  };
+
+  @NotNull
+  public static CfmlFunction[] getFunctionsWithSupers(CfmlComponent component, boolean isSuperPriority) {
+    return getCachedWithSupers(component, isSuperPriority ? FUNCTIONS_SUPER_PRIORITY_KEY : FUNCTIONS_KEY, FUNCTIONS_GETTER,
+                               CfmlFunction.EMPTY_ARRAY, isSuperPriority);
   }
 
   @NotNull
   public static CfmlProperty[] getPropertiesWithSupers(CfmlComponent component, boolean isSuperPriority) {
-    return componentHierarchyGatherer(component, new Getter<CfmlProperty[], CfmlComponent>() {
-      @Override
-      public CfmlProperty[] get(CfmlComponent component) {
-        return component.getProperties();
-      }
-    }, CfmlProperty.EMPTY_ARRAY, isSuperPriority);
+    return getCachedWithSupers(component, isSuperPriority ? PROPERTIES_SUPER_PRIORITY_KEY : PROPERTIES_KEY, PROPERTIES_GETTER,
+                               CfmlProperty.EMPTY_ARRAY, isSuperPriority);
   }
 
-  public static boolean processGlobalVariablesForComponent(CfmlComponent component,
+  public static boolean processGlobalVariablesForComponent(final CfmlComponent component,
                                                            final PsiScopeProcessor processor,
                                                            final ResolveState state,
                                                            final PsiElement lastParent) {
-    boolean res = true;
-    try {
-      component.accept(new CfmlRecursiveElementVisitor() {
-        public void visitCfmlAssignmentExpression(CfmlAssignmentExpression expression) {
-          if (expression.getFirstChild().getNode().getElementType() != CfscriptTokenTypes.VAR_KEYWORD) {
-            if (expression.getAssignedVariable() != null && !processor.execute(expression.getAssignedVariable(), state)) {
-              throw Stop.DONE;
-            }
-          }
-        }
+    final CachedValueProvider<List<CfmlAssignmentExpression>> provider = new CachedValueProvider<List<CfmlAssignmentExpression>>() {
+      @Override
+      public Result<List<CfmlAssignmentExpression>> compute() {
+        return Result.create(collectAssignments(component), component);
+      }
+    };
+    final List<CfmlAssignmentExpression> assignments =
+      CachedValuesManager.getManager(component.getProject()).getCachedValue(component, ASSIGNMENTS_KEY, provider, false);
+    return processAssignments(assignments, processor, state, lastParent);
+  }
 
-        @Override
-        public void visitCfmlComponent(CfmlComponent component) {
-          super.visitElement(component);
+  private static boolean processAssignments(List<CfmlAssignmentExpression> assignments,
+                                            PsiScopeProcessor processor,
+                                            ResolveState state,
+                                            PsiElement lastParent) {
+    for (CfmlAssignmentExpression expression : assignments) {
+      if (expression == lastParent) {
+        // the assignment being resolved doesn't declare a variable for itself, assignments nested in it still do
+        if (!processAssignments(collectAssignments(expression), processor, state, lastParent)) {
+          return false;
         }
-
-        @Override
-        public void visitElement(PsiElement element) {
-          if (element != lastParent && element instanceof CfmlAssignmentExpression) {
-            visitCfmlAssignmentExpression((CfmlAssignmentExpression)element);
-          }
-          else {
-            super.visitElement(element);
-          }
+        continue;
+      }
+      if (expression.getFirstChild().getNode().getElementType() != CfscriptTokenTypes.VAR_KEYWORD) {
+        if (expression.getAssignedVariable() != null && !processor.execute(expression.getAssignedVariable(), state)) {
+          return false;
         }
-      });
-    }
-    catch (CfmlRecursiveElementVisitor.Stop e) {
-      res = false;
+      }
     }
-    return res;
+    return true;
+  }
+
+  /**
+   * @return assignments under the element in document order, not including the assignments nested in other assignments
+   */
+  private static List<CfmlAssignmentExpression> collectAssignments(PsiElement element) {
+    final List<CfmlAssignmentExpression> result = new ArrayList<CfmlAssignmentExpression>();
+    element.acceptChildren(new CfmlRecursiveElementVisitor() {
+      @Override
+      public void visitElement(PsiElement element) {
+        if (element instanceof CfmlAssignmentExpression) {
+          result.add((CfmlAssignmentExpression)element);
+        }
+        else {
+          super.visitElement(element);
+        }
+      }
+    });
+    return result;
   }
 }
@@ -26,18 +26,20 @@ import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Ref;
-import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.CharsetToolkit;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.Processor;
 import com.intellij.util.ResourceUtil;
 import com.intellij.util.SystemProperties;
-import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.HttpMethod;
-import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.*;
 import org.apache.commons.httpclient.methods.GetMethod;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 
 public class CfmlUnitRemoteTestsRunner {
   private static final Logger LOG = Logger.getInstance(CfmlUnitRemoteTestsRunner.class.getName());
@@ -171,7 +173,6 @@ public class CfmlUnitRemoteTestsRunner {
           }
           String agentPath = webPath.substring(0, webPath.lastIndexOf('/')) + "/" + launcherFileName;
           LOG.debug("Retrieving data from coldfusion server by " + agentPath + " URL");
-          BufferedReader reader = null;
           String agentUrl;
           if (params.getScope() == CfmlUnitRunnerParameters.Scope.Directory) {
             agentUrl = agentPath + "?method=executeDirectory&directoryName=" + componentFile.getName();
@@ -198,13 +199,16 @@ public class CfmlUnitRemoteTestsRunner {
               processHandler.notifyTextAvailable("Http request failed: " + method.getStatusLine(), ProcessOutputTypes.SYSTEM);
             }
             final InputStream responseStream = method.getResponseBodyAsStream();
-            reader = new BufferedReader(new InputStreamReader(responseStream));
-            String line;
-            while (!processHandler.isProcessTerminating() && !processHandler.isProcessTerminated() && (line = reader.readLine()) != null) {
-              if (!StringUtil.isEmptyOrSpaces(line)) {
-                LOG.debug("MXUnit: " + line);
-                processHandler.notifyTextAvailable(line + "\n", ProcessOutputTypes.SYSTEM);
-              }
+            if (responseStream != null) {
+              CfmlUnitResultsReader.readLines(responseStream, getResponseCharset(method), new Processor<String>() {
+                @Override
+                public boolean process(String line) {
+                  if (processHandler.isProcessTerminating() || processHandler.isProcessTerminated()) return false;
+                  LOG.debug("MXUnit: " + line);
+                  processHandler.notifyTextAvailable(line + "\n", ProcessOutputTypes.SYSTEM);
+                  return true;
+                }
+              });
             }
           }
           catch (IOException e) {
@@ -216,14 +220,6 @@ public class CfmlUnitRemoteTestsRunner {
             if (method != null) {
               method.releaseConnection();
             }
-            if (reader != null) {
-              try {
-                reader.close();
-              }
-              catch (IOException e) {
-                // ignore
-              }
-            }
           }
           LOG.debug("Cleaning temporary files");
           deleteFile(project, directory.findChild(launcherFileName));
@@ -241,4 +237,25 @@ public class CfmlUnitRemoteTestsRunner {
       throw ref.get();
     }
   }
+
+  /**
+   * The launcher doesn't declare a charset, ColdFusion writes UTF-8 by default.
+   */
+  public static Charset getResponseCharset(HttpMethod method) {
+    final Header contentType = method.getResponseHeader("Content-Type");
+    if (contentType != null) {
+      for (HeaderElement element : contentType.getElements()) {
+        final NameValuePair charset = element.getParameterByName("charset");
+        if (charset != null && charset.getValue() != null) {
+          try {
+            return Charset.forName(charset.getValue());
+          }
+          catch (IllegalArgumentException e) {
+            LOG.debug(e);
+          }
+        }
+      }
+    }
+    return CharsetToolkit.UTF8_CHARSET;
+  }
 }
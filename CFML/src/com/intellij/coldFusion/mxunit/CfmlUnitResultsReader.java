@@ -0,0 +1,119 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.coldFusion.mxunit;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.Processor;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * Splits the MXUnit launcher output into lines as soon as the server flushes them, so test events reach the test tree while
+ * the suite is still running. At most {@link #MAX_LINE_LENGTH} characters of a line are buffered, longer lines are passed on
+ * in pieces. Service messages are never split, since a piece of one can't be parsed: they are buffered up to
+ * {@link #MAX_SERVICE_MESSAGE_LENGTH} characters, longer ones are dropped and logged.
+ */
+public class CfmlUnitResultsReader {
+  private static final Logger LOG = Logger.getInstance(CfmlUnitResultsReader.class.getName());
+
+  public static final int MAX_LINE_LENGTH = 64 * 1024;
+  public static final int MAX_SERVICE_MESSAGE_LENGTH = 4 * 1024 * 1024;
+  private static final String SERVICE_MESSAGE_START = "##teamcity[";
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  private CfmlUnitResultsReader() {
+  }
+
+  /**
+   * Passes non-blank lines (without line separators) to the processor until the end of the stream or until the processor
+   * returns <code>false</code>.
+   *
+   * @return <code>false</code> if stopped by the processor
+   */
+  public static boolean readLines(@NotNull InputStream stream, @NotNull Charset charset, @NotNull Processor<String> processor)
+    throws IOException {
+    final Reader reader = new InputStreamReader(stream, charset);
+    final char[] buffer = new char[BUFFER_SIZE];
+    final StringBuilder line = new StringBuilder();
+    boolean afterCR = false;
+    // the line buffer holds a piece of a longer plain line
+    boolean continued = false;
+    // the line buffer holds a service message longer than MAX_LINE_LENGTH
+    boolean serviceMessage = false;
+    // the rest of an oversized service message is being skipped
+    boolean skipping = false;
+    int read;
+    // read() returns whatever has already arrived, it doesn't wait for the buffer to fill up
+    while ((read = reader.read(buffer)) != -1) {
+      for (int i = 0; i < read; i++) {
+        final char c = buffer[i];
+        if (c == '\n' && afterCR) {
+          afterCR = false;
+          continue;
+        }
+        afterCR = c == '\r';
+        if (c == '\n' || c == '\r') {
+          continued = false;
+          serviceMessage = false;
+          skipping = false;
+          if (!flush(line, processor)) return false;
+        }
+        else if (!skipping) {
+          line.append(c);
+          if (line.length() < MAX_LINE_LENGTH) continue;
+
+          if (line.length() == MAX_LINE_LENGTH && !continued) {
+            serviceMessage = isServiceMessage(line);
+          }
+          if (!serviceMessage) {
+            continued = true;
+            if (!flush(line, processor)) return false;
+          }
+          else if (line.length() >= MAX_SERVICE_MESSAGE_LENGTH) {
+            LOG.warn("Service message longer than " + MAX_SERVICE_MESSAGE_LENGTH + " characters dropped: " +
+                     StringUtil.first(line.toString(), 200, true));
+            line.setLength(0);
+            serviceMessage = false;
+            skipping = true;
+          }
+        }
+      }
+    }
+    return flush(line, processor);
+  }
+
+  private static boolean isServiceMessage(@NotNull StringBuilder line) {
+    int start = 0;
+    while (start < line.length() && Character.isWhitespace(line.charAt(start))) {
+      start++;
+    }
+    final int end = start + SERVICE_MESSAGE_START.length();
+    return end <= line.length() && SERVICE_MESSAGE_START.equals(line.substring(start, end));
+  }
+
+  private static boolean flush(@NotNull StringBuilder line, @NotNull Processor<String> processor) {
+    if (line.length() == 0) return true;
+    final String text = line.toString();
+    line.setLength(0);
+    return StringUtil.isEmptyOrSpaces(text) || processor.process(text);
+  }
+}
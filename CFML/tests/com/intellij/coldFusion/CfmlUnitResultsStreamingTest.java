@@ -0,0 +1,110 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.coldFusion;
+
+import com.intellij.coldFusion.mxunit.CfmlUnitRemoteTestsRunner;
+import com.intellij.coldFusion.mxunit.CfmlUnitResultsReader;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.CharsetToolkit;
+import com.intellij.testFramework.UsefulTestCase;
+import com.intellij.util.Processor;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class CfmlUnitResultsStreamingTest extends UsefulTestCase {
+  private static final long SUITE_END_TIMEOUT_MS = 30000;
+
+  public void testReplayedSuiteThroughput() throws Exception {
+    final List<String> recorded = CfmlUnitStandInServer.loadRecordedResults();
+    final int repeatCount = 2000;
+    final CfmlUnitStandInServer server = new CfmlUnitStandInServer(recorded, repeatCount, 0);
+
+    assertEquals(recorded.size() * repeatCount, replay(server, null));
+  }
+
+  public void testFirstResultArrivesBeforeSuiteEnds() throws Exception {
+    final List<String> recorded = CfmlUnitStandInServer.loadRecordedResults();
+    final CfmlUnitStandInServer server = new CfmlUnitStandInServer(recorded, 1, 0);
+    // the suite end is only sent once the first result has been read, a buffering reader would wait for the timeout
+    final CountDownLatch firstResultRead = new CountDownLatch(1);
+    server.holdBackSuiteEnd(firstResultRead, SUITE_END_TIMEOUT_MS);
+
+    assertEquals(recorded.size(), replay(server, firstResultRead));
+    assertTrue("the first result was not read before the suite ended", server.isSuiteEndReleased());
+  }
+
+  public void testLongLinesAndSeparators() throws IOException {
+    final String longLine = StringUtil.repeatSymbol('x', CfmlUnitResultsReader.MAX_LINE_LENGTH * 2 + 10);
+    final String longServiceMessage = "##teamcity[testFailed name='test' message='" +
+                                      StringUtil.repeatSymbol('m', CfmlUnitResultsReader.MAX_LINE_LENGTH * 2) + "']";
+    final String oversizedServiceMessage = "  ##teamcity[testFailed name='test' message='" +
+                                           StringUtil.repeatSymbol('m', CfmlUnitResultsReader.MAX_SERVICE_MESSAGE_LENGTH) + "']";
+    final String text = "first\r\nsecond\r\n\n   \rthird\n" + longServiceMessage + "\n" + oversizedServiceMessage + "\r\nfourth\n" +
+                        longLine;
+    final List<String> lines = new ArrayList<String>();
+    CfmlUnitResultsReader.readLines(new ByteArrayInputStream(text.getBytes(CharsetToolkit.UTF8_CHARSET)),
+                                    CharsetToolkit.UTF8_CHARSET, new Processor<String>() {
+      @Override
+      public boolean process(String line) {
+        lines.add(line);
+        return true;
+      }
+    });
+
+    assertEquals(8, lines.size());
+    assertEquals("first", lines.get(0));
+    assertEquals("second", lines.get(1));
+    assertEquals("third", lines.get(2));
+    // service messages are never split, the oversized one is dropped as a whole
+    assertEquals(longServiceMessage, lines.get(3));
+    assertEquals("fourth", lines.get(4));
+    assertEquals(CfmlUnitResultsReader.MAX_LINE_LENGTH, lines.get(5).length());
+    assertEquals(longLine, lines.get(5) + lines.get(6) + lines.get(7));
+  }
+
+  private static int replay(CfmlUnitStandInServer server, @Nullable final CountDownLatch firstLineRead) throws IOException {
+    server.start();
+    final GetMethod method = new GetMethod(server.getUrl() + "mxunit-launcher.cfc?method=executeDirectory&directoryName=tests");
+    try {
+      final int[] lines = new int[1];
+      assertEquals(HttpStatus.SC_OK, new HttpClient().executeMethod(method));
+      CfmlUnitResultsReader.readLines(method.getResponseBodyAsStream(), CfmlUnitRemoteTestsRunner.getResponseCharset(method),
+                                      new Processor<String>() {
+                                        @Override
+                                        public boolean process(String line) {
+                                          if (firstLineRead != null) {
+                                            firstLineRead.countDown();
+                                          }
+                                          lines[0]++;
+                                          return true;
+                                        }
+                                      });
+      return lines[0];
+    }
+    finally {
+      method.releaseConnection();
+      server.stop();
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.coldFusion;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.CharsetToolkit;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays recorded MXUnit launcher output over HTTP on the loopback interface, flushing after every line like
+ * <code>&lt;cfflush interval="1"&gt;</code> does, so result streaming can be measured without a ColdFusion server.
+ * Any path is answered, e.g. a run configuration web path can point to <code>http://127.0.0.1:&lt;port&gt;/tests/</code>.
+ * Run {@link #main(String[])} to start it outside of tests.
+ */
+public class CfmlUnitStandInServer {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.coldFusion.CfmlUnitStandInServer");
+
+  public static final String RECORDED_RESULTS_PATH = CfmlTestUtil.BASE_TEST_DATA_PATH + "/mxunit/recordedResults.txt";
+
+  private final HttpServer myServer;
+  private volatile CountDownLatch mySuiteEndGate;
+  private volatile long mySuiteEndTimeoutMs;
+  private volatile boolean mySuiteEndReleased;
+
+  /**
+   * @param lines       recorded output lines
+   * @param repeatCount how many times the recording is replayed in one response, to emulate large suites
+   * @param lineDelayMs pause before each line, to emulate slow tests
+   */
+  public CfmlUnitStandInServer(final List<String> lines, final int repeatCount, final long lineDelayMs) throws IOException {
+    myServer = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+    myServer.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+        exchange.sendResponseHeaders(200, 0); // chunked
+        final OutputStream out = exchange.getResponseBody();
+        try {
+          for (int i = 0; i < repeatCount; i++) {
+            for (int j = 0; j < lines.size(); j++) {
+              final String line = lines.get(j);
+              if (lineDelayMs > 0) {
+                Thread.sleep(lineDelayMs);
+              }
+              final CountDownLatch gate = mySuiteEndGate;
+              if (gate != null && i == repeatCount - 1 && j == lines.size() - 1) {
+                mySuiteEndReleased = gate.await(mySuiteEndTimeoutMs, TimeUnit.MILLISECONDS);
+              }
+              out.write((line + "\n").getBytes(CharsetToolkit.UTF8_CHARSET));
+              out.flush();
+            }
+          }
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        finally {
+          out.close();
+          exchange.close();
+        }
+      }
+    });
+  }
+
+  public static List<String> loadRecordedResults() throws IOException {
+    return StringUtil.split(FileUtil.loadFile(new File(RECORDED_RESULTS_PATH), CharsetToolkit.UTF8), "\n");
+  }
+
+  /**
+   * Makes the server hold back the last line of the response until <code>gate</code> is opened, but at most for
+   * <code>timeoutMs</code>, so a test can check that earlier lines reach the client while the suite is still running.
+   */
+  public void holdBackSuiteEnd(final CountDownLatch gate, final long timeoutMs) {
+    mySuiteEndTimeoutMs = timeoutMs;
+    mySuiteEndGate = gate;
+  }
+
+  /**
+   * @return true if the last line was sent because the gate passed to {@link #holdBackSuiteEnd} was opened, false if it timed out
+   */
+  public boolean isSuiteEndReleased() {
+    return mySuiteEndReleased;
+  }
+
+  public void start() {
+    myServer.start();
+  }
+
+  public void stop() {
+    myServer.stop(0);
+  }
+
+  public String getUrl() {
+    return "http://127.0.0.1:" + myServer.getAddress().getPort() + "/";
+  }
+
+  public static void main(String[] args) throws IOException {
+    final int repeatCount = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+    final long lineDelayMs = args.length > 1 ? Long.parseLong(args[1]) : 0;
+    final CfmlUnitStandInServer server = new CfmlUnitStandInServer(loadRecordedResults(), repeatCount, lineDelayMs);
+    server.start();
+    LOG.info("Replaying " + RECORDED_RESULTS_PATH + " at " + server.getUrl());
+  }
+}
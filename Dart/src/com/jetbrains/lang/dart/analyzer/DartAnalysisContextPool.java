@@ -0,0 +1,336 @@
+package com.jetbrains.lang.dart.analyzer;
+
+import com.google.dart.engine.context.AnalysisContext;
+import com.google.dart.engine.context.AnalysisException;
+import com.google.dart.engine.context.ChangeSet;
+import com.google.dart.engine.element.CompilationUnitElement;
+import com.google.dart.engine.element.LibraryElement;
+import com.google.dart.engine.error.AnalysisError;
+import com.google.dart.engine.source.Source;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Comparing;
+import com.intellij.openapi.util.Factory;
+import com.intellij.openapi.vfs.VirtualFile;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Keeps analysis contexts for the most recently used (Dart SDK path, packages folder) pairs, so that switching between files
+ * of different pub packages doesn't rebuild the analysis context (including the SDK) from scratch.
+ * <p/>
+ * The pool is bounded both by the number of contexts and by the total number of sources known to them, which is used as an
+ * estimate of the memory they retain. Limits can be changed with the {@code dart.analysis.contexts.max.count} and
+ * {@code dart.analysis.contexts.max.sources} system properties.
+ */
+class DartAnalysisContextPool {
+  private static final Logger LOG = Logger.getInstance(DartAnalysisContextPool.class.getName());
+
+  private static final int MAX_CONTEXTS = Math.max(1, Integer.getInteger("dart.analysis.contexts.max.count", 4));
+  private static final int MAX_SOURCES = Math.max(1, Integer.getInteger("dart.analysis.contexts.max.sources", 20000));
+
+  private final LinkedHashMap<ContextKey, PooledContext> myContexts = new LinkedHashMap<ContextKey, PooledContext>(8, 0.75f, true);
+
+  private @Nullable PooledContext myLastUsedContext;
+
+  private int myHitCount;
+  private int myMissCount;
+  private int myEvictionCount;
+
+  /**
+   * A new context is created outside of the pool lock: creation loads the SDK and may take long, while document changes
+   * reported from the event dispatch thread need the lock to mark sources of the pooled contexts as changed.
+   * For the same reason the size of the context that becomes idle is calculated before the lock is taken again.
+   */
+  @NotNull
+  public PooledContext getOrCreate(final @NotNull String sdkPath,
+                                   final @Nullable VirtualFile packagesFolder,
+                                   final @NotNull Factory<AnalysisContext> contextFactory) {
+    final ContextKey key = new ContextKey(sdkPath, packagesFolder);
+    PooledContext pooledContext;
+    final PooledContext lastUsedContext;
+    synchronized (this) {
+      pooledContext = myContexts.get(key);
+      if (pooledContext != null) {
+        myHitCount++;
+        if (pooledContext == myLastUsedContext) return pooledContext;
+      }
+      lastUsedContext = myLastUsedContext;
+    }
+
+    // the size of the context that becomes idle is recalculated here rather than on each use to keep the pass cheap
+    final int lastUsedSourceCount = lastUsedContext == null ? 0 : lastUsedContext.computeSourceCount();
+    final AnalysisContext context = pooledContext == null ? contextFactory.create() : null;
+
+    synchronized (this) {
+      final PooledContext existing = myContexts.get(key);
+      if (existing != null) {
+        if (pooledContext == null) {
+          // created concurrently by another thread, the context created here is dropped
+          myHitCount++;
+        }
+        pooledContext = existing;
+      }
+      else if (pooledContext == null) {
+        myMissCount++;
+        pooledContext = new PooledContext(context);
+        myContexts.put(key, pooledContext);
+      }
+      else {
+        // evicted while the lock was released, it's about to be used, so it's put back
+        myContexts.put(key, pooledContext);
+      }
+
+      if (lastUsedContext != null && lastUsedContext == myLastUsedContext) {
+        lastUsedContext.mySourceCount = lastUsedSourceCount;
+      }
+      if (pooledContext != myLastUsedContext) {
+        myLastUsedContext = pooledContext;
+        evictIfNeeded(pooledContext);
+      }
+      return pooledContext;
+    }
+  }
+
+  public synchronized void fileCreated(final @NotNull VirtualFile file) {
+    for (PooledContext pooledContext : myContexts.values()) {
+      pooledContext.fileCreated(file);
+    }
+  }
+
+  public synchronized void sourceChanged(final @NotNull DartFileBasedSource source) {
+    for (PooledContext pooledContext : myContexts.values()) {
+      pooledContext.sourceChanged(source);
+    }
+  }
+
+  public synchronized void sourceRemoved(final @NotNull DartFileBasedSource source) {
+    for (PooledContext pooledContext : myContexts.values()) {
+      pooledContext.sourceRemoved(source);
+    }
+  }
+
+  @Nullable
+  public synchronized PooledContext findPooledContext(final @NotNull AnalysisContext context) {
+    for (PooledContext pooledContext : myContexts.values()) {
+      if (pooledContext.myContext == context) return pooledContext;
+    }
+    return null;
+  }
+
+  @NotNull
+  public synchronized Statistics getStatistics() {
+    return new Statistics(myHitCount, myMissCount, myEvictionCount, myContexts.size());
+  }
+
+  private void evictIfNeeded(final @NotNull PooledContext contextInUse) {
+    int totalSources = 0;
+    for (PooledContext pooledContext : myContexts.values()) {
+      totalSources += pooledContext.mySourceCount;
+    }
+
+    // iteration order is from the least recently used to the most recently used context
+    final Iterator<PooledContext> iterator = myContexts.values().iterator();
+    while ((myContexts.size() > MAX_CONTEXTS || totalSources > MAX_SOURCES) && iterator.hasNext()) {
+      final PooledContext pooledContext = iterator.next();
+      if (pooledContext == contextInUse) continue;
+
+      iterator.remove();
+      totalSources -= pooledContext.mySourceCount;
+      myEvictionCount++;
+
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Analysis context evicted, " + getStatistics());
+      }
+    }
+  }
+
+  /**
+   * Besides the analysis context itself keeps the sources that were created, changed or removed since the context was used last
+   * time, so that applying changes to the context doesn't require checking all sources it knows about.
+   */
+  static class PooledContext {
+    private final @NotNull AnalysisContext myContext;
+    private final Set<VirtualFile> myCreatedFiles = new THashSet<VirtualFile>();
+    private final Set<DartFileBasedSource> myChangedSources = new THashSet<DartFileBasedSource>();
+    private final Set<DartFileBasedSource> myRemovedSources = new THashSet<DartFileBasedSource>();
+    private final Map<Source, LibraryErrors> myLibraryErrors = new THashMap<Source, LibraryErrors>();
+    private long myModificationCount;
+    private int mySourceCount;
+
+    private PooledContext(final @NotNull AnalysisContext context) {
+      myContext = context;
+    }
+
+    @NotNull
+    public AnalysisContext getContext() {
+      return myContext;
+    }
+
+    private int computeSourceCount() {
+      return myContext.getLibrarySources().length + myContext.getHtmlSources().length;
+    }
+
+    public synchronized void fileCreated(final @NotNull VirtualFile file) {
+      myCreatedFiles.add(file);
+    }
+
+    public synchronized void sourceChanged(final @NotNull DartFileBasedSource source) {
+      myChangedSources.add(source);
+    }
+
+    public synchronized void sourceRemoved(final @NotNull DartFileBasedSource source) {
+      myChangedSources.remove(source);
+      myRemovedSources.add(source);
+      myLibraryErrors.remove(source);
+    }
+
+    /**
+     * Moves all pending changes to the <code>changeSet</code>.
+     *
+     * @return number of sources added to the <code>changeSet</code>
+     */
+    public synchronized int drainChanges(final @NotNull Project project, final @NotNull ChangeSet changeSet) {
+      for (VirtualFile file : myCreatedFiles) {
+        changeSet.addedSource(DartFileBasedSource.getSource(project, file));
+      }
+      for (DartFileBasedSource source : myChangedSources) {
+        changeSet.changedSource(source);
+      }
+      for (DartFileBasedSource source : myRemovedSources) {
+        changeSet.removedSource(source);
+      }
+
+      final int count = myCreatedFiles.size() + myChangedSources.size() + myRemovedSources.size();
+      if (count > 0) {
+        myModificationCount++;
+      }
+      myCreatedFiles.clear();
+      myChangedSources.clear();
+      myRemovedSources.clear();
+      return count;
+    }
+
+    /**
+     * Errors are computed for the whole library at once and cached until any source of the context changes or
+     * a modification stamp of the library or one of its parts differs from the one seen at analysis time.
+     */
+    @NotNull
+    public AnalysisError[] computeErrors(final @NotNull Source librarySource, final @NotNull Source unitSource) throws AnalysisException {
+      final long modificationCount;
+      synchronized (this) {
+        final LibraryErrors cached = myLibraryErrors.get(librarySource);
+        if (cached != null && cached.myModificationCount == myModificationCount && cached.isUpToDate()) {
+          final AnalysisError[] errors = cached.myUnitErrors.get(unitSource);
+          if (errors != null) return errors;
+        }
+        modificationCount = myModificationCount;
+      }
+
+      myContext.computeErrors(librarySource);
+
+      final LibraryErrors libraryErrors = new LibraryErrors(modificationCount);
+      libraryErrors.addUnit(myContext, librarySource);
+      final LibraryElement libraryElement = myContext.getLibraryElement(librarySource);
+      if (libraryElement != null) {
+        for (CompilationUnitElement part : libraryElement.getParts()) {
+          libraryErrors.addUnit(myContext, part.getSource());
+        }
+      }
+
+      synchronized (this) {
+        myLibraryErrors.put(librarySource, libraryErrors);
+      }
+
+      final AnalysisError[] errors = libraryErrors.myUnitErrors.get(unitSource);
+      return errors != null ? errors : myContext.getErrors(unitSource).getErrors();
+    }
+  }
+
+  /**
+   * Snapshot of the pool counters: lookups served by a pooled context, lookups that created a new one, evicted contexts
+   * and contexts currently in the pool.
+   */
+  static class Statistics {
+    private final int myHitCount;
+    private final int myMissCount;
+    private final int myEvictionCount;
+    private final int myContextCount;
+
+    private Statistics(final int hitCount, final int missCount, final int evictionCount, final int contextCount) {
+      myHitCount = hitCount;
+      myMissCount = missCount;
+      myEvictionCount = evictionCount;
+      myContextCount = contextCount;
+    }
+
+    public int getHitCount() {
+      return myHitCount;
+    }
+
+    public int getMissCount() {
+      return myMissCount;
+    }
+
+    public int getEvictionCount() {
+      return myEvictionCount;
+    }
+
+    public int getContextCount() {
+      return myContextCount;
+    }
+
+    @Override
+    public String toString() {
+      return "hits: " + myHitCount + ", misses: " + myMissCount + ", evictions: " + myEvictionCount + ", contexts: " + myContextCount;
+    }
+  }
+
+  private static class LibraryErrors {
+    private final long myModificationCount;
+    private final Map<Source, Long> myUnitStamps = new THashMap<Source, Long>();
+    private final Map<Source, AnalysisError[]> myUnitErrors = new THashMap<Source, AnalysisError[]>();
+
+    private LibraryErrors(final long modificationCount) {
+      myModificationCount = modificationCount;
+    }
+
+    private void addUnit(final @NotNull AnalysisContext context, final @NotNull Source unitSource) {
+      myUnitStamps.put(unitSource, unitSource.getModificationStamp());
+      myUnitErrors.put(unitSource, context.getErrors(unitSource).getErrors());
+    }
+
+    private boolean isUpToDate() {
+      for (Map.Entry<Source, Long> entry : myUnitStamps.entrySet()) {
+        if (entry.getKey().getModificationStamp() != entry.getValue().longValue()) return false;
+      }
+      return true;
+    }
+  }
+
+  private static class ContextKey {
+    private final @NotNull String mySdkPath;
+    private final @Nullable VirtualFile myPackagesFolder;
+
+    private ContextKey(final @NotNull String sdkPath, final @Nullable VirtualFile packagesFolder) {
+      mySdkPath = sdkPath;
+      myPackagesFolder = packagesFolder;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      return o instanceof ContextKey &&
+             mySdkPath.equals(((ContextKey)o).mySdkPath) &&
+             Comparing.equal(myPackagesFolder, ((ContextKey)o).myPackagesFolder);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * mySdkPath.hashCode() + (myPackagesFolder == null ? 0 : myPackagesFolder.hashCode());
+    }
+  }
+}
@@ -2,42 +2,43 @@ package com.jetbrains.lang.dart.analyzer;
 
 import com.google.dart.engine.AnalysisEngine;
 import com.google.dart.engine.context.AnalysisContext;
+import com.google.dart.engine.context.AnalysisException;
 import com.google.dart.engine.context.ChangeSet;
+import com.google.dart.engine.error.AnalysisError;
 import com.google.dart.engine.sdk.DirectoryBasedDartSdk;
 import com.google.dart.engine.source.DartUriResolver;
-import com.google.dart.engine.source.Source;
 import com.google.dart.engine.source.SourceFactory;
 import com.google.dart.engine.source.UriResolver;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.event.DocumentAdapter;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.Factory;
 import com.intellij.openapi.util.io.FileUtilRt;
 import com.intellij.openapi.vfs.*;
-import com.intellij.reference.SoftReference;
 import com.intellij.util.Function;
 import com.jetbrains.lang.dart.DartFileType;
 import gnu.trove.THashMap;
-import gnu.trove.THashSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
-import java.lang.ref.WeakReference;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 public class DartAnalyzerService {
 
   private final Project myProject;
 
-  private @Nullable String mySdkPath;
-  private @Nullable VirtualFile myDartPackagesFolder;
-  private @Nullable WeakReference<AnalysisContext> myAnalysisContextRef;
+  private final DartAnalysisContextPool myContextPool = new DartAnalysisContextPool();
 
-  private final Collection<VirtualFile> myCreatedFiles = Collections.synchronizedSet(new THashSet<VirtualFile>());
+  private volatile int myLastCheckedSourcesCount;
 
   private final Map<VirtualFile, DartFileBasedSource> myFileToSourceMap =
     Collections.synchronizedMap(new THashMap<VirtualFile, DartFileBasedSource>());
@@ -57,9 +58,11 @@ public class DartAnalyzerService {
       }
 
       public void fileDeleted(@NotNull final VirtualFileEvent event) {
-        if (FileUtilRt.extensionEquals(event.getFileName(), DartFileType.DEFAULT_EXTENSION)) {
-          myFileToSourceMap.remove(event.getFile());
-        }
+        sourcesRemoved(event.getFile());
+      }
+
+      public void contentsChanged(@NotNull final VirtualFileEvent event) {
+        sourceChanged(event.getFile());
       }
 
       public void propertyChanged(@NotNull final VirtualFilePropertyEvent event) {
@@ -78,13 +81,22 @@ public class DartAnalyzerService {
 
       public void fileCreated(@NotNull final VirtualFileEvent event) {
         if (FileUtilRt.extensionEquals(event.getFileName(), DartFileType.DEFAULT_EXTENSION)) {
-          myCreatedFiles.add(event.getFile());
+          myContextPool.fileCreated(event.getFile());
         }
       }
     };
 
     LocalFileSystem.getInstance().addVirtualFileListener(listener);
 
+    EditorFactory.getInstance().getEventMulticaster().addDocumentListener(new DocumentAdapter() {
+      public void documentChanged(final DocumentEvent event) {
+        final VirtualFile file = FileDocumentManager.getInstance().getFile(event.getDocument());
+        if (file != null) {
+          sourceChanged(file);
+        }
+      }
+    }, project);
+
     Disposer.register(project, new Disposable() {
       public void dispose() {
         LocalFileSystem.getInstance().removeVirtualFileListener(listener);
@@ -101,63 +113,112 @@ public class DartAnalyzerService {
   public AnalysisContext getAnalysisContext(final @NotNull VirtualFile annotatedFile,
                                             final @NotNull String sdkPath,
                                             final @Nullable VirtualFile packagesFolder) {
-    AnalysisContext analysisContext = SoftReference.dereference(myAnalysisContextRef);
+    final DartAnalysisContextPool.PooledContext pooledContext =
+      myContextPool.getOrCreate(sdkPath, packagesFolder, new Factory<AnalysisContext>() {
+        public AnalysisContext create() {
+          return createAnalysisContext(sdkPath, packagesFolder);
+        }
+      });
 
-    if (analysisContext != null && Comparing.equal(sdkPath, mySdkPath) && Comparing.equal(packagesFolder, myDartPackagesFolder)) {
-      applyChangeSet(analysisContext, annotatedFile);
-      myCreatedFiles.clear();
-    }
-    else {
-      final DartUriResolver dartUriResolver = new DartUriResolver(new DirectoryBasedDartSdk(new File(sdkPath)));
-      final UriResolver fileResolver = new DartFileUriResolver(myProject);
-      final SourceFactory sourceFactory =
-        packagesFolder == null
-        ? new SourceFactory(dartUriResolver, fileResolver)
-        : new SourceFactory(dartUriResolver, fileResolver, new DartPackageUriResolver(myProject, packagesFolder));
-
-      analysisContext = AnalysisEngine.getInstance().createAnalysisContext();
-      analysisContext.setSourceFactory(sourceFactory);
-
-      mySdkPath = sdkPath;
-      myDartPackagesFolder = packagesFolder;
-      myAnalysisContextRef = new WeakReference<AnalysisContext>(analysisContext);
+    applyChangeSet(pooledContext, annotatedFile);
+    return pooledContext.getContext();
+  }
+
+  /**
+   * Hit, miss and eviction counters of the pooled analysis contexts.
+   */
+  @NotNull
+  public DartAnalysisContextPool.Statistics getContextPoolStatistics() {
+    return myContextPool.getStatistics();
+  }
+
+  /**
+   * Analyzes <code>librarySource</code> and returns errors found in <code>unitSource</code>, which is either the library itself or
+   * one of its parts. Results are cached for the whole library, so highlighting of all its parts requires one analysis.
+   */
+  @NotNull
+  public AnalysisError[] computeErrors(final @NotNull AnalysisContext context,
+                                       final @NotNull DartFileBasedSource librarySource,
+                                       final @NotNull DartFileBasedSource unitSource) throws AnalysisException {
+    final DartAnalysisContextPool.PooledContext pooledContext = myContextPool.findPooledContext(context);
+    if (pooledContext != null) {
+      return pooledContext.computeErrors(librarySource, unitSource);
     }
 
+    // context has already been evicted from the pool
+    context.computeErrors(librarySource);
+    return context.getErrors(unitSource).getErrors();
+  }
+
+  @NotNull
+  private AnalysisContext createAnalysisContext(final @NotNull String sdkPath, final @Nullable VirtualFile packagesFolder) {
+    final DartUriResolver dartUriResolver = new DartUriResolver(new DirectoryBasedDartSdk(new File(sdkPath)));
+    final UriResolver fileResolver = new DartFileUriResolver(myProject);
+    final SourceFactory sourceFactory =
+      packagesFolder == null
+      ? new SourceFactory(dartUriResolver, fileResolver)
+      : new SourceFactory(dartUriResolver, fileResolver, new DartPackageUriResolver(myProject, packagesFolder));
+
+    final AnalysisContext analysisContext = AnalysisEngine.getInstance().createAnalysisContext();
+    analysisContext.setSourceFactory(sourceFactory);
     return analysisContext;
   }
 
-  private void applyChangeSet(final AnalysisContext context, final VirtualFile annotatedFile) {
-    final ChangeSet changeSet = new ChangeSet();
+  private void applyChangeSet(final DartAnalysisContextPool.PooledContext pooledContext, final VirtualFile annotatedFile) {
+    int checkedSourcesCount = 0;
 
+    // changes of the annotated file are expected to be reported by listeners, this is just a cheap safety net
     final DartFileBasedSource source = myFileToSourceMap.get(annotatedFile);
     if (source != null) {
-      handleDeletedAndOutOfDateSources(changeSet, source);
+      checkedSourcesCount++;
+      if (source.isOutOfDate()) {
+        pooledContext.sourceChanged(source);
+      }
     }
 
-    handleDeletedAndOutOfDateSources(changeSet, context.getLibrarySources());
-    handleDeletedAndOutOfDateSources(changeSet, context.getHtmlSources());
+    final ChangeSet changeSet = new ChangeSet();
+    checkedSourcesCount += pooledContext.drainChanges(myProject, changeSet);
+    myLastCheckedSourcesCount = checkedSourcesCount;
 
-    synchronized (myCreatedFiles) {
-      for (VirtualFile file : myCreatedFiles) {
-        changeSet.addedSource(DartFileBasedSource.getSource(myProject, file));
-      }
+    if (!changeSet.isEmpty()) {
+      pooledContext.getContext().applyChanges(changeSet);
     }
+  }
 
-    context.applyChanges(changeSet);
+  /**
+   * @return number of sources that were checked and submitted to the analysis context during the last highlighting pass
+   */
+  public int getLastCheckedSourcesCount() {
+    return myLastCheckedSourcesCount;
   }
 
-  private void handleDeletedAndOutOfDateSources(final ChangeSet changeSet, final Source... sources) {
-    for (final Source source : sources) {
-      if (source instanceof DartFileBasedSource) {
-        if (!source.exists() || !myFileToSourceMap.containsKey(((DartFileBasedSource)source).getFile())) {
-          changeSet.removedSource(source);
-          continue;
-        }
+  private void sourceChanged(final @NotNull VirtualFile file) {
+    final DartFileBasedSource source = myFileToSourceMap.get(file);
+    if (source != null) {
+      myContextPool.sourceChanged(source);
+    }
+  }
 
-        if (((DartFileBasedSource)source).isOutOfDate()) {
-          changeSet.changedSource(source);
+  private void sourcesRemoved(final @NotNull VirtualFile fileOrDir) {
+    if (fileOrDir.isDirectory()) {
+      final List<DartFileBasedSource> removedSources = new ArrayList<DartFileBasedSource>();
+      synchronized (myFileToSourceMap) {
+        for (Map.Entry<VirtualFile, DartFileBasedSource> entry : myFileToSourceMap.entrySet()) {
+          if (VfsUtilCore.isAncestor(fileOrDir, entry.getKey(), true)) {
+            removedSources.add(entry.getValue());
+          }
         }
       }
+      for (DartFileBasedSource source : removedSources) {
+        myFileToSourceMap.remove(source.getFile());
+        myContextPool.sourceRemoved(source);
+      }
+    }
+    else {
+      final DartFileBasedSource source = myFileToSourceMap.remove(fileOrDir);
+      if (source != null) {
+        myContextPool.sourceRemoved(source);
+      }
     }
   }
 
@@ -34,6 +34,11 @@ public class DartFileBasedSource implements Source {
     myUriKind = uriKind;
   }
 
+  @NotNull
+  public Project getProject() {
+    return myProject;
+  }
+
   @NotNull
   public VirtualFile getFile() {
     return myFile;
@@ -12,19 +12,15 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleUtilCore;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.Trinity;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.search.GlobalSearchScope;
-import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.psi.xml.XmlFile;
-import com.intellij.psi.xml.XmlTag;
-import com.intellij.xml.util.HtmlUtil;
-import com.jetbrains.lang.dart.psi.DartEmbeddedContent;
 import com.jetbrains.lang.dart.sdk.DartSdk;
 import com.jetbrains.lang.dart.util.DartResolveUtil;
 import com.jetbrains.lang.dart.util.PubspecYamlUtil;
@@ -37,12 +33,13 @@ import org.jetbrains.annotations.Nullable;
 import java.util.Collections;
 import java.util.List;
 
-public class DartInProcessAnnotator extends ExternalAnnotator<Pair<DartFileBasedSource, AnalysisContext>, AnalysisContext> {
+public class DartInProcessAnnotator
+  extends ExternalAnnotator<Trinity<DartFileBasedSource, DartFileBasedSource, AnalysisContext>, AnalysisError[]> {
   static final Logger LOG = Logger.getInstance("#com.jetbrains.lang.dart.analyzer.DartInProcessAnnotator");
 
   @Override
   @Nullable
-  public Pair<DartFileBasedSource, AnalysisContext> collectInformation(@NotNull final PsiFile psiFile) {
+  public Trinity<DartFileBasedSource, DartFileBasedSource, AnalysisContext> collectInformation(@NotNull final PsiFile psiFile) {
     final Project project = psiFile.getProject();
 
     final VirtualFile annotatedFile = DartResolveUtil.getRealVirtualFile(psiFile);
@@ -54,7 +51,7 @@ public class DartInProcessAnnotator extends ExternalAnnotator<Pair<DartFileBased
     final DartSdk sdk = DartSdk.getGlobalDartSdk();
     if (sdk == null) return null;
 
-    if (psiFile instanceof XmlFile && !containsDartEmbeddedContent((XmlFile)psiFile)) return null;
+    if (psiFile instanceof XmlFile && DartResolveUtil.findDartRoots(psiFile).isEmpty()) return null;
 
     if (FileUtil.isAncestor(sdk.getHomePath(), annotatedFile.getPath(), true)) return null;
 
@@ -65,29 +62,20 @@ public class DartInProcessAnnotator extends ExternalAnnotator<Pair<DartFileBased
     final List<VirtualFile> libraries = DartResolveUtil.findLibrary(psiFile, GlobalSearchScope.projectScope(project));
     final VirtualFile fileToAnalyze = libraries.isEmpty() || libraries.contains(annotatedFile) ? annotatedFile : libraries.get(0);
 
-    return Pair.create(DartFileBasedSource.getSource(project, fileToAnalyze),
-                       DartAnalyzerService.getInstance(project).getAnalysisContext(annotatedFile, sdk.getHomePath(), packagesFolder));
-  }
-
-  private static boolean containsDartEmbeddedContent(final XmlFile file) {
-    final String text = file.getText();
-    int i = -1;
-    while ((i = text.indexOf("application/dart", i + 1)) != -1) {
-      final PsiElement element = file.findElementAt(i);
-      final XmlTag tag = element == null ? null : PsiTreeUtil.getParentOfType(element, XmlTag.class);
-      if (tag != null && HtmlUtil.isScriptTag(tag) && PsiTreeUtil.getChildOfType(tag, DartEmbeddedContent.class) != null) {
-        return true;
-      }
-    }
-    return false;
+    return Trinity.create(DartFileBasedSource.getSource(project, fileToAnalyze),
+                          DartFileBasedSource.getSource(project, annotatedFile),
+                          DartAnalyzerService.getInstance(project).getAnalysisContext(annotatedFile, sdk.getHomePath(), packagesFolder));
   }
 
   @Override
   @Nullable
-  public AnalysisContext doAnnotate(final Pair<DartFileBasedSource, AnalysisContext> sourceAndContext) {
+  public AnalysisError[] doAnnotate(final Trinity<DartFileBasedSource, DartFileBasedSource, AnalysisContext> sourcesAndContext) {
+    final DartFileBasedSource librarySource = sourcesAndContext.first;
+    final DartFileBasedSource annotatedSource = sourcesAndContext.second;
+    final AnalysisContext analysisContext = sourcesAndContext.third;
     try {
-      sourceAndContext.second.computeErrors(sourceAndContext.first);
-      return sourceAndContext.second;
+      return DartAnalyzerService.getInstance(annotatedSource.getProject())
+        .computeErrors(analysisContext, librarySource, annotatedSource);
     }
     catch (AnalysisException e) {
       LOG.info(e);
@@ -96,17 +84,13 @@ public class DartInProcessAnnotator extends ExternalAnnotator<Pair<DartFileBased
   }
 
   @Override
-  public void apply(@NotNull PsiFile psiFile, @Nullable AnalysisContext analysisContext, @NotNull AnnotationHolder holder) {
-    if (analysisContext == null) return;
+  public void apply(@NotNull PsiFile psiFile, @Nullable AnalysisError[] messages, @NotNull AnnotationHolder holder) {
+    if (messages == null || !psiFile.isValid()) return;
 
     final VirtualFile annotatedFile = DartResolveUtil.getRealVirtualFile(psiFile);
     final DartFileBasedSource source = annotatedFile == null ? null : DartFileBasedSource.getSource(psiFile.getProject(), annotatedFile);
     if (source == null) return;
 
-    // analysisContext.getErrors() doesn't perform analysis and returns already calculated errors
-    final AnalysisError[] messages = analysisContext.getErrors(source).getErrors();
-    if (messages == null || !psiFile.isValid()) return;
-
     for (AnalysisError message : messages) {
       if (message.getErrorCode() == TodoCode.TODO) continue; // already done using IDE engine
 
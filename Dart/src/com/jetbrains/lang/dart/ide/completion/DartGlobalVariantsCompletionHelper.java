@@ -8,7 +8,6 @@ import com.intellij.codeInsight.lookup.LookupElementBuilder;
 import com.intellij.openapi.util.Condition;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.util.PsiTreeUtil;
-import com.intellij.util.Function;
 import com.intellij.util.PairProcessor;
 import com.intellij.util.containers.ContainerUtil;
 import com.jetbrains.lang.dart.ide.index.DartComponentIndex;
@@ -16,10 +15,10 @@ import com.jetbrains.lang.dart.ide.index.DartComponentInfo;
 import com.jetbrains.lang.dart.psi.DartComponentName;
 import com.jetbrains.lang.dart.psi.DartReference;
 import com.jetbrains.lang.dart.util.DartImportUtil;
+import gnu.trove.THashSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.List;
 import java.util.Set;
 
 /**
@@ -33,14 +32,13 @@ public class DartGlobalVariantsCompletionHelper {
                                                  @NotNull PsiElement context,
                                                  Set<DartComponentName> variants,
                                                  @Nullable final Condition<DartComponentInfo> infoFilter) {
-    final List<String> addedNames = ContainerUtil.skipNulls(ContainerUtil.mapNotNull(variants, new Function<DartComponentName, String>() {
-      @Override
-      public String fun(DartComponentName name) {
-        return name.getName();
-      }
-    }));
+    final Set<String> addedNames = new THashSet<String>();
+    for (DartComponentName variant : variants) {
+      ContainerUtil.addIfNotNull(variant.getName(), addedNames);
+    }
     DartComponentIndex.processAllComponents(
       context,
+      result.getPrefixMatcher(),
       new PairProcessor<String, DartComponentInfo>() {
         @Override
         public boolean process(String componentName, DartComponentInfo info) {
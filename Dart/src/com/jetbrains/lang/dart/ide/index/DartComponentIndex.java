@@ -1,5 +1,6 @@
 package com.jetbrains.lang.dart.ide.index;
 
+import com.intellij.codeInsight.completion.PrefixMatcher;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Condition;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -21,7 +22,7 @@ import java.util.*;
  */
 public class DartComponentIndex extends FileBasedIndexExtension<String, DartComponentInfo> {
   public static final ID<String, DartComponentInfo> DART_COMPONENT_INDEX = ID.create("DartComponentIndex");
-  private static final int INDEX_VERSION = 3;
+  private static final int INDEX_VERSION = 4;
   private final DataIndexer<String, DartComponentInfo, FileContent> myIndexer = new MyDataIndexer();
   private final DataExternalizer<DartComponentInfo> myExternalizer = new DartComponentInfoExternalizer();
 
@@ -62,7 +63,7 @@ public class DartComponentIndex extends FileBasedIndexExtension<String, DartComp
 
   @Override
   public int getVersion() {
-    return DartIndexUtil.BASE_VERSION + INDEX_VERSION;
+    return DartIndexUtil.BASE_VERSION + INDEX_VERSION + DartIndexStringEnumerator.VERSION;
   }
 
   public static List<VirtualFile> getAllFiles(@NotNull Project project, @Nullable String componentName) {
@@ -73,23 +74,27 @@ public class DartComponentIndex extends FileBasedIndexExtension<String, DartComp
       FileBasedIndex.getInstance().getContainingFiles(DART_COMPONENT_INDEX, componentName, GlobalSearchScope.allScope(project)));
   }
 
-  public static void processAllComponents(@NotNull PsiElement contex,
+  /**
+   * Processes components whose names are accepted by the <code>matcher</code>, skipping names for which <code>nameFilter</code> returns true.
+   */
+  public static void processAllComponents(@NotNull final PsiElement contex,
+                                          @NotNull PrefixMatcher matcher,
                                           final PairProcessor<String, DartComponentInfo> processor,
-                                          Condition<String> nameFilter) {
-    final Collection<String> allKeys = FileBasedIndex.getInstance().getAllKeys(DART_COMPONENT_INDEX, contex.getProject());
-    for (final String componentName : allKeys) {
-      if (nameFilter.value(componentName)) {
-        continue;
-      }
-      if (processComponentsByName(contex, new Processor<DartComponentInfo>() {
-        @Override
-        public boolean process(DartComponentInfo info) {
-          return processor.process(componentName, info);
+                                          final Condition<String> nameFilter) {
+    DartComponentNames.getInstance(contex.getProject()).processMatchingNames(matcher, new Processor<String>() {
+      @Override
+      public boolean process(final String componentName) {
+        if (nameFilter.value(componentName)) {
+          return true;
         }
-      }, componentName)) {
-        return;
+        return !processComponentsByName(contex, new Processor<DartComponentInfo>() {
+          @Override
+          public boolean process(DartComponentInfo info) {
+            return processor.process(componentName, info);
+          }
+        }, componentName);
       }
-    }
+    });
   }
 
   public static boolean processComponentsByName(PsiElement contex,
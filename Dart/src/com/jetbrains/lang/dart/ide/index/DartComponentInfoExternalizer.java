@@ -1,6 +1,7 @@
 package com.jetbrains.lang.dart.ide.index;
 
 import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
 import com.jetbrains.lang.dart.DartComponentType;
 import org.jetbrains.annotations.NotNull;
 
@@ -9,28 +10,37 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 /**
+ * File names and library ids are enumerated by {@link DartIndexStringEnumerator}, component type is stored as a varint
+ * ({@code 0} for {@code null} type, {@code ordinal + 1} otherwise).
+ *
  * @author: Fedor.Korotkov
  */
 public class DartComponentInfoExternalizer implements DataExternalizer<DartComponentInfo> {
   @Override
   public void save(@NotNull DataOutput out, DartComponentInfo componentInfo) throws IOException {
-    out.writeUTF(componentInfo.getValue());
-    final DartComponentType dartComponentType = componentInfo.getType();
-    final int key = dartComponentType == null ? -1 : dartComponentType.getKey();
-    out.writeInt(key);
-    final String libraryId = componentInfo.getLibraryId();
-    out.writeBoolean(libraryId != null);
-    if (libraryId != null) {
-      out.writeUTF(libraryId);
-    }
+    saveComponentInfo(out, componentInfo);
   }
 
   @Override
   public DartComponentInfo read(@NotNull DataInput in) throws IOException {
-    final String value = in.readUTF();
-    final int key = in.readInt();
-    final boolean haveLibraryId = in.readBoolean();
-    final String libraryId = haveLibraryId ? in.readUTF() : null;
+    return readComponentInfo(in);
+  }
+
+  static void saveComponentInfo(@NotNull DataOutput out, @NotNull DartComponentInfo componentInfo) throws IOException {
+    DartIndexStringEnumerator.writeString(out, componentInfo.getValue());
+    final DartComponentType dartComponentType = componentInfo.getType();
+    DataInputOutputUtil.writeINT(out, dartComponentType == null ? 0 : dartComponentType.getKey() + 1);
+    DartIndexStringEnumerator.writeString(out, componentInfo.getLibraryId());
+  }
+
+  @NotNull
+  static DartComponentInfo readComponentInfo(@NotNull DataInput in) throws IOException {
+    final String value = DartIndexStringEnumerator.readString(in);
+    if (value == null) {
+      throw new IOException("Dart component info without value");
+    }
+    final int key = DataInputOutputUtil.readINT(in) - 1;
+    final String libraryId = DartIndexStringEnumerator.readString(in);
     return new DartComponentInfo(value, DartComponentType.valueOf(key), libraryId);
   }
 }
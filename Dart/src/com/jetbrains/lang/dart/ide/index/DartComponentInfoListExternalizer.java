@@ -1,7 +1,7 @@
 package com.jetbrains.lang.dart.ide.index;
 
 import com.intellij.util.io.DataExternalizer;
-import com.jetbrains.lang.dart.DartComponentType;
+import com.intellij.util.io.DataInputOutputUtil;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.DataInput;
@@ -14,33 +14,21 @@ import java.util.List;
 public class DartComponentInfoListExternalizer implements DataExternalizer<List<DartComponentInfo>> {
   @Override
   public void save(@NotNull DataOutput out, List<DartComponentInfo> infos) throws IOException {
-    out.writeInt(infos.size());
+    DataInputOutputUtil.writeINT(out, infos.size());
     for (DartComponentInfo componentInfo : infos) {
-      out.writeUTF(componentInfo.getValue());
-      final DartComponentType dartComponentType = componentInfo.getType();
-      final int key = dartComponentType == null ? -1 : dartComponentType.getKey();
-      out.writeInt(key);
-      final String libraryId = componentInfo.getLibraryId();
-      out.writeBoolean(libraryId != null);
-      if (libraryId != null) {
-        out.writeUTF(libraryId);
-      }
+      DartComponentInfoExternalizer.saveComponentInfo(out, componentInfo);
     }
   }
 
   @Override
   public List<DartComponentInfo> read(@NotNull DataInput in) throws IOException {
-    int size = in.readInt();
+    int size = DataInputOutputUtil.readINT(in);
     if (size == 0) return Collections.emptyList();
 
     List<DartComponentInfo> result = new ArrayList<DartComponentInfo>(size);
 
     for (int i = 0; i < size; i++) {
-      final String value = in.readUTF();
-      final int key = in.readInt();
-      final boolean haveLibraryId = in.readBoolean();
-      final String libraryId = haveLibraryId ? in.readUTF() : null;
-      result.add(new DartComponentInfo(value, DartComponentType.valueOf(key), libraryId));
+      result.add(DartComponentInfoExternalizer.readComponentInfo(in));
     }
     return result;
   }
@@ -0,0 +1,120 @@
+package com.jetbrains.lang.dart.ide.index;
+
+import com.intellij.codeInsight.completion.PrefixMatcher;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.Processor;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.jetbrains.lang.dart.psi.DartModificationTracker;
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Names of all components from {@link DartComponentIndex} with a per-character lookup table, so that completion checks only the names
+ * that contain the rarest character of the typed prefix instead of all names in the project.
+ * A pure prefix tree is not enough here: the completion matcher also accepts camel humps and matches in the middle of a name,
+ * but it always requires all typed characters to be present in the name.
+ */
+class DartComponentNames {
+  private static final Key<CachedValue<DartComponentNames>> DART_COMPONENT_NAMES_KEY = Key.create("DART_COMPONENT_NAMES_KEY");
+  private static final int ASCII_COUNT = 128;
+
+  private final String[] myNames;
+  // indices in myNames of the names containing the character (in lower case), the last bucket is for all non-ascii characters
+  private final int[][] myNamesByChar;
+
+  private DartComponentNames(final @NotNull String[] names) {
+    Arrays.sort(names);
+    myNames = names;
+
+    final TIntArrayList[] buckets = new TIntArrayList[ASCII_COUNT + 1];
+    for (int i = 0; i < names.length; i++) {
+      final String name = names[i];
+      for (int j = 0; j < name.length(); j++) {
+        final int bucket = getBucket(name.charAt(j));
+        if (buckets[bucket] == null) {
+          buckets[bucket] = new TIntArrayList();
+        }
+        final TIntArrayList list = buckets[bucket];
+        // the same char may repeat in the name
+        if (list.isEmpty() || list.get(list.size() - 1) != i) {
+          list.add(i);
+        }
+      }
+    }
+
+    myNamesByChar = new int[buckets.length][];
+    for (int i = 0; i < buckets.length; i++) {
+      myNamesByChar[i] = buckets[i] == null ? ArrayUtil.EMPTY_INT_ARRAY : buckets[i].toNativeArray();
+    }
+  }
+
+  @NotNull
+  static DartComponentNames getInstance(final @NotNull Project project) {
+    final CachedValueProvider<DartComponentNames> provider = new CachedValueProvider<DartComponentNames>() {
+      @Override
+      public Result<DartComponentNames> compute() {
+        final Collection<String> names = FileBasedIndex.getInstance().getAllKeys(DartComponentIndex.DART_COMPONENT_INDEX, project);
+        return new Result<DartComponentNames>(new DartComponentNames(ArrayUtil.toStringArray(names)),
+                                              PsiModificationTracker.OUT_OF_CODE_BLOCK_MODIFICATION_COUNT,
+                                              DartModificationTracker.getInstance(project),
+                                              ProjectRootManager.getInstance(project));
+      }
+    };
+    return CachedValuesManager.getManager(project).getCachedValue(project, DART_COMPONENT_NAMES_KEY, provider, false);
+  }
+
+  /**
+   * Processes the names accepted by the matcher, stops and returns <code>false</code> as soon as the processor returns <code>false</code>.
+   */
+  boolean processMatchingNames(final @NotNull PrefixMatcher matcher, final @NotNull Processor<String> processor) {
+    final int[] candidates = getCandidates(matcher.getPrefix());
+
+    if (candidates == null) {
+      for (String name : myNames) {
+        ProgressManager.checkCanceled();
+        if (matcher.prefixMatches(name) && !processor.process(name)) return false;
+      }
+      return true;
+    }
+
+    for (int index : candidates) {
+      ProgressManager.checkCanceled();
+      final String name = myNames[index];
+      if (matcher.prefixMatches(name) && !processor.process(name)) return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return the smallest bucket for the identifier characters of the prefix or <code>null</code> if all names are candidates
+   */
+  private int[] getCandidates(final @NotNull String prefix) {
+    int[] result = null;
+    for (int i = 0; i < prefix.length(); i++) {
+      final char c = prefix.charAt(i);
+      if (c < ASCII_COUNT && !Character.isLetterOrDigit(c) && c != '_' && c != '$') continue; // wildcards and separators
+
+      final int[] bucket = myNamesByChar[getBucket(c)];
+      if (result == null || bucket.length < result.length) {
+        result = bucket;
+      }
+    }
+    return result;
+  }
+
+  private static int getBucket(final char c) {
+    final char lowerCase = Character.toLowerCase(c);
+    return lowerCase < ASCII_COUNT ? lowerCase : ASCII_COUNT;
+  }
+}
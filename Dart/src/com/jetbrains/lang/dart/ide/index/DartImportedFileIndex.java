@@ -0,0 +1,123 @@
+package com.jetbrains.lang.dart.ide.index;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import com.jetbrains.lang.dart.util.DartResolveUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reverse import and part index: maps every file referenced by an import or part directive to the files containing the
+ * directive. Relative references are stored as canonical absolute paths; references into <code>packages</code> folders and
+ * <code>package:</code> imports are stored as <code>package:name/path</code> because they can only be resolved against the
+ * pubspec of the importing file. <code>dart:</code> imports are not indexed.
+ */
+public class DartImportedFileIndex extends ScalarIndexExtension<String> {
+  public static final ID<String, Void> DART_IMPORTED_FILE_INDEX = ID.create("DartImportedFileIndex");
+  private static final int INDEX_VERSION = 1;
+
+  private static final String PACKAGES_FOLDER = "/packages/";
+
+  private DataIndexer<String, Void, FileContent> myDataIndexer = new MyDataIndexer();
+
+  @NotNull
+  @Override
+  public ID<String, Void> getName() {
+    return DART_IMPORTED_FILE_INDEX;
+  }
+
+  @Override
+  public int getVersion() {
+    return DartIndexUtil.BASE_VERSION + INDEX_VERSION;
+  }
+
+  @NotNull
+  @Override
+  public DataIndexer<String, Void, FileContent> getIndexer() {
+    return myDataIndexer;
+  }
+
+  @NotNull
+  @Override
+  public KeyDescriptor<String> getKeyDescriptor() {
+    return new EnumeratorStringDescriptor();
+  }
+
+  @NotNull
+  @Override
+  public FileBasedIndex.InputFilter getInputFilter() {
+    return DartInputFilter.INSTANCE;
+  }
+
+  @Override
+  public boolean dependsOnFileContent() {
+    return true;
+  }
+
+  /**
+   * @param reference canonical path of a file or <code>package:name/path</code>
+   */
+  public static Collection<VirtualFile> getImportingFiles(@NotNull Project project,
+                                                          @NotNull String reference,
+                                                          @NotNull GlobalSearchScope scope) {
+    return FileBasedIndex.getInstance().getContainingFiles(DART_IMPORTED_FILE_INDEX, reference, scope);
+  }
+
+  @Nullable
+  private static String getReference(@NotNull VirtualFile file, @NotNull String pathOrUrl) {
+    if (pathOrUrl.startsWith("dart:")) return null;
+    if (pathOrUrl.startsWith(DartResolveUtil.PACKAGE_PREFIX)) return pathOrUrl;
+
+    final String path;
+    if (pathOrUrl.contains("://")) {
+      path = VfsUtilCore.urlToPath(pathOrUrl);
+    }
+    else if (pathOrUrl.startsWith("/")) {
+      path = pathOrUrl;
+    }
+    else {
+      final VirtualFile parent = file.getParent();
+      if (parent == null) return null;
+      path = parent.getPath() + "/" + pathOrUrl;
+    }
+
+    final String canonicalPath = FileUtil.toCanonicalPath(path);
+    final int packagesIndex = canonicalPath.lastIndexOf(PACKAGES_FOLDER);
+    return packagesIndex < 0
+           ? canonicalPath
+           : DartResolveUtil.PACKAGE_PREFIX + canonicalPath.substring(packagesIndex + PACKAGES_FOLDER.length());
+  }
+
+  private static class MyDataIndexer implements DataIndexer<String, Void, FileContent> {
+    @NotNull
+    @Override
+    public Map<String, Void> map(FileContent inputData) {
+      final DartFileIndexData indexData = DartIndexUtil.indexFile(inputData);
+      final Map<String, Void> result = new HashMap<String, Void>();
+      for (DartPathInfo pathInfo : indexData.getImportPaths()) {
+        addReference(result, inputData.getFile(), pathInfo.getPath());
+      }
+      for (String path : indexData.getPaths()) {
+        addReference(result, inputData.getFile(), path);
+      }
+      return result;
+    }
+
+    private static void addReference(@NotNull Map<String, Void> result, @NotNull VirtualFile file, @NotNull String pathOrUrl) {
+      final String reference = getReference(file, pathOrUrl);
+      if (reference != null) {
+        result.put(reference, null);
+      }
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package com.jetbrains.lang.dart.ide.index;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.ShutDownTracker;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.containers.ConcurrentHashMap;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.PersistentStringEnumerator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Application-wide persistent enumerator for strings that repeat across Dart index values (file names, library ids).
+ * Index values store a varint id instead of the string itself; id {@code 0} stands for {@code null}.
+ * <p/>
+ * Ids are meaningful only together with the index values they were written to, so {@link #VERSION} is a part of the version
+ * of every index that uses the enumerator, and a storage that is missing, corrupted or written by another version is
+ * recreated together with those indices.
+ * <p/>
+ * Enumerated strings are never changed, so both directions are cached in memory and index reads don't lock
+ * the persistent storage once a string is known.
+ */
+class DartIndexStringEnumerator {
+  private static final Logger LOG = Logger.getInstance(DartIndexStringEnumerator.class.getName());
+  static final int VERSION = 1;
+  private static final int NULL_ID = 0;
+  private static final int MAX_CACHED_STRINGS = 64 * 1024;
+
+  private static volatile PersistentStringEnumerator ourEnumerator;
+  private static final Map<Integer, String> ourStringsById = new ConcurrentHashMap<Integer, String>();
+  private static final Map<String, Integer> ourIdsByString = new ConcurrentHashMap<String, Integer>();
+
+  private DartIndexStringEnumerator() {
+  }
+
+  public static void writeString(@NotNull DataOutput out, @Nullable String value) throws IOException {
+    DataInputOutputUtil.writeINT(out, value == null ? NULL_ID : enumerate(value));
+  }
+
+  @Nullable
+  public static String readString(@NotNull DataInput in) throws IOException {
+    final int id = DataInputOutputUtil.readINT(in);
+    if (id == NULL_ID) return null;
+
+    final String cached = ourStringsById.get(id);
+    if (cached != null) return cached;
+
+    final String value = getEnumerator().valueOf(id);
+    if (value == null) {
+      throw new IOException("Unknown Dart index string id: " + id);
+    }
+    cache(id, value);
+    return value;
+  }
+
+  private static int enumerate(@NotNull String value) throws IOException {
+    final Integer cached = ourIdsByString.get(value);
+    if (cached != null) return cached;
+
+    final int id = getEnumerator().enumerate(value);
+    cache(id, value);
+    return id;
+  }
+
+  private static void cache(int id, @NotNull String value) {
+    if (ourStringsById.size() >= MAX_CACHED_STRINGS) {
+      ourStringsById.clear();
+      ourIdsByString.clear();
+    }
+    ourStringsById.put(id, value);
+    ourIdsByString.put(value, id);
+  }
+
+  @NotNull
+  private static PersistentStringEnumerator getEnumerator() throws IOException {
+    PersistentStringEnumerator enumerator = ourEnumerator;
+    if (enumerator != null) return enumerator;
+
+    synchronized (DartIndexStringEnumerator.class) {
+      if (ourEnumerator == null) {
+        ourEnumerator = openEnumerator();
+        ShutDownTracker.getInstance().registerShutdownTask(new Runnable() {
+          @Override
+          public void run() {
+            close();
+          }
+        });
+      }
+      return ourEnumerator;
+    }
+  }
+
+  @NotNull
+  private static PersistentStringEnumerator openEnumerator() throws IOException {
+    final File file = new File(PathManager.getIndexRoot(), "dart.index.strings");
+    final File versionFile = new File(PathManager.getIndexRoot(), "dart.index.strings.version");
+    if (file.exists() && isCurrentVersion(versionFile)) {
+      try {
+        return new PersistentStringEnumerator(file);
+      }
+      catch (IOException e) {
+        LOG.info("Dart index string storage is corrupted, recreating it", e);
+      }
+    }
+
+    IOUtil.deleteAllFilesStartingWith(file);
+    // ids stored in the index values are meaningless without the old storage
+    FileBasedIndex.getInstance().requestRebuild(DartComponentIndex.DART_COMPONENT_INDEX);
+    FileBasedIndex.getInstance().requestRebuild(DartInheritanceIndex.DART_INHERITANCE_INDEX);
+    final PersistentStringEnumerator enumerator = new PersistentStringEnumerator(file);
+    FileUtil.writeToFile(versionFile, String.valueOf(getVersion()));
+    return enumerator;
+  }
+
+  private static boolean isCurrentVersion(@NotNull File versionFile) {
+    try {
+      return versionFile.exists() && String.valueOf(getVersion()).equals(FileUtil.loadFile(versionFile).trim());
+    }
+    catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static int getVersion() {
+    return DartIndexUtil.BASE_VERSION + VERSION;
+  }
+
+  private static synchronized void close() {
+    ourStringsById.clear();
+    ourIdsByString.clear();
+    if (ourEnumerator == null) return;
+    try {
+      ourEnumerator.close();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+    ourEnumerator = null;
+  }
+}
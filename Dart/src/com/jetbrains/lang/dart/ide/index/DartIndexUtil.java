@@ -5,7 +5,6 @@ import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
-import com.intellij.psi.XmlRecursiveElementVisitor;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.util.indexing.FileContent;
@@ -16,7 +15,6 @@ import com.jetbrains.lang.dart.util.DartResolveUtil;
 import gnu.trove.THashSet;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -27,6 +25,10 @@ public class DartIndexUtil {
 
   private static final Key<DartFileIndexData> ourDartCachesData = Key.create("dart.caches.index.data");
 
+  /**
+   * All Dart file based indices share the same {@link FileContent} instance when a file is indexed,
+   * so the data is extracted from PSI only once and then cached in the content's user data.
+   */
   public static DartFileIndexData indexFile(FileContent content) {
     DartFileIndexData indexData = content.getUserData(ourDartCachesData);
     if (indexData != null) return indexData;
@@ -34,12 +36,13 @@ public class DartIndexUtil {
       indexData = content.getUserData(ourDartCachesData);
       if (indexData != null) return indexData;
       indexData = indexFileRoots(content.getPsiFile());
+      content.putUserData(ourDartCachesData, indexData);
     }
 
     return indexData;
   }
 
-  private static DartFileIndexData indexFileRoots(PsiFile psiFile) {
+  static DartFileIndexData indexFileRoots(PsiFile psiFile) {
     DartFileIndexData result = new DartFileIndexData();
     result.setLibraryName(DartResolveUtil.getLibraryName(psiFile));
     for (PsiElement rootElement : findDartRoots(psiFile)) {
@@ -119,23 +122,9 @@ public class DartIndexUtil {
 
   private static List<PsiElement> findDartRoots(PsiFile psiFile) {
     if (psiFile instanceof XmlFile) {
-      return findDartRootsInXml((XmlFile)psiFile);
+      // PSI files created for indexing are not reused, so caching roots in them doesn't make sense
+      return DartResolveUtil.computeDartRootsInXml((XmlFile)psiFile);
     }
     return Collections.<PsiElement>singletonList(psiFile);
   }
-
-  private static List<PsiElement> findDartRootsInXml(XmlFile xmlFile) {
-    final List<PsiElement> result = new ArrayList<PsiElement>();
-    xmlFile.acceptChildren(new XmlRecursiveElementVisitor() {
-      @Override
-      public void visitElement(PsiElement element) {
-        if (element instanceof DartEmbeddedContent) {
-          result.add(element);
-          return;
-        }
-        super.visitElement(element);
-      }
-    });
-    return result;
-  }
 }
@@ -2,10 +2,7 @@ package com.jetbrains.lang.dart.ide.index;
 
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.util.Computable;
-import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
-import com.intellij.psi.PsiFile;
-import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.search.searches.DefinitionsScopedSearch;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.util.Processor;
@@ -19,7 +16,6 @@ import com.jetbrains.lang.dart.psi.DartClass;
 import com.jetbrains.lang.dart.psi.DartComponent;
 import com.jetbrains.lang.dart.psi.DartComponentName;
 import com.jetbrains.lang.dart.util.DartResolveUtil;
-import gnu.trove.THashSet;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
@@ -29,7 +25,7 @@ import java.util.*;
  */
 public class DartInheritanceIndex extends FileBasedIndexExtension<String, List<DartComponentInfo>> {
   public static final ID<String, List<DartComponentInfo>> DART_INHERITANCE_INDEX = ID.create("DartInheritanceIndex");
-  private static final int INDEX_VERSION = 2;
+  private static final int INDEX_VERSION = 3;
   private final DataIndexer<String, List<DartComponentInfo>, FileContent> myIndexer = new MyDataIndexer();
   private final DataExternalizer<List<DartComponentInfo>> myExternalizer = new DartComponentInfoListExternalizer();
 
@@ -41,7 +37,7 @@ public class DartInheritanceIndex extends FileBasedIndexExtension<String, List<D
 
   @Override
   public int getVersion() {
-    return DartIndexUtil.BASE_VERSION + INDEX_VERSION;
+    return DartIndexUtil.BASE_VERSION + INDEX_VERSION + DartIndexStringEnumerator.VERSION;
   }
 
   @Override
@@ -139,30 +135,12 @@ public class DartInheritanceIndex extends FileBasedIndexExtension<String, List<D
     }
 
     private static boolean processInheritors(final DartClass dartClass, final PsiElement context, final Processor<PsiElement> consumer) {
-      final Set<DartClass> classSet = new THashSet<DartClass>();
-      final LinkedList<DartClass> namesQueue = new LinkedList<DartClass>();
-      namesQueue.add(dartClass);
-      while (!namesQueue.isEmpty()) {
-        final DartClass currentClass = namesQueue.pollFirst();
-        final String currentClassName = currentClass.getName();
-        if (currentClassName == null || !classSet.add(currentClass)) {
-          continue;
+      DartTypeHierarchy.getInstance(context.getProject()).processAllSubclasses(dartClass, new Processor<DartClass>() {
+        @Override
+        public boolean process(DartClass subClass) {
+          return consumer.process(subClass);
         }
-        final Collection<VirtualFile> files =
-          FileBasedIndex.getInstance()
-            .getContainingFiles(DART_INHERITANCE_INDEX, currentClassName, GlobalSearchScope.allScope(context.getProject()));
-        for (VirtualFile virtualFile : files) {
-          PsiFile psiFile = dartClass.getManager().findFile(virtualFile);
-          for (PsiElement root : DartResolveUtil.findDartRoots(psiFile)) {
-            for (DartClass subClass : DartResolveUtil.findClassesByParent(currentClass, root)) {
-              if (!consumer.process(subClass)) {
-                return true;
-              }
-              namesQueue.add(subClass);
-            }
-          }
-        }
-      }
+      });
       return true;
     }
   }
@@ -0,0 +1,428 @@
+package com.jetbrains.lang.dart.ide.index;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.vfs.*;
+import com.intellij.psi.*;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.util.Processor;
+import com.intellij.util.SmartList;
+import com.intellij.util.containers.ConcurrentHashMap;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.jetbrains.lang.dart.DartFileType;
+import com.jetbrains.lang.dart.psi.*;
+import com.jetbrains.lang.dart.util.DartResolveUtil;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Subclass graph of the project. Direct subclasses of a class are looked up in {@link DartInheritanceIndex}, checked by resolving
+ * the super types and remembered as smart pointers, so the graph doesn't keep PSI of other files.
+ * <p/>
+ * A change in a file drops the classes declared there, the classes whose subclasses were looked for in that file, the classes
+ * whose names the file now mentions in its <code>extends</code>, <code>implements</code> or <code>with</code> clauses and the
+ * classes named the same as a top-level class added to or removed from the file, because super types with that name may resolve
+ * differently now. Edits inside function and class bodies keep the graph.
+ * <p/>
+ * Changed library, import, export or part directives, files added, removed, moved or renamed, files changed outside of the IDE
+ * and project roots changes drop the whole graph.
+ */
+public class DartTypeHierarchy {
+  private final Project myProject;
+  private final Map<String, List<Entry>> myEntriesByClassName = new ConcurrentHashMap<String, List<Entry>>();
+  /**
+   * Changed files with their state before the first change since the changes were processed last time.
+   */
+  private final Map<VirtualFile, FileState> myChangedFiles = new ConcurrentHashMap<VirtualFile, FileState>();
+  private final AtomicLong myChangesCount = new AtomicLong();
+  private volatile boolean myFlushAll;
+  private volatile long myRootsModificationCount = -1;
+
+  public static DartTypeHierarchy getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, DartTypeHierarchy.class);
+  }
+
+  public DartTypeHierarchy(@NotNull Project project, @NotNull PsiManager psiManager) {
+    myProject = project;
+
+    psiManager.addPsiTreeChangeListener(new PsiTreeChangeAdapter() {
+      @Override
+      public void beforeChildAddition(@NotNull PsiTreeChangeEvent event) {
+        beforeTreeChange(event);
+      }
+
+      @Override
+      public void beforeChildRemoval(@NotNull PsiTreeChangeEvent event) {
+        beforeTreeChange(event);
+      }
+
+      @Override
+      public void beforeChildReplacement(@NotNull PsiTreeChangeEvent event) {
+        beforeTreeChange(event);
+      }
+
+      @Override
+      public void beforeChildMovement(@NotNull PsiTreeChangeEvent event) {
+        beforeTreeChange(event);
+      }
+
+      @Override
+      public void beforeChildrenChange(@NotNull PsiTreeChangeEvent event) {
+        beforeTreeChange(event);
+      }
+
+      @Override
+      public void childAdded(@NotNull PsiTreeChangeEvent event) {
+        treeChanged(event);
+      }
+
+      @Override
+      public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+        treeChanged(event);
+      }
+
+      @Override
+      public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+        treeChanged(event);
+      }
+
+      @Override
+      public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+        treeChanged(event);
+      }
+
+      @Override
+      public void childMoved(@NotNull PsiTreeChangeEvent event) {
+        treeChanged(event);
+      }
+
+      @Override
+      public void propertyChanged(@NotNull PsiTreeChangeEvent event) {
+        flushAll();
+      }
+    }, project);
+
+    VirtualFileManager.getInstance().addVirtualFileListener(new VirtualFileAdapter() {
+      @Override
+      public void contentsChanged(@NotNull VirtualFileEvent event) {
+        if (!DartFileType.DEFAULT_EXTENSION.equals(event.getFile().getExtension())) return;
+
+        if (event.isFromRefresh()) {
+          // changed outside of the IDE, there is no PSI event telling whether directives have changed
+          flushAll();
+        }
+        else {
+          fileChanged(event.getFile());
+        }
+      }
+    }, project);
+  }
+
+  /**
+   * Remembers top-level classes and directives of the file before its first change since the changes were processed last time.
+   */
+  private void beforeTreeChange(final @NotNull PsiTreeChangeEvent event) {
+    final PsiFile file = getAffectedFile(event);
+    final VirtualFile virtualFile = file == null ? null : file.getOriginalFile().getVirtualFile();
+    if (virtualFile != null && !myChangedFiles.containsKey(virtualFile)) {
+      myChangedFiles.put(virtualFile, FileState.compute(file));
+    }
+  }
+
+  private void treeChanged(final @NotNull PsiTreeChangeEvent event) {
+    if (event.getFile() == null) {
+      // file system level change
+      flushAll();
+      return;
+    }
+
+    final PsiFile file = getAffectedFile(event);
+    if (file == null) return;
+
+    final VirtualFile virtualFile = file.getOriginalFile().getVirtualFile();
+    if (virtualFile == null) {
+      flushAll();
+    }
+    else {
+      fileChanged(virtualFile);
+    }
+  }
+
+  /**
+   * @return the file of the event unless it's not a Dart or html file or the change is inside a function or class body
+   */
+  @Nullable
+  private static PsiFile getAffectedFile(final @NotNull PsiTreeChangeEvent event) {
+    final PsiFile file = event.getFile();
+    if (!(file instanceof DartFile) && !(file instanceof XmlFile)) {
+      return null;
+    }
+
+    final PsiElement parent = event.getParent();
+    if (parent != null && PsiTreeUtil.getNonStrictParentOfType(parent, DartFunctionBody.class, DartClassBody.class) != null) {
+      return null;
+    }
+    return file;
+  }
+
+  private void fileChanged(final @NotNull VirtualFile file) {
+    if (!myChangedFiles.containsKey(file)) {
+      myChangedFiles.put(file, FileState.UNKNOWN);
+    }
+    myChangesCount.incrementAndGet();
+  }
+
+  private void flushAll() {
+    myFlushAll = true;
+    myChangesCount.incrementAndGet();
+  }
+
+  @NotNull
+  public List<DartClass> getDirectSubclasses(@NotNull DartClass dartClass) {
+    final String className = dartClass.getName();
+    if (className == null) {
+      return Collections.emptyList();
+    }
+
+    final long changesCount = myChangesCount.get();
+    processChanges();
+
+    final Entry cached = findEntry(className, dartClass);
+    if (cached != null) {
+      final List<DartClass> subclasses = cached.getSubclasses();
+      if (subclasses != null) {
+        return subclasses;
+      }
+    }
+
+    final Set<VirtualFile> files = new THashSet<VirtualFile>();
+    final List<DartClass> subclasses = computeDirectSubclasses(dartClass, className, files);
+    final VirtualFile classFile = dartClass.getContainingFile().getOriginalFile().getVirtualFile();
+    if (classFile != null && changesCount == myChangesCount.get()) {
+      files.add(classFile);
+      putEntry(className, new Entry(dartClass, subclasses, files));
+    }
+    return subclasses;
+  }
+
+  /**
+   * Processes direct and indirect subclasses, each of them once, closest first.
+   */
+  public boolean processAllSubclasses(@NotNull DartClass dartClass, @NotNull Processor<DartClass> processor) {
+    final Set<DartClass> processed = new THashSet<DartClass>();
+    final LinkedList<DartClass> queue = new LinkedList<DartClass>();
+    processed.add(dartClass);
+    queue.add(dartClass);
+    while (!queue.isEmpty()) {
+      for (DartClass subclass : getDirectSubclasses(queue.pollFirst())) {
+        if (!processed.add(subclass)) continue;
+        if (!processor.process(subclass)) return false;
+        queue.add(subclass);
+      }
+    }
+    return true;
+  }
+
+  @NotNull
+  public List<DartClass> getAllSubclasses(@NotNull DartClass dartClass) {
+    final List<DartClass> result = new ArrayList<DartClass>();
+    processAllSubclasses(dartClass, new Processor<DartClass>() {
+      @Override
+      public boolean process(DartClass subclass) {
+        result.add(subclass);
+        return true;
+      }
+    });
+    return result;
+  }
+
+  private synchronized void processChanges() {
+    final long rootsModificationCount = ProjectRootManager.getInstance(myProject).getModificationCount();
+    if (myFlushAll || rootsModificationCount != myRootsModificationCount) {
+      myFlushAll = false;
+      myRootsModificationCount = rootsModificationCount;
+      myChangedFiles.clear();
+      myEntriesByClassName.clear();
+      return;
+    }
+    if (myChangedFiles.isEmpty()) return;
+
+    final Map<VirtualFile, FileState> changedFiles = new THashMap<VirtualFile, FileState>();
+    for (Iterator<Map.Entry<VirtualFile, FileState>> it = myChangedFiles.entrySet().iterator(); it.hasNext();) {
+      final Map.Entry<VirtualFile, FileState> entry = it.next();
+      changedFiles.put(entry.getKey(), entry.getValue());
+      it.remove();
+    }
+
+    final Set<String> changedClassNames = new THashSet<String>();
+    for (Map.Entry<VirtualFile, FileState> entry : changedFiles.entrySet()) {
+      final VirtualFile file = entry.getKey();
+      final FileState before = entry.getValue();
+      final PsiFile psiFile = file.isValid() ? PsiManager.getInstance(myProject).findFile(file) : null;
+      final FileState after = psiFile == null ? FileState.UNKNOWN : FileState.compute(psiFile);
+
+      if (before != FileState.UNKNOWN && !before.myDirectives.equals(after.myDirectives)) {
+        // imports and exports decide which class a super type name refers to in this file and in the files that import it
+        myEntriesByClassName.clear();
+        return;
+      }
+
+      changedClassNames.addAll(after.mySuperTypeNames);
+      if (!before.myClassNames.equals(after.myClassNames)) {
+        changedClassNames.addAll(before.myClassNames);
+        changedClassNames.addAll(after.myClassNames);
+      }
+    }
+
+    for (String className : changedClassNames) {
+      myEntriesByClassName.remove(className);
+    }
+    for (Iterator<List<Entry>> it = myEntriesByClassName.values().iterator(); it.hasNext();) {
+      final List<Entry> entries = it.next();
+      synchronized (entries) {
+        for (Iterator<Entry> entryIt = entries.iterator(); entryIt.hasNext();) {
+          if (ContainerUtil.intersects(entryIt.next().myFiles, changedFiles.keySet())) {
+            entryIt.remove();
+          }
+        }
+        if (entries.isEmpty()) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  @Nullable
+  private Entry findEntry(@NotNull String className, @NotNull DartClass dartClass) {
+    final List<Entry> entries = myEntriesByClassName.get(className);
+    if (entries == null) return null;
+    synchronized (entries) {
+      for (Entry entry : entries) {
+        if (dartClass.equals(entry.myClass.getElement())) {
+          return entry;
+        }
+      }
+    }
+    return null;
+  }
+
+  private synchronized void putEntry(@NotNull String className, @NotNull Entry entry) {
+    List<Entry> entries = myEntriesByClassName.get(className);
+    if (entries == null) {
+      entries = new SmartList<Entry>();
+      myEntriesByClassName.put(className, entries);
+    }
+    synchronized (entries) {
+      final DartClass dartClass = entry.myClass.getElement();
+      for (Iterator<Entry> it = entries.iterator(); it.hasNext();) {
+        final DartClass existing = it.next().myClass.getElement();
+        if (existing == null || existing.equals(dartClass)) {
+          it.remove();
+        }
+      }
+      entries.add(entry);
+    }
+  }
+
+  @NotNull
+  private List<DartClass> computeDirectSubclasses(@NotNull DartClass dartClass, @NotNull String className,
+                                                  @NotNull Set<VirtualFile> files) {
+    final List<DartClass> result = new ArrayList<DartClass>();
+    files.addAll(FileBasedIndex.getInstance()
+                   .getContainingFiles(DartInheritanceIndex.DART_INHERITANCE_INDEX, className, GlobalSearchScope.allScope(myProject)));
+    for (VirtualFile virtualFile : files) {
+      ProgressManager.checkCanceled();
+      for (PsiElement root : DartResolveUtil.findDartRoots(PsiManager.getInstance(myProject).findFile(virtualFile))) {
+        result.addAll(DartResolveUtil.findClassesByParent(dartClass, root));
+      }
+    }
+    return result.isEmpty() ? Collections.<DartClass>emptyList() : result;
+  }
+
+  /**
+   * Top-level class names, names used in their <code>extends</code>, <code>implements</code> and <code>with</code> clauses,
+   * and the text of library, import, export and part directives of a file.
+   */
+  private static class FileState {
+    static final FileState UNKNOWN = new FileState();
+
+    private final Set<String> myClassNames = new THashSet<String>();
+    private final Set<String> mySuperTypeNames = new THashSet<String>();
+    private String myDirectives = "";
+
+    @NotNull
+    static FileState compute(@NotNull PsiFile psiFile) {
+      final FileState result = new FileState();
+      final StringBuilder directives = new StringBuilder();
+      for (PsiElement root : DartResolveUtil.findDartRoots(psiFile)) {
+        for (PsiElement child : root.getChildren()) {
+          if (child instanceof DartClass) {
+            final DartClass dartClass = (DartClass)child;
+            final String className = dartClass.getName();
+            if (className != null) {
+              result.myClassNames.add(className);
+            }
+            final DartType superClass = dartClass.getSuperClass();
+            if (superClass != null) {
+              result.mySuperTypeNames.add(superClass.getReferenceExpression().getText());
+            }
+            for (DartType dartType : DartResolveUtil.getImplementsAndMixinsList(dartClass)) {
+              result.mySuperTypeNames.add(dartType.getReferenceExpression().getText());
+            }
+          }
+          else if (child instanceof DartLibraryStatement || child instanceof DartImportStatement || child instanceof DartExportStatement ||
+                   child instanceof DartPartStatement || child instanceof DartPartOfStatement) {
+            directives.append(child.getText()).append('\n');
+          }
+        }
+      }
+      result.myDirectives = directives.toString();
+      return result;
+    }
+  }
+
+  private class Entry {
+    private final SmartPsiElementPointer<DartClass> myClass;
+    private final List<SmartPsiElementPointer<DartClass>> mySubclasses;
+    /**
+     * The file of the class and the files its subclasses were looked for in.
+     */
+    private final Set<VirtualFile> myFiles;
+
+    Entry(@NotNull DartClass dartClass, @NotNull List<DartClass> subclasses, @NotNull Set<VirtualFile> files) {
+      final SmartPointerManager pointerManager = SmartPointerManager.getInstance(myProject);
+      myClass = pointerManager.createSmartPsiElementPointer(dartClass);
+      mySubclasses = new ArrayList<SmartPsiElementPointer<DartClass>>(subclasses.size());
+      for (DartClass subclass : subclasses) {
+        mySubclasses.add(pointerManager.createSmartPsiElementPointer(subclass));
+      }
+      myFiles = files;
+    }
+
+    /**
+     * @return the subclasses or <code>null</code> if some of them can't be restored anymore
+     */
+    @Nullable
+    List<DartClass> getSubclasses() {
+      if (mySubclasses.isEmpty()) return Collections.emptyList();
+
+      final List<DartClass> result = new ArrayList<DartClass>(mySubclasses.size());
+      for (SmartPsiElementPointer<DartClass> pointer : mySubclasses) {
+        final DartClass subclass = pointer.getElement();
+        if (subclass == null || !subclass.isValid()) return null;
+        result.add(subclass);
+      }
+      return result;
+    }
+  }
+}
@@ -9,12 +9,12 @@ import com.intellij.codeInsight.daemon.impl.PsiElementListNavigator;
 import com.intellij.icons.AllIcons;
 import com.intellij.ide.util.DefaultPsiElementCellRenderer;
 import com.intellij.openapi.editor.markup.GutterIconRenderer;
-import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.psi.NavigatablePsiElement;
 import com.intellij.psi.PsiElement;
 import com.intellij.util.Function;
-import com.intellij.util.containers.ContainerUtil;
-import com.jetbrains.lang.dart.ide.index.DartInheritanceIndex;
+import com.intellij.util.containers.MultiMap;
+import com.jetbrains.lang.dart.ide.index.DartTypeHierarchy;
 import com.jetbrains.lang.dart.psi.DartClass;
 import com.jetbrains.lang.dart.psi.DartComponent;
 import com.jetbrains.lang.dart.psi.DartComponentName;
@@ -36,31 +36,32 @@ public class DartImplementationsMarkerProvider implements LineMarkerProvider {
 
   @Override
   public void collectSlowLineMarkers(@NotNull List<PsiElement> elements, @NotNull Collection<LineMarkerInfo> result) {
-    elements = ContainerUtil.filter(elements, new Condition<PsiElement>() {
-      @Override
-      public boolean value(PsiElement element) {
-        return element instanceof DartClass;
+    for (PsiElement element : elements) {
+      if (element instanceof DartClass) {
+        ProgressManager.checkCanceled();
+        collectMarkers(result, (DartClass)element);
       }
-    });
-    if (elements.size() > 20) {
-      return;
-    }
-    for (PsiElement dartClass : elements) {
-      collectMarkers(result, (DartClass)dartClass);
     }
   }
 
   private static void collectMarkers(Collection<LineMarkerInfo> result, DartClass dartClass) {
-    final List<DartClass> subClasses = DartInheritanceIndex.getItemsByName(dartClass);
-    if (!subClasses.isEmpty()) {
-      result.add(createImplementationMarker(dartClass, subClasses));
+    final List<DartClass> subClasses = DartTypeHierarchy.getInstance(dartClass.getProject()).getAllSubclasses(dartClass);
+    if (subClasses.isEmpty()) {
+      return;
     }
-    final List<DartComponent> subItems = new ArrayList<DartComponent>();
+    result.add(createImplementationMarker(dartClass, subClasses));
+
+    final MultiMap<String, DartComponent> subItemsByName = new MultiMap<String, DartComponent>();
     for (DartClass subClass : subClasses) {
-      subItems.addAll(DartResolveUtil.getNamedSubComponents(subClass));
+      for (DartComponent subItem : DartResolveUtil.getNamedSubComponents(subClass)) {
+        final String name = subItem.getName();
+        if (name != null) {
+          subItemsByName.putValue(name, subItem);
+        }
+      }
     }
     for (DartComponent dartComponent : DartResolveUtil.getNamedSubComponents(dartClass)) {
-      final LineMarkerInfo markerInfo = tryCreateImplementationMarker(dartComponent, subItems, dartComponent.isAbstract());
+      final LineMarkerInfo markerInfo = tryCreateImplementationMarker(dartComponent, subItemsByName, dartComponent.isAbstract());
       if (markerInfo != null) {
         result.add(markerInfo);
       }
@@ -98,19 +99,14 @@ public class DartImplementationsMarkerProvider implements LineMarkerProvider {
 
   @Nullable
   private static LineMarkerInfo tryCreateImplementationMarker(final DartComponent componentWithDeclarationList,
-                                                              List<DartComponent> subItems,
+                                                              MultiMap<String, DartComponent> subItemsByName,
                                                               final boolean isInterface) {
     final PsiElement componentName = componentWithDeclarationList.getComponentName();
     final String methodName = componentWithDeclarationList.getName();
     if (methodName == null || !componentWithDeclarationList.isPublic()) {
       return null;
     }
-    final List<DartComponent> filteredSubItems = ContainerUtil.filter(subItems, new Condition<DartComponent>() {
-      @Override
-      public boolean value(DartComponent component) {
-        return methodName.equals(component.getName());
-      }
-    });
+    final List<DartComponent> filteredSubItems = new ArrayList<DartComponent>(subItemsByName.get(methodName));
     if (filteredSubItems.isEmpty() || componentName == null) {
       return null;
     }
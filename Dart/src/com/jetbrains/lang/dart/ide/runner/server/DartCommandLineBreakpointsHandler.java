@@ -27,6 +27,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -71,9 +72,7 @@ public class DartCommandLineBreakpointsHandler {
   }
 
   void registerInitialBreakpoints() {
-    for (XLineBreakpoint<?> breakpoint : myInitialBreakpoints) {
-      doRegisterBreakpoint(breakpoint);
-    }
+    doRegisterBreakpoints(myInitialBreakpoints);
     //myInitialBreakpoints.clear(); do not clear - it is used later in hasInitialBreakpointHere()
   }
 
@@ -100,7 +99,10 @@ public class DartCommandLineBreakpointsHandler {
     suspendPerformActionAndResume(new ThrowableRunnable<IOException>() {
       public void run() throws IOException {
         // see com.google.dart.tools.debug.core.server.ServerBreakpointManager#breakpointRemoved()
-        final List<VmBreakpoint> breakpoints = myCreatedBreakpoints.remove(breakpoint);
+        final List<VmBreakpoint> breakpoints;
+        synchronized (myCreatedBreakpoints) {
+          breakpoints = myCreatedBreakpoints.remove(breakpoint);
+        }
 
         if (breakpoints != null) {
           for (VmBreakpoint vmBreakpoint : breakpoints) {
@@ -112,18 +114,37 @@ public class DartCommandLineBreakpointsHandler {
   }
 
   private void doRegisterBreakpoint(final XLineBreakpoint<?> breakpoint) {
-    final XSourcePosition position = breakpoint.getSourcePosition();
-    if (position == null) return;
-    if (position.getFile().getFileType() != DartFileType.INSTANCE) return;
+    doRegisterBreakpoints(Collections.<XLineBreakpoint<?>>singletonList(breakpoint));
+  }
+
+  private void doRegisterBreakpoints(final Collection<XLineBreakpoint<?>> breakpoints) {
+    final List<XLineBreakpoint<?>> dartBreakpoints = new ArrayList<XLineBreakpoint<?>>(breakpoints.size());
+    for (XLineBreakpoint<?> breakpoint : breakpoints) {
+      final XSourcePosition position = breakpoint.getSourcePosition();
+      if (position != null && position.getFile().getFileType() == DartFileType.INSTANCE) {
+        dartBreakpoints.add(breakpoint);
+      }
+    }
+    if (dartBreakpoints.isEmpty()) return;
 
     final VmIsolate isolate = myDebugProcess.getMainIsolate();
     if (isolate == null) return;
 
     suspendPerformActionAndResume(new ThrowableRunnable<IOException>() {
       public void run() throws IOException {
-        final String urlToSetBreakpoint = getUrlToSetBreakpoint(position);
-        final int line = breakpoint.getLine() + 1;
-        sendSetBreakpointCommand(isolate, breakpoint, urlToSetBreakpoint, line);
+        final List<VmConnection.BreakpointRequest> requests = new ArrayList<VmConnection.BreakpointRequest>(dartBreakpoints.size());
+
+        for (final XLineBreakpoint<?> breakpoint : dartBreakpoints) {
+          final XSourcePosition position = breakpoint.getSourcePosition();
+          if (position == null) continue;
+
+          final String urlToSetBreakpoint = getUrlToSetBreakpoint(position);
+          final int line = breakpoint.getLine() + 1;
+          requests.add(new VmConnection.BreakpointRequest(urlToSetBreakpoint, line, createSetBreakpointCallback(breakpoint)));
+        }
+
+        // all requests are pipelined, so this takes about one round trip instead of a round trip and a delay per breakpoint
+        myDebugProcess.getVmConnection().setBreakpointsSync(isolate, requests);
       }
     });
   }
@@ -189,11 +210,8 @@ public class DartCommandLineBreakpointsHandler {
                  : getAbsoluteUrlForResource(file);
   }
 
-  private void sendSetBreakpointCommand(final VmIsolate isolate,
-                                        final XLineBreakpoint<?> breakpoint,
-                                        final String url,
-                                        final int line) throws IOException {
-    myDebugProcess.getVmConnection().setBreakpoint(isolate, url, line, new VmCallback<VmBreakpoint>() {
+  private VmCallback<VmBreakpoint> createSetBreakpointCallback(final XLineBreakpoint<?> breakpoint) {
+    return new VmCallback<VmBreakpoint>() {
       @Override
       public void handleResult(VmResult<VmBreakpoint> result) {
         if (result.isError()) {
@@ -203,23 +221,29 @@ public class DartCommandLineBreakpointsHandler {
           addCreatedBreakpoint(breakpoint, result.getResult());
         }
       }
-    });
+    };
   }
 
   private void addCreatedBreakpoint(final XLineBreakpoint<?> breakpoint, final VmBreakpoint vmBreakpoint) {
-    List<VmBreakpoint> vmBreakpoints = myCreatedBreakpoints.get(breakpoint);
+    // responses to batched requests are handled concurrently
+    synchronized (myCreatedBreakpoints) {
+      List<VmBreakpoint> vmBreakpoints = myCreatedBreakpoints.get(breakpoint);
 
-    if (vmBreakpoints == null) {
-      vmBreakpoints = new ArrayList<VmBreakpoint>();
-      myCreatedBreakpoints.put(breakpoint, vmBreakpoints);
-    }
+      if (vmBreakpoints == null) {
+        vmBreakpoints = new ArrayList<VmBreakpoint>();
+        myCreatedBreakpoints.put(breakpoint, vmBreakpoints);
+      }
 
-    vmBreakpoints.add(vmBreakpoint);
-    myIndexToBreakpointMap.put(vmBreakpoint.getBreakpointId(), breakpoint);
+      vmBreakpoints.add(vmBreakpoint);
+      myIndexToBreakpointMap.put(vmBreakpoint.getBreakpointId(), breakpoint);
+    }
   }
 
   public void breakpointResolved(final VmBreakpoint vmBreakpoint) {
-    final XLineBreakpoint<?> breakpoint = myIndexToBreakpointMap.get(vmBreakpoint.getBreakpointId());
+    final XLineBreakpoint<?> breakpoint;
+    synchronized (myCreatedBreakpoints) {
+      breakpoint = myIndexToBreakpointMap.get(vmBreakpoint.getBreakpointId());
+    }
     if (breakpoint != null) {
       myDebugProcess.getSession().updateBreakpointPresentation(breakpoint, AllIcons.Debugger.Db_verified_breakpoint, null);
     }
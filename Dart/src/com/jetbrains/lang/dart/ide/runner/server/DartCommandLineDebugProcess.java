@@ -17,6 +17,7 @@ import com.intellij.xdebugger.breakpoints.XBreakpointHandler;
 import com.intellij.xdebugger.evaluation.XDebuggerEditorsProvider;
 import com.jetbrains.lang.dart.DartBundle;
 import com.jetbrains.lang.dart.ide.runner.base.DartDebuggerEditorsProvider;
+import com.jetbrains.lang.dart.ide.runner.server.frame.DartListElementsCache;
 import com.jetbrains.lang.dart.ide.runner.server.google.VmConnection;
 import com.jetbrains.lang.dart.ide.runner.server.google.VmIsolate;
 import com.jetbrains.lang.dart.util.PubspecYamlUtil;
@@ -31,6 +32,7 @@ public class DartCommandLineDebugProcess extends XDebugProcess {
   private final @Nullable ExecutionResult myExecutionResult;
   private final VmConnection myVmConnection;
   private final DartCommandLineBreakpointsHandler myBreakpointsHandler;
+  private final DartListElementsCache myListElementsCache = new DartListElementsCache();
   private final @Nullable VirtualFile myPubspecYamlFile;
   private boolean myVmConnected;
   private @Nullable VmIsolate myMainIsolate;
@@ -213,6 +215,11 @@ public class DartCommandLineDebugProcess extends XDebugProcess {
     return myVmConnection;
   }
 
+  @NotNull
+  public DartListElementsCache getListElementsCache() {
+    return myListElementsCache;
+  }
+
   @Nullable
   public VmIsolate getMainIsolate() {
     return myMainIsolate;
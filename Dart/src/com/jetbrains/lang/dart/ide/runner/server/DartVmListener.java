@@ -86,6 +86,7 @@ public class DartVmListener implements VmListener {
       }
       */
 
+      myDebugProcess.getListElementsCache().clear();
       myDebugProcess.getSession().positionReached(new DartSuspendContext(myDebugProcess, frames));
     }
   }
@@ -100,6 +101,13 @@ public class DartVmListener implements VmListener {
       LOG.error(e);
     }
 
+    try {
+      myDebugProcess.getVmConnection().prefetchLineNumberTables(isolate);
+    }
+    catch (IOException e) {
+      LOG.error(e);
+    }
+
     try {
       myDebugProcess.getVmConnection()
         .setPauseOnExceptionSync(isolate, VmConnection.BreakOnExceptionsType.unhandled); // todo add an option for BreakOnExceptionsType
@@ -111,5 +119,6 @@ public class DartVmListener implements VmListener {
 
   public void debuggerResumed(final VmIsolate isolate) {
     LOG.debug("debugger resumed: " + isolate.getId());
+    myDebugProcess.getListElementsCache().clear();
   }
 }
@@ -0,0 +1,47 @@
+package com.jetbrains.lang.dart.ide.runner.server.frame;
+
+import com.jetbrains.lang.dart.ide.runner.server.google.VmValue;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * List elements already retrieved from the VM while it is paused. Object ids are valid only until the isolate is resumed, so the cache
+ * must be cleared on each resume.
+ */
+public class DartListElementsCache {
+  private final ConcurrentMap<Long, VmValue> myElements = new ConcurrentHashMap<Long, VmValue>();
+
+  /**
+   * @return all elements in the range or <code>null</code> if at least one of them is not cached
+   */
+  @Nullable
+  VmValue[] get(final int listObjectId, final int fromIndex, final int count) {
+    final VmValue[] result = new VmValue[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = myElements.get(key(listObjectId, fromIndex + i));
+      if (result[i] == null) return null;
+    }
+    return result;
+  }
+
+  void put(final int listObjectId, final int fromIndex, final @NotNull List<VmValue> elements) {
+    for (int i = 0; i < elements.size(); i++) {
+      final VmValue element = elements.get(i);
+      if (element != null) {
+        myElements.put(key(listObjectId, fromIndex + i), element);
+      }
+    }
+  }
+
+  public void clear() {
+    myElements.clear();
+  }
+
+  private static long key(final int listObjectId, final int index) {
+    return ((long)listObjectId << 32) | (index & 0xFFFFFFFFL);
+  }
+}
@@ -15,6 +15,7 @@ import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
 // todo navigate to source, type
@@ -22,8 +23,12 @@ public class DartValue extends XNamedValue {
   private final @NotNull DartCommandLineDebugProcess myDebugProcess;
   private final @NotNull VmVariable myVmVariable;
   private @Nullable VmValue myVmValue;
+  private @Nullable XCompositeNode myPagedNode;
+  private int myNextIndex;
+  private @Nullable List<VmVariable> myFields;
 
   private static final String OBJECT_OF_TYPE_PREFIX = "object of type ";
+  private static final int PAGE_SIZE = 100;
 
   public DartValue(final @NotNull DartCommandLineDebugProcess debugProcess, final @NotNull VmVariable vmVariable) {
     super(StringUtil.notNullize(vmVariable.getName(), "<unknown>"));
@@ -83,36 +88,147 @@ public class DartValue extends XNamedValue {
   @Override
   public void computeChildren(final @NotNull XCompositeNode node) {
     // myVmValue is already calculated in computePresentation()
-    if (myVmValue == null) node.addChildren(XValueChildrenList.EMPTY, true);
+    if (myVmValue == null) {
+      node.addChildren(XValueChildrenList.EMPTY, true);
+      return;
+    }
+
+    if (node != myPagedNode) {
+      myPagedNode = node;
+      myNextIndex = 0;
+      myFields = null;
+    }
+
+    if (myVmValue.isList()) {
+      computeListChildren(node, myVmValue);
+    }
+    else {
+      computeFieldChildren(node, myVmValue);
+    }
+  }
+
+  /**
+   * Fields of objects (maps included) are retrieved all at once, the VM protocol has no paging for them, but they are added to the
+   * node {@link #PAGE_SIZE} at a time the same way as list elements.
+   */
+  private void computeFieldChildren(final @NotNull XCompositeNode node, final @NotNull VmValue objectValue) {
+    final List<VmVariable> fields = myFields;
+    if (fields != null) {
+      addFieldChildren(node, fields);
+      return;
+    }
 
     // see com.google.dart.tools.debug.core.server.ServerDebugValue#fillInFieldsSync()
     try {
       myDebugProcess.getVmConnection()
-        .getObjectProperties(myVmValue.getIsolate(),
-                             myVmValue.getObjectId(),
+        .getObjectProperties(objectValue.getIsolate(),
+                             objectValue.getObjectId(),
                              new VmCallback<VmObject>() {
                                @Override
                                public void handleResult(final VmResult<VmObject> result) {
-                                 if (node.isObsolete()) return;
+                                 if (result == null || result.isError()) {
+                                   node.setErrorMessage(getErrorMessage(result));
+                                   return;
+                                 }
 
-                                 final VmObject vmObject = result == null ? null : result.getResult();
+                                 final VmObject vmObject = result.getResult();
                                  final List<VmVariable> fields = vmObject == null ? null : vmObject.getFields();
-
-                                 if (fields == null || result.isError()) return;
-
-                                 // todo sort somehow?
-                                 final XValueChildrenList childrenList = new XValueChildrenList(fields.size());
-                                 for (final VmVariable field : fields) {
-                                   childrenList.add(new DartValue(myDebugProcess, field));
+                                 if (fields == null) {
+                                   node.addChildren(XValueChildrenList.EMPTY, true);
+                                   return;
                                  }
 
-                                 node.addChildren(childrenList, true);
+                                 // todo sort somehow?
+                                 myFields = fields;
+                                 addFieldChildren(node, fields);
                                }
                              }
         );
     }
     catch (IOException e) {
       DartCommandLineDebugProcess.LOG.error(e);
+      node.setErrorMessage(StringUtil.notNullize(e.getMessage(), "Unable to get object properties"));
+    }
+  }
+
+  private void addFieldChildren(final @NotNull XCompositeNode node, final @NotNull List<VmVariable> fields) {
+    final int fromIndex = myNextIndex;
+    final int count = Math.max(0, Math.min(PAGE_SIZE, fields.size() - fromIndex));
+    myNextIndex = fromIndex + count;
+
+    final XValueChildrenList childrenList = new XValueChildrenList(count);
+    for (final VmVariable field : fields.subList(fromIndex, fromIndex + count)) {
+      childrenList.add(new DartValue(myDebugProcess, field));
+    }
+    addChildren(node, childrenList, fields.size() - myNextIndex);
+  }
+
+  /**
+   * Adds the next {@link #PAGE_SIZE} elements of the list; the rest is available via the 'more' link, which calls
+   * <code>computeChildren()</code> for the same node again.
+   */
+  private void computeListChildren(final @NotNull XCompositeNode node, final @NotNull VmValue listValue) {
+    final int fromIndex = myNextIndex;
+    final int count = Math.min(PAGE_SIZE, listValue.getLength() - fromIndex);
+    if (count <= 0) {
+      node.addChildren(XValueChildrenList.EMPTY, true);
+      return;
     }
+
+    myNextIndex = fromIndex + count;
+
+    final DartListElementsCache cache = myDebugProcess.getListElementsCache();
+    final VmValue[] cached = cache.get(listValue.getObjectId(), fromIndex, count);
+    if (cached != null) {
+      addListChildren(node, listValue, fromIndex, Arrays.asList(cached));
+      return;
+    }
+
+    try {
+      myDebugProcess.getVmConnection()
+        .getListElements(listValue.getIsolate(), listValue.getObjectId(), fromIndex, count, new VmCallback<List<VmValue>>() {
+          @Override
+          public void handleResult(final VmResult<List<VmValue>> result) {
+            if (result.isError()) {
+              node.setErrorMessage(getErrorMessage(result));
+              return;
+            }
+
+            cache.put(listValue.getObjectId(), fromIndex, result.getResult());
+            addListChildren(node, listValue, fromIndex, result.getResult());
+          }
+        });
+    }
+    catch (IOException e) {
+      DartCommandLineDebugProcess.LOG.error(e);
+      node.setErrorMessage(StringUtil.notNullize(e.getMessage(), "Unable to get list elements"));
+    }
+  }
+
+  private void addListChildren(final @NotNull XCompositeNode node,
+                               final @NotNull VmValue listValue,
+                               final int fromIndex,
+                               final @NotNull List<VmValue> elements) {
+    final XValueChildrenList childrenList = new XValueChildrenList(elements.size());
+    for (int i = 0; i < elements.size(); i++) {
+      childrenList.add(new DartValue(myDebugProcess, VmVariable.createArrayEntry(listValue, fromIndex + i, elements.get(i))));
+    }
+    addChildren(node, childrenList, listValue.getLength() - (fromIndex + elements.size()));
+  }
+
+  private static void addChildren(final @NotNull XCompositeNode node, final @NotNull XValueChildrenList childrenList, final int remaining) {
+    if (remaining > 0) {
+      node.addChildren(childrenList, false);
+      node.tooManyChildren(remaining);
+    }
+    else {
+      node.addChildren(childrenList, true);
+    }
+  }
+
+  @NotNull
+  private static String getErrorMessage(final @Nullable VmResult<?> result) {
+    final String error = result == null ? null : result.getError();
+    return StringUtil.isEmpty(error) ? "Unable to get value from the Dart VM" : error;
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,62 @@
+package com.jetbrains.lang.dart.ide.runner.server.google;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread safe LRU cache limited by the estimated memory size of its values. <code>null</code> values are allowed and are used to
+ * remember failed requests.
+ */
+abstract class VmBoundedCache<V> {
+  private final LinkedHashMap<String, V> map = new LinkedHashMap<String, V>(16, 0.75f, true);
+  private final long maxSizeInBytes;
+  private long sizeInBytes;
+
+  VmBoundedCache(long maxSizeInBytes) {
+    this.maxSizeInBytes = maxSizeInBytes;
+  }
+
+  /**
+   * @return estimated number of bytes retained by the value
+   */
+  protected abstract long getSizeInBytes(V value);
+
+  public synchronized boolean containsKey(String key) {
+    return map.containsKey(key);
+  }
+
+  public synchronized V get(String key) {
+    return map.get(key);
+  }
+
+  public synchronized void put(String key, V value) {
+    if (map.containsKey(key)) {
+      sizeInBytes -= sizeOf(map.get(key));
+    }
+
+    map.put(key, value);
+    sizeInBytes += sizeOf(value);
+
+    // the value just added is kept even if it alone exceeds the limit
+    Iterator<Map.Entry<String, V>> iterator = map.entrySet().iterator();
+
+    while (sizeInBytes > maxSizeInBytes && map.size() > 1) {
+      Map.Entry<String, V> eldest = iterator.next();
+      sizeInBytes -= sizeOf(eldest.getValue());
+      iterator.remove();
+    }
+  }
+
+  public synchronized long getSizeInBytes() {
+    return sizeInBytes;
+  }
+
+  public synchronized int size() {
+    return map.size();
+  }
+
+  private long sizeOf(V value) {
+    return value == null ? 0 : getSizeInBytes(value);
+  }
+}
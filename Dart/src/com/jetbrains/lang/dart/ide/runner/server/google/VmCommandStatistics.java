@@ -0,0 +1,87 @@
+package com.jetbrains.lang.dart.ide.runner.server.google;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Round trip latency and throughput of VM debugger commands, collected per command type (getStackTrace, getObjectProperties, etc.)
+ */
+public class VmCommandStatistics {
+
+  /**
+   * Statistics for a single command type.
+   */
+  public static class CommandStatistics {
+    private int count;
+    private long totalNanos;
+    private long maxNanos;
+
+    private synchronized void add(long nanos) {
+      count++;
+      totalNanos += nanos;
+      maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    public synchronized int getCount() {
+      return count;
+    }
+
+    public synchronized double getAverageLatencyMillis() {
+      return count == 0 ? 0 : totalNanos / 1000000.0 / count;
+    }
+
+    public synchronized double getMaxLatencyMillis() {
+      return maxNanos / 1000000.0;
+    }
+
+    @Override
+    public synchronized String toString() {
+      return String.format("%d requests, avg %.2f ms, max %.2f ms", count, getAverageLatencyMillis(), getMaxLatencyMillis());
+    }
+  }
+
+  private final ConcurrentMap<String, CommandStatistics> statistics = new ConcurrentHashMap<String, CommandStatistics>();
+  private final long startNanos = System.nanoTime();
+
+  void commandCompleted(String command, long latencyNanos) {
+    CommandStatistics commandStatistics = statistics.get(command);
+
+    if (commandStatistics == null) {
+      final CommandStatistics newStatistics = new CommandStatistics();
+      commandStatistics = statistics.putIfAbsent(command, newStatistics);
+
+      if (commandStatistics == null) {
+        commandStatistics = newStatistics;
+      }
+    }
+
+    commandStatistics.add(latencyNanos);
+  }
+
+  public Map<String, CommandStatistics> getStatistics() {
+    return new TreeMap<String, CommandStatistics>(statistics);
+  }
+
+  /**
+   * @return number of completed commands of the given type per second since the connection was created
+   */
+  public double getThroughput(String command) {
+    final CommandStatistics commandStatistics = statistics.get(command);
+    final double seconds = (System.nanoTime() - startNanos) / 1000000000.0;
+    return commandStatistics == null || seconds <= 0 ? 0 : commandStatistics.getCount() / seconds;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder();
+
+    for (Map.Entry<String, CommandStatistics> entry : getStatistics().entrySet()) {
+      builder.append(entry.getKey()).append(": ").append(entry.getValue())
+        .append(String.format(", %.2f/s", getThroughput(entry.getKey()))).append('\n');
+    }
+
+    return builder.toString();
+  }
+}
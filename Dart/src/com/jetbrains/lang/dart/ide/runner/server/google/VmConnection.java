@@ -25,7 +25,11 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.jetbrains.lang.dart.ide.runner.server.DartCommandLineDebugProcess.LOG;
 
@@ -48,6 +52,13 @@ public class VmConnection {
     public void handleResult(JSONObject result) throws JSONException;
   }
 
+  private static final int MAX_PENDING_BREAKPOINT_REQUESTS = 16;
+
+  /**
+   * Minimal time between two setBreakpoint requests, see {@link #setBreakpoint}.
+   */
+  private static final long BREAKPOINT_REQUEST_SPACING_MS = 10;
+
   private static final String EVENT_ISOLATE = "isolate";
   private static final String EVENT_PAUSED = "paused";
   private static final String EVENT_BREAKPOINTRESOLVED = "breakpointResolved";
@@ -59,18 +70,45 @@ public class VmConnection {
   private String host;
   private int port;
 
-  private Map<Integer, Callback> callbackMap = new HashMap<Integer, Callback>();
+  private static class PendingRequest {
+    private final String command;
+    private final Callback callback;
+    private final long sendNanos = System.nanoTime();
+
+    private PendingRequest(String command, Callback callback) {
+      this.command = command;
+      this.callback = callback;
+    }
+  }
+
+  private final ConcurrentMap<Integer, PendingRequest> pendingRequests = new ConcurrentHashMap<Integer, PendingRequest>();
+
+  private final AtomicInteger nextCommandId = new AtomicInteger(1);
 
-  private int nextCommandId = 1;
+  private final VmCommandStatistics commandStatistics = new VmCommandStatistics();
 
   private Socket socket;
   private OutputStream out;
 
   private List<VmBreakpoint> breakpoints = Collections.synchronizedList(new ArrayList<VmBreakpoint>());
 
-  private Map<String, String> sourceCache = new HashMap<String, String>();
+  private static final long SOURCE_CACHE_SIZE = 16 * 1024 * 1024;
+  private static final long LINE_NUMBER_TABLE_CACHE_SIZE = 8 * 1024 * 1024;
 
-  private Map<String, VmLineNumberTable> lineNumberTableCache = new HashMap<String, VmLineNumberTable>();
+  private final VmBoundedCache<String> sourceCache = new VmBoundedCache<String>(SOURCE_CACHE_SIZE) {
+    @Override
+    protected long getSizeInBytes(String source) {
+      return 2L * source.length() + 40;
+    }
+  };
+
+  private final VmBoundedCache<VmLineNumberTable> lineNumberTableCache =
+    new VmBoundedCache<VmLineNumberTable>(LINE_NUMBER_TABLE_CACHE_SIZE) {
+      @Override
+      protected long getSizeInBytes(VmLineNumberTable lineNumberTable) {
+        return lineNumberTable.getSizeInBytes();
+      }
+    };
 
   private Map<Integer, VmIsolate> isolateMap = new HashMap<Integer, VmIsolate>();
 
@@ -428,9 +466,11 @@ public class VmConnection {
   }
 
   public int getLineNumberFromLocation(VmIsolate isolate, VmLocation location) {
-    String cacheKey = location.getLibraryId() + ":" + location.getUrl();
+    String cacheKey = getLineNumberTableCacheKey(location.getLibraryId(), location.getUrl());
+
+    VmLineNumberTable lineNumberTable = lineNumberTableCache.get(cacheKey);
 
-    if (!lineNumberTableCache.containsKey(cacheKey)) {
+    if (lineNumberTable == null && !lineNumberTableCache.containsKey(cacheKey)) {
       final CountDownLatch latch = new CountDownLatch(1);
       final VmLineNumberTable[] result = new VmLineNumberTable[1];
 
@@ -460,11 +500,10 @@ public class VmConnection {
 
       }
 
-      lineNumberTableCache.put(cacheKey, result[0]);
+      lineNumberTable = result[0];
+      lineNumberTableCache.put(cacheKey, lineNumberTable);
     }
 
-    VmLineNumberTable lineNumberTable = lineNumberTableCache.get(cacheKey);
-
     if (lineNumberTable == null) {
       return 0;
     }
@@ -473,6 +512,77 @@ public class VmConnection {
     }
   }
 
+  /**
+   * Asynchronously load line number tables of all scripts of user (<code>file:</code>) libraries, so that the first pause or step
+   * into such a library doesn't wait for a round trip in {@link #getLineNumberFromLocation(VmIsolate, VmLocation)}.
+   * All requests are sent without waiting for each other.
+   *
+   * @param isolate
+   * @throws IOException
+   */
+  public void prefetchLineNumberTables(final VmIsolate isolate) throws IOException {
+    getLibraries(isolate, new VmCallback<List<VmLibraryRef>>() {
+      @Override
+      public void handleResult(VmResult<List<VmLibraryRef>> result) {
+        if (result.isError()) {
+          return;
+        }
+
+        for (VmLibraryRef ref : result.getResult()) {
+          if (ref.getUrl() == null || !ref.getUrl().startsWith("file:")) {
+            continue;
+          }
+
+          try {
+            prefetchLineNumberTables(isolate, ref.getId());
+          }
+          catch (IOException e) {
+            LOG.info(e);
+            return;
+          }
+        }
+      }
+    });
+  }
+
+  private void prefetchLineNumberTables(final VmIsolate isolate, final int libraryId) throws IOException {
+    getScriptURLs(isolate, libraryId, new VmCallback<List<String>>() {
+      @Override
+      public void handleResult(VmResult<List<String>> result) {
+        if (result.isError()) {
+          return;
+        }
+
+        for (String url : result.getResult()) {
+          final String cacheKey = getLineNumberTableCacheKey(libraryId, url);
+
+          if (lineNumberTableCache.containsKey(cacheKey)) {
+            continue;
+          }
+
+          try {
+            getLineNumberTable(isolate, libraryId, url, new VmCallback<VmLineNumberTable>() {
+              @Override
+              public void handleResult(VmResult<VmLineNumberTable> r) {
+                if (!r.isError() && !lineNumberTableCache.containsKey(cacheKey)) {
+                  lineNumberTableCache.put(cacheKey, r.getResult());
+                }
+              }
+            });
+          }
+          catch (IOException e) {
+            LOG.info(e);
+            return;
+          }
+        }
+      }
+    });
+  }
+
+  private static String getLineNumberTableCacheKey(int libraryId, String url) {
+    return libraryId + ":" + url;
+  }
+
   public void getLineNumberTable(final VmIsolate isolate, final int libraryId,
                                  final String eclipseUrl, final VmCallback<VmLineNumberTable> callback) throws IOException {
     if (callback == null) {
@@ -531,6 +641,43 @@ public class VmConnection {
     }
   }
 
+  /**
+   * Requests the elements <code>[fromIndex, fromIndex + count)</code> of the given list. The VM protocol returns one element per
+   * request, so all requests are sent at once and the callback is called a single time after the last response arrived. Elements
+   * that could not be retrieved are <code>null</code> in the resulting list.
+   */
+  public void getListElements(final VmIsolate isolate, final int listObjectId, final int fromIndex, final int count,
+                              final VmCallback<List<VmValue>> callback) throws IOException {
+    if (callback == null) {
+      throw new IllegalArgumentException("a callback is required");
+    }
+
+    if (count <= 0) {
+      callback.handleResult(VmResult.<List<VmValue>>createFrom(Collections.<VmValue>emptyList()));
+      return;
+    }
+
+    final VmValue[] elements = new VmValue[count];
+    final AtomicInteger remaining = new AtomicInteger(count);
+
+    for (int i = 0; i < count; i++) {
+      final int offset = i;
+
+      getListElements(isolate, listObjectId, fromIndex + offset, new VmCallback<VmValue>() {
+        @Override
+        public void handleResult(VmResult<VmValue> result) {
+          if (!result.isError()) {
+            elements[offset] = result.getResult();
+          }
+
+          if (remaining.decrementAndGet() == 0) {
+            callback.handleResult(VmResult.<List<VmValue>>createFrom(Arrays.asList(elements)));
+          }
+        }
+      });
+    }
+  }
+
   public void getObjectProperties(final VmIsolate isolate, final int objectId,
                                   final VmCallback<VmObject> callback) throws IOException {
     if (callback == null) {
@@ -572,18 +719,18 @@ public class VmConnection {
   public String getScriptSource(VmIsolate isolate, final int libraryId, String url) {
     final String cacheKey = libraryId + ":" + url;
 
-    if (!sourceCache.containsKey(cacheKey)) {
+    String source = sourceCache.get(cacheKey);
+
+    if (source == null && !sourceCache.containsKey(cacheKey)) {
       final CountDownLatch latch = new CountDownLatch(1);
+      final String[] sourceResult = new String[1];
 
       try {
         getScriptSourceAsync(isolate, libraryId, url, new VmCallback<String>() {
           @Override
           public void handleResult(VmResult<String> result) {
-            if (result.isError()) {
-              sourceCache.put(cacheKey, null);
-            }
-            else {
-              sourceCache.put(cacheKey, result.getResult());
+            if (!result.isError()) {
+              sourceResult[0] = result.getResult();
             }
 
             latch.countDown();
@@ -591,7 +738,6 @@ public class VmConnection {
         });
       }
       catch (IOException e) {
-        sourceCache.put(cacheKey, null);
         latch.countDown();
       }
 
@@ -601,9 +747,12 @@ public class VmConnection {
       catch (InterruptedException e) {
 
       }
+
+      source = sourceResult[0];
+      sourceCache.put(cacheKey, source);
     }
 
-    return sourceCache.get(cacheKey);
+    return source;
   }
 
   public void getScriptSourceAsync(VmIsolate isolate, int libraryId, String url,
@@ -746,6 +895,21 @@ public class VmConnection {
     sendSimpleCommand("resume", isolate.getId(), resumeOnSuccess(isolate));
   }
 
+  /**
+   * A request to set a breakpoint, used by {@link #setBreakpointsSync(VmIsolate, List)}.
+   */
+  public static class BreakpointRequest {
+    private final String url;
+    private final int line;
+    private final VmCallback<VmBreakpoint> callback;
+
+    public BreakpointRequest(String url, int line, VmCallback<VmBreakpoint> callback) {
+      this.url = url;
+      this.line = line;
+      this.callback = callback;
+    }
+  }
+
   /**
    * Set a breakpoint in the given file and line.
    *
@@ -761,6 +925,85 @@ public class VmConnection {
       throw new IOException("attempt to set breakpoint on a running isolate");
     }
 
+    sendSetBreakpointRequest(isolate, url, line, callback);
+
+    try {
+      // TODO(devoncarew): workaround for bug https://code.google.com/p/dart/issues/detail?id=9705
+      // We need to give the VM time to process all the events before we start sending more.
+      // There's some race condition going on in the VM's queue.
+      Thread.sleep(BREAKPOINT_REQUEST_SPACING_MS);
+    }
+    catch (InterruptedException e) {
+
+    }
+  }
+
+  /**
+   * Set breakpoints in a batch. Requests are still sent at least {@link #BREAKPOINT_REQUEST_SPACING_MS}
+   * apart because of the VM queue race described in {@link #setBreakpoint}, but they don't wait for each
+   * other's responses: at most {@link #MAX_PENDING_BREAKPOINT_REQUESTS} of them are awaiting a response
+   * at any time. The method returns when responses to all requests have arrived.
+   *
+   * @param isolate
+   * @param requests
+   * @return time in milliseconds spent to install the breakpoints
+   * @throws IOException
+   */
+  public long setBreakpointsSync(final VmIsolate isolate, final List<BreakpointRequest> requests) throws IOException {
+    if (!isolate.isPaused()) {
+      throw new IOException("attempt to set breakpoint on a running isolate");
+    }
+
+    final long start = System.currentTimeMillis();
+    final Semaphore pendingRequests = new Semaphore(MAX_PENDING_BREAKPOINT_REQUESTS);
+    final CountDownLatch latch = new CountDownLatch(requests.size());
+    long lastRequestTime = 0;
+
+    try {
+      for (final BreakpointRequest request : requests) {
+        pendingRequests.acquire();
+
+        final long delay = lastRequestTime + BREAKPOINT_REQUEST_SPACING_MS - System.currentTimeMillis();
+        if (delay > 0) {
+          Thread.sleep(delay);
+        }
+        lastRequestTime = System.currentTimeMillis();
+
+        try {
+          sendSetBreakpointRequest(isolate, request.url, request.line, new VmCallback<VmBreakpoint>() {
+            @Override
+            public void handleResult(VmResult<VmBreakpoint> result) {
+              try {
+                if (request.callback != null) {
+                  request.callback.handleResult(result);
+                }
+              }
+              finally {
+                pendingRequests.release();
+                latch.countDown();
+              }
+            }
+          });
+        }
+        catch (IOException e) {
+          pendingRequests.release();
+          throw e;
+        }
+      }
+
+      latch.await();
+    }
+    catch (InterruptedException e) {
+
+    }
+
+    final long time = System.currentTimeMillis() - start;
+    LOG.info(requests.size() + " breakpoints installed in " + time + " ms");
+    return time;
+  }
+
+  private void sendSetBreakpointRequest(final VmIsolate isolate, final String url, final int line,
+                                        final VmCallback<VmBreakpoint> callback) throws IOException {
     try {
       JSONObject request = new JSONObject();
 
@@ -796,16 +1039,6 @@ public class VmConnection {
     catch (JSONException exception) {
       throw new IOException(exception);
     }
-
-    try {
-      // TODO(devoncarew): workaround for bug https://code.google.com/p/dart/issues/detail?id=9705
-      // We need to give the VM time to process all the events before we start sending more.
-      // There's some race condition going on in the VM's queue.
-      Thread.sleep(10);
-    }
-    catch (InterruptedException e) {
-
-    }
   }
 
   /**
@@ -935,31 +1168,44 @@ public class VmConnection {
     sendSimpleCommand(stepCommand, isolate.getId(), resumeOnSuccess(isolate));
   }
 
-  public synchronized void handleTerminated() {
-    // Clean up the callbackMap on termination.
-    List<Callback> callbacks = new ArrayList<VmConnection.Callback>(callbackMap.values());
+  public void handleTerminated() {
+    // Clean up the pending requests on termination.
+    for (Integer id : pendingRequests.keySet()) {
+      PendingRequest pendingRequest = pendingRequests.remove(id);
 
-    for (Callback callback : callbacks) {
-      try {
-        callback.handleResult(VmResult.createJsonErrorResult("connection termination"));
-      }
-      catch (JSONException e) {
+      if (pendingRequest != null) {
+        try {
+          pendingRequest.callback.handleResult(VmResult.createJsonErrorResult("connection termination"));
+        }
+        catch (JSONException e) {
 
+        }
       }
     }
 
-    callbackMap.clear();
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("VM command statistics:\n" + commandStatistics);
+    }
+  }
+
+  /**
+   * @return round trip latency and throughput of the commands sent over this connection
+   */
+  public VmCommandStatistics getCommandStatistics() {
+    return commandStatistics;
   }
 
-  protected void processJson(final JSONObject result) {
+  protected void processJson(final String message) {
     ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
       @Override
       public void run() {
         try {
           if (LOG.isDebugEnabled()) {
-            LOG.debug("<== (" + Thread.currentThread().getName() + ")" + result);
+            LOG.debug("<== (" + Thread.currentThread().getName() + ")" + message);
           }
 
+          final JSONObject result = parseJson(message);
+
           if (result.has("id")) {
             processResponse(result);
           }
@@ -1024,29 +1270,25 @@ public class VmConnection {
       throw new IOException(jse);
     }
 
-    synchronized (this) {
-      id = nextCommandId++;
+    id = nextCommandId.getAndIncrement();
 
-      try {
-        request.put("id", id);
-      }
-      catch (JSONException ex) {
-        throw new IOException(ex);
-      }
+    try {
+      request.put("id", id);
 
       if (callback != null) {
-        callbackMap.put(id, callback);
+        pendingRequests.put(id, new PendingRequest(request.getString("command"), callback));
       }
     }
+    catch (JSONException ex) {
+      throw new IOException(ex);
+    }
 
     try {
       send(request.toString());
     }
     catch (IOException ex) {
       if (callback != null) {
-        synchronized (this) {
-          callbackMap.remove(id);
-        }
+        pendingRequests.remove(id);
       }
 
       throw ex;
@@ -1378,14 +1620,11 @@ public class VmConnection {
     // Process a command response.
     int id = result.getInt("id");
 
-    Callback callback;
-
-    synchronized (this) {
-      callback = callbackMap.remove(id);
-    }
+    PendingRequest pendingRequest = pendingRequests.remove(id);
 
-    if (callback != null) {
-      callback.handleResult(result);
+    if (pendingRequest != null) {
+      commandStatistics.commandCompleted(pendingRequest.command, System.nanoTime() - pendingRequest.sendNanos);
+      pendingRequest.callback.handleResult(result);
     }
     else if (result.has("error")) {
       // If we get an error back, and nobody was listening for the result, then log it.
@@ -1396,76 +1635,23 @@ public class VmConnection {
   }
 
   private void processVmEvents(InputStream in) throws IOException {
-    Reader reader = new InputStreamReader(in, UTF8);
-
-    JSONObject obj = readJson(reader);
+    VmMessageReader reader = new VmMessageReader(new InputStreamReader(in, UTF8));
 
-    while (obj != null) {
-      processJson(obj);
-
-      obj = readJson(reader);
+    while (true) {
+      processJson(reader.readMessage());
     }
   }
 
-  private JSONObject readJson(Reader in) throws IOException {
-    StringBuilder builder = new StringBuilder();
-
-    boolean inQuote = false;
-    boolean ignoreLast = false;
-    int curlyCount = 0;
-
-    int c = in.read();
-
-    while (true) {
-      if (c == -1) {
-        throw new EOFException();
-      }
-
-      builder.append((char)c);
-
-      if (!ignoreLast) {
-        if (c == '"') {
-          inQuote = !inQuote;
-        }
-      }
-
-      if (inQuote && c == '\\') {
-        ignoreLast = true;
-      }
-      else {
-        ignoreLast = false;
-      }
-
-      if (!inQuote) {
-        if (c == '{') {
-          curlyCount++;
-        }
-        else if (c == '}') {
-          curlyCount--;
+  private static JSONObject parseJson(String str) throws JSONException {
+    // TODO(devoncarew): we know this is occurring for exception text.
+    // Possibly from toString() invocations?
+    if (str.indexOf('\n') != -1) {
+      LOG.error("bad json from vm: " + str);
 
-          if (curlyCount == 0) {
-            try {
-              String str = builder.toString();
-
-              // TODO(devoncarew): we know this is occurring for exception text.
-              // Possibly from toString() invocations?
-              if (str.indexOf('\n') != -1) {
-                LOG.error("bad json from vm: " + str);
-
-                str = str.replace("\n", "\\n");
-              }
-
-              return new JSONObject(str);
-            }
-            catch (JSONException e) {
-              throw new IOException(e);
-            }
-          }
-        }
-      }
-
-      c = in.read();
+      str = str.replace("\n", "\\n");
     }
+
+    return new JSONObject(str);
   }
 
   private Callback resumeOnSuccess(final VmIsolate isolate) {
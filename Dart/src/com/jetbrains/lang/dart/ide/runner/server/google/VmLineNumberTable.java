@@ -18,8 +18,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 import static com.jetbrains.lang.dart.ide.runner.server.DartCommandLineDebugProcess.LOG;
 
@@ -30,41 +29,75 @@ public class VmLineNumberTable {
 
   static VmLineNumberTable createFrom(VmIsolate isolate, int libraryId, String url,
                                       JSONObject object) throws JSONException {
-    VmLineNumberTable lineNumberTable = new VmLineNumberTable(libraryId, url);
-
     // { "id": 2, "result": { "lines": [[1,0,0,1,5,2,9,3,10,4,12], [2, ...
 
     JSONArray lineInfos = object.getJSONArray("lines");
 
+    int mappingCount = 0;
+
+    for (int i = 0; i < lineInfos.length(); i++) {
+      mappingCount += lineInfos.getJSONArray(i).length() / 2;
+    }
+
+    long[] mappings = new long[mappingCount];
+    int mappingIndex = 0;
+
     for (int i = 0; i < lineInfos.length(); i++) {
       JSONArray lineInfo = lineInfos.getJSONArray(i);
 
       // Retrieve the line number of the current line.
-      Integer lineNumber = lineInfo.getInt(0);
+      int lineNumber = lineInfo.getInt(0);
 
       // Index over the remaining (tokenOffset, charOffset) tuples.
       for (int index = 1; index < lineInfo.length(); index += 2) {
-        Integer tokenOffset = lineInfo.getInt(index);
+        int tokenOffset = lineInfo.getInt(index);
 
         // We don't use this info currently, so we don't decode it.
         //Integer columnNumber = lineInfo.getInt(index + 1);
 
-        lineNumberTable.lineMap.put(tokenOffset, lineNumber);
+        mappings[mappingIndex++] = ((long)tokenOffset << 32) | (lineNumber & 0xFFFFFFFFL);
       }
     }
 
+    // token offsets are normally already ordered, sorting packed (tokenOffset, line) pairs keeps the lookup correct otherwise
+    Arrays.sort(mappings, 0, mappingIndex);
+
+    VmLineNumberTable lineNumberTable = new VmLineNumberTable(libraryId, url, mappingIndex);
+
+    int size = 0;
+
+    for (int i = 0; i < mappingIndex; i++) {
+      int tokenOffset = (int)(mappings[i] >> 32);
+
+      // duplicate token offsets map to the last (largest) line, lines are reported in ascending order
+      if (size > 0 && lineNumberTable.tokenOffsets[size - 1] == tokenOffset) {
+        size--;
+      }
+
+      lineNumberTable.tokenOffsets[size] = tokenOffset;
+      lineNumberTable.lines[size] = (int)mappings[i];
+      size++;
+    }
+
+    lineNumberTable.size = size;
+
     return lineNumberTable;
   }
 
-  Map<Integer, Integer> lineMap = new HashMap<Integer, Integer>();
+  // sorted token offsets and corresponding line numbers
+  private final int[] tokenOffsets;
+  private final int[] lines;
+  private int size;
 
   private int libraryId;
 
   private String url;
 
-  VmLineNumberTable(int libraryId, String url) {
+  VmLineNumberTable(int libraryId, String url, int capacity) {
     this.libraryId = libraryId;
     this.url = url;
+    this.tokenOffsets = new int[capacity];
+    this.lines = new int[capacity];
   }
 
   public int getLibraryId() {
@@ -72,10 +105,10 @@ public class VmLineNumberTable {
   }
 
   public int getLineForLocation(VmLocation location) {
-    Integer ret = lineMap.get(location.getTokenOffset());
+    int index = Arrays.binarySearch(tokenOffsets, 0, size, location.getTokenOffset());
 
-    if (ret != null) {
-      return ret.intValue();
+    if (index >= 0) {
+      return lines[index];
     }
 
     LOG.error("no line mapping found for " + location);
@@ -83,12 +116,19 @@ public class VmLineNumberTable {
     return 0;
   }
 
+  /**
+   * @return estimated number of bytes retained by this table
+   */
+  public long getSizeInBytes() {
+    return 8L * tokenOffsets.length + 32;
+  }
+
   public String getUrl() {
     return url;
   }
 
   @Override
   public String toString() {
-    return "[lineNumberTable for " + url + "," + lineMap.size() + " mappings]";
+    return "[lineNumberTable for " + url + "," + size + " mappings]";
   }
 }
@@ -0,0 +1,81 @@
+package com.jetbrains.lang.dart.ide.runner.server.google;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits the VM debugger wire stream into separate JSON messages. The stream is read in chunks and scanned incrementally, keeping
+ * the lexical state (nesting depth, string literal, escape) between chunks, so that the reader thread neither reads char by char
+ * nor builds JSON trees; parsing of the message text is left to the thread that handles it.
+ */
+class VmMessageReader {
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Reader myReader;
+  private final char[] myBuffer = new char[BUFFER_SIZE];
+  private int myPosition;
+  private int myLimit;
+
+  VmMessageReader(Reader reader) {
+    myReader = reader;
+  }
+
+  /**
+   * @return text of the next top-level JSON object
+   * @throws EOFException if the stream ends before the message is complete
+   */
+  String readMessage() throws IOException {
+    final StringBuilder message = new StringBuilder();
+
+    boolean inQuote = false;
+    boolean escaped = false;
+    int curlyCount = 0;
+
+    while (true) {
+      if (myPosition == myLimit) {
+        myLimit = myReader.read(myBuffer, 0, BUFFER_SIZE);
+        myPosition = 0;
+
+        if (myLimit == -1) {
+          myLimit = 0;
+          throw new EOFException();
+        }
+      }
+
+      final int start = myPosition;
+
+      while (myPosition < myLimit) {
+        final char c = myBuffer[myPosition++];
+
+        if (escaped) {
+          escaped = false;
+        }
+        else if (inQuote) {
+          if (c == '\\') {
+            escaped = true;
+          }
+          else if (c == '"') {
+            inQuote = false;
+          }
+        }
+        else if (c == '"') {
+          inQuote = true;
+        }
+        else if (c == '{') {
+          curlyCount++;
+        }
+        else if (c == '}') {
+          curlyCount--;
+
+          if (curlyCount == 0) {
+            message.append(myBuffer, start, myPosition - start);
+            return message.toString();
+          }
+        }
+      }
+
+      message.append(myBuffer, start, myPosition - start);
+    }
+  }
+}
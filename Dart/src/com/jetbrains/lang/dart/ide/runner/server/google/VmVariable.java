@@ -86,6 +86,18 @@ public class VmVariable extends VmRef implements Comparable<VmVariable> {
     return var;
   }
 
+  /**
+   * Creates an array entry whose value has already been retrieved, see {@link VmConnection#getListElements(VmIsolate, int, int, int, VmCallback)}.
+   */
+  public static VmVariable createArrayEntry(VmValue listValue, int index, VmValue elementValue) {
+    VmVariable var = new VmVariable(listValue.getIsolate());
+
+    var.name = "[" + Integer.toString(index) + "]";
+    var.value = elementValue;
+
+    return var;
+  }
+
   static List<VmVariable> createFrom(VmIsolate isolate, JSONArray arr, boolean isLocal)
     throws JSONException {
     if (arr == null) {
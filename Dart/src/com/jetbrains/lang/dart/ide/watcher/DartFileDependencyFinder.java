@@ -3,11 +3,8 @@ package com.jetbrains.lang.dart.ide.watcher;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.plugins.watcher.config.FileDependencyFinder;
-import com.intellij.psi.PsiFile;
-import com.intellij.psi.PsiManager;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.jetbrains.lang.dart.DartFileType;
-import com.jetbrains.lang.dart.util.DartResolveUtil;
 import gnu.trove.THashSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -27,10 +24,12 @@ public class DartFileDependencyFinder extends FileDependencyFinder {
   @NotNull
   @Override
   public Set<VirtualFile> findDependentFiles(@NotNull Project project, @NotNull VirtualFile virtualFile, @NotNull GlobalSearchScope scope) {
-    final PsiFile psiFile = PsiManager.getInstance(project).findFile(virtualFile);
-    if (psiFile == null || DartResolveUtil.isLibraryRoot(psiFile)) {
-      return Collections.emptySet();
+    final Set<VirtualFile> result = new THashSet<VirtualFile>();
+    for (VirtualFile entryPoint : DartFileDependencyGraph.getInstance(project).coalesceSave(virtualFile)) {
+      if (scope.contains(entryPoint)) {
+        result.add(entryPoint);
+      }
     }
-    return new THashSet<VirtualFile>(DartResolveUtil.findLibrary(psiFile, scope));
+    return result.isEmpty() ? Collections.<VirtualFile>emptySet() : result;
   }
 }
@@ -0,0 +1,209 @@
+package com.jetbrains.lang.dart.ide.watcher;
+
+import com.intellij.notification.Notification;
+import com.intellij.notification.NotificationType;
+import com.intellij.notification.Notifications;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.Function;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.jetbrains.lang.dart.DartBundle;
+import com.jetbrains.lang.dart.DartComponentType;
+import com.jetbrains.lang.dart.ide.index.DartComponentIndex;
+import com.jetbrains.lang.dart.ide.index.DartComponentInfo;
+import com.jetbrains.lang.dart.ide.index.DartImportedFileIndex;
+import com.jetbrains.lang.dart.util.DartResolveUtil;
+import com.jetbrains.lang.dart.util.PubspecYamlUtil;
+import gnu.trove.THashSet;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Reverse import and part dependencies between the Dart files of the project. The dependencies are stored in
+ * {@link DartImportedFileIndex}, so they survive restarts and are updated together with the other Dart indices;
+ * queries only walk the part of the graph reachable from the changed file.
+ * <p/>
+ * Saves that follow each other within {@link #DEFAULT_COALESCE_DELAY_MS} are coalesced into a single watcher run: the first save of a
+ * burst waits until no other save arrives for that long and then returns the entry points of all saves of the burst, the other
+ * saves return nothing. Only callers that hold no read lock wait, so coalescing never blocks saves or the event dispatch thread.
+ */
+public class DartFileDependencyGraph {
+  private static final Logger LOG = Logger.getInstance(DartFileDependencyGraph.class.getName());
+
+  static final long DEFAULT_COALESCE_DELAY_MS = 300;
+
+  private final Project myProject;
+  private long myCoalesceDelay = DEFAULT_COALESCE_DELAY_MS;
+
+  private final Object myBurstLock = new Object();
+  private final Set<VirtualFile> myBurstEntryPoints = new THashSet<VirtualFile>();
+  private final List<VirtualFile> myBurstFiles = new ArrayList<VirtualFile>();
+  private long myLastSaveTime;
+  private boolean myBurstInProgress;
+
+  public static DartFileDependencyGraph getInstance(final @NotNull Project project) {
+    return ServiceManager.getService(project, DartFileDependencyGraph.class);
+  }
+
+  public DartFileDependencyGraph(final @NotNull Project project) {
+    myProject = project;
+  }
+
+  void setCoalesceDelay(final long coalesceDelay) {
+    myCoalesceDelay = coalesceDelay;
+  }
+
+  boolean isBurstInProgress() {
+    synchronized (myBurstLock) {
+      return myBurstInProgress;
+    }
+  }
+
+  /**
+   * @return entry points to recompile after the file has been saved, or an empty set if they are returned for an earlier save
+   *         of the same burst
+   * @see #findDependentEntryPoints(VirtualFile)
+   */
+  @NotNull
+  public Set<VirtualFile> coalesceSave(final @NotNull VirtualFile file) {
+    final Set<VirtualFile> entryPoints = ApplicationManager.getApplication().runReadAction(new Computable<Set<VirtualFile>>() {
+      public Set<VirtualFile> compute() {
+        return findDependentEntryPoints(file);
+      }
+    });
+    if (ApplicationManager.getApplication().isReadAccessAllowed()) {
+      report(Collections.singletonList(file), entryPoints);
+      return entryPoints;
+    }
+
+    final List<VirtualFile> burstFiles;
+    final Set<VirtualFile> burstEntryPoints;
+    synchronized (myBurstLock) {
+      myBurstFiles.add(file);
+      myBurstEntryPoints.addAll(entryPoints);
+      myLastSaveTime = System.currentTimeMillis();
+      if (myBurstInProgress) return Collections.emptySet();
+
+      myBurstInProgress = true;
+      try {
+        long delay;
+        while ((delay = myLastSaveTime + myCoalesceDelay - System.currentTimeMillis()) > 0) {
+          myBurstLock.wait(delay);
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      finally {
+        burstFiles = new ArrayList<VirtualFile>(myBurstFiles);
+        burstEntryPoints = new THashSet<VirtualFile>(myBurstEntryPoints);
+        myBurstFiles.clear();
+        myBurstEntryPoints.clear();
+        myBurstInProgress = false;
+      }
+    }
+
+    report(burstFiles, burstEntryPoints);
+    return burstEntryPoints;
+  }
+
+  private void report(final @NotNull List<VirtualFile> savedFiles, final @NotNull Set<VirtualFile> entryPoints) {
+    final String fileNames = StringUtil.join(savedFiles, new Function<VirtualFile, String>() {
+      public String fun(VirtualFile file) {
+        return file.getName();
+      }
+    }, ", ");
+    final String message = DartBundle.message("file.watcher.entry.points.invalidated", fileNames, entryPoints.size());
+    LOG.info(message);
+    Notifications.Bus.notify(new Notification(DartBundle.message("file.watcher.title"),
+                                              DartBundle.message("file.watcher.title"),
+                                              message,
+                                              NotificationType.INFORMATION), myProject);
+  }
+
+  /**
+   * @return libraries with a top-level <code>main()</code> function that include the file as a part or directly or indirectly
+   *         import it or a library it is a part of, i.e. the entry points that have to be recompiled when the file changes;
+   *         the file itself is not included
+   */
+  @NotNull
+  public Set<VirtualFile> findDependentEntryPoints(final @NotNull VirtualFile file) {
+    final long start = System.currentTimeMillis();
+    final GlobalSearchScope scope = GlobalSearchScope.projectScope(myProject);
+    final VirtualFile changedFile = getCanonicalFile(file);
+
+    final Set<VirtualFile> visited = new THashSet<VirtualFile>();
+    final LinkedList<VirtualFile> queue = new LinkedList<VirtualFile>();
+    visited.add(changedFile);
+    queue.add(changedFile);
+    while (!queue.isEmpty()) {
+      ProgressManager.checkCanceled();
+      final VirtualFile dependency = queue.pollFirst();
+      for (String reference : getReferences(dependency)) {
+        for (VirtualFile dependent : DartImportedFileIndex.getImportingFiles(myProject, reference, scope)) {
+          final VirtualFile canonicalDependent = getCanonicalFile(dependent);
+          if (visited.add(canonicalDependent)) {
+            queue.add(canonicalDependent);
+          }
+        }
+      }
+    }
+
+    final Set<VirtualFile> entryPoints = new THashSet<VirtualFile>();
+    for (VirtualFile dependent : visited) {
+      if (!dependent.equals(changedFile) && hasMainFunction(dependent)) {
+        entryPoints.add(dependent);
+      }
+    }
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(file.getPath() + ": " + (visited.size() - 1) + " dependent file(s), " + entryPoints.size() + " entry point(s), " +
+                (System.currentTimeMillis() - start) + " ms");
+    }
+    return entryPoints;
+  }
+
+  /**
+   * @return keys under which {@link DartImportedFileIndex} stores references to the file
+   */
+  @NotNull
+  private List<String> getReferences(final @NotNull VirtualFile file) {
+    final List<String> result = new ArrayList<String>(2);
+    result.add(file.getPath());
+
+    final VirtualFile pubspecYamlFile = PubspecYamlUtil.getPubspecYamlFile(myProject, file);
+    final String packageName = pubspecYamlFile == null ? null : PubspecYamlUtil.getPubspecName(pubspecYamlFile);
+    final VirtualFile libFolder = packageName == null ? null : pubspecYamlFile.getParent().findChild("lib");
+    final String relativePath = libFolder == null ? null : VfsUtilCore.getRelativePath(file, libFolder, '/');
+    if (relativePath != null) {
+      result.add(DartResolveUtil.PACKAGE_PREFIX + packageName + "/" + relativePath);
+    }
+    return result;
+  }
+
+  private boolean hasMainFunction(final @NotNull VirtualFile file) {
+    for (DartComponentInfo info : FileBasedIndex.getInstance()
+      .getValues(DartComponentIndex.DART_COMPONENT_INDEX, "main", GlobalSearchScope.fileScope(myProject, file))) {
+      if (info.getType() == DartComponentType.FUNCTION) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Files in <code>packages</code> folders are usually symlinks to <code>lib</code> folders.
+   */
+  @NotNull
+  private static VirtualFile getCanonicalFile(final @NotNull VirtualFile file) {
+    final VirtualFile canonicalFile = file.getCanonicalFile();
+    return canonicalFile != null ? canonicalFile : file;
+  }
+}
@@ -0,0 +1,125 @@
+package com.jetbrains.lang.dart.psi;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.ModificationTracker;
+import com.intellij.openapi.vfs.*;
+import com.intellij.psi.*;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.xml.XmlFile;
+import com.jetbrains.lang.dart.DartFileType;
+import com.jetbrains.lang.dart.util.PubspecYamlUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts changes that may affect top-level Dart declarations or the way libraries are connected: any change in Dart, html or
+ * pubspec.yaml files except the ones inside function and class bodies, and any file or directory added, removed, moved or renamed.
+ * Content changes of Dart files made outside of the IDE (VCS update, pub get) are counted as well: PSI events are not fired for files
+ * whose PSI was never loaded, but the indices are updated.
+ * <p/>
+ * {@link #getStructureModificationTracker()} counts only the changes that may change how imports and parts are resolved to files:
+ * files and directories added, removed, moved or renamed, and pubspec.yaml changes. Caches that depend on the PSI files they were
+ * built from use it to notice files that appeared or disappeared.
+ */
+public class DartModificationTracker implements ModificationTracker {
+  private final AtomicLong myModificationCount = new AtomicLong();
+  private final AtomicLong myStructureModificationCount = new AtomicLong();
+  private final ModificationTracker myStructureModificationTracker = new ModificationTracker() {
+    @Override
+    public long getModificationCount() {
+      return myStructureModificationCount.get();
+    }
+  };
+
+  public static DartModificationTracker getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, DartModificationTracker.class);
+  }
+
+  public DartModificationTracker(@NotNull Project project, @NotNull PsiManager psiManager) {
+    psiManager.addPsiTreeChangeListener(new PsiTreeChangeAdapter() {
+      @Override
+      public void childAdded(@NotNull PsiTreeChangeEvent event) {
+        treeChanged(event);
+      }
+
+      @Override
+      public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+        treeChanged(event);
+      }
+
+      @Override
+      public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+        treeChanged(event);
+      }
+
+      @Override
+      public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+        treeChanged(event);
+      }
+
+      @Override
+      public void childMoved(@NotNull PsiTreeChangeEvent event) {
+        treeChanged(event);
+      }
+
+      @Override
+      public void propertyChanged(@NotNull PsiTreeChangeEvent event) {
+        myModificationCount.incrementAndGet();
+        myStructureModificationCount.incrementAndGet();
+      }
+    }, project);
+
+    VirtualFileManager.getInstance().addVirtualFileListener(new VirtualFileAdapter() {
+      @Override
+      public void contentsChanged(@NotNull VirtualFileEvent event) {
+        if (isDartFile(event.getFile())) {
+          myModificationCount.incrementAndGet();
+        }
+        else if (PubspecYamlUtil.PUBSPEC_YAML.equals(event.getFileName())) {
+          myStructureModificationCount.incrementAndGet();
+        }
+      }
+    }, project);
+  }
+
+  private static boolean isDartFile(final @NotNull VirtualFile file) {
+    return DartFileType.DEFAULT_EXTENSION.equals(file.getExtension());
+  }
+
+  private void treeChanged(final @NotNull PsiTreeChangeEvent event) {
+    final PsiFile file = event.getFile();
+    if (file == null) {
+      // file system level change
+      myModificationCount.incrementAndGet();
+      myStructureModificationCount.incrementAndGet();
+      return;
+    }
+
+    if (PubspecYamlUtil.PUBSPEC_YAML.equals(file.getName())) {
+      myStructureModificationCount.incrementAndGet();
+    }
+
+    if (!(file instanceof DartFile) && !(file instanceof XmlFile) && !PubspecYamlUtil.PUBSPEC_YAML.equals(file.getName())) {
+      return;
+    }
+
+    final PsiElement parent = event.getParent();
+    if (parent != null && PsiTreeUtil.getNonStrictParentOfType(parent, DartFunctionBody.class, DartClassBody.class) != null) {
+      return;
+    }
+
+    myModificationCount.incrementAndGet();
+  }
+
+  @Override
+  public long getModificationCount() {
+    return myModificationCount.get();
+  }
+
+  @NotNull
+  public ModificationTracker getStructureModificationTracker() {
+    return myStructureModificationTracker;
+  }
+}
@@ -3,6 +3,7 @@ package com.jetbrains.lang.dart.util;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.VfsUtilCore;
@@ -13,6 +14,9 @@ import com.intellij.psi.impl.source.tree.LeafPsiElement;
 import com.intellij.psi.scope.PsiScopeProcessor;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.search.PsiElementProcessor;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.util.BooleanValueHolder;
@@ -35,6 +39,9 @@ import java.util.*;
 
 public class DartResolveUtil {
   public static final String PACKAGE_SCHEME = "package";
+  public static final String DART_SCRIPT_TYPE = "application/dart";
+
+  private static final Key<CachedValue<List<PsiElement>>> DART_ROOTS_IN_XML_KEY = Key.create("dart.roots.in.xml");
 
   public static final String PACKAGE_PREFIX = PACKAGE_SCHEME + ":";
 
@@ -45,7 +52,25 @@ public class DartResolveUtil {
     return psiFile instanceof DartFile ? Collections.<PsiElement>singletonList(psiFile) : Collections.<PsiElement>emptyList();
   }
 
-  private static List<PsiElement> findDartRootsInXml(XmlFile xmlFile) {
+  private static List<PsiElement> findDartRootsInXml(final XmlFile xmlFile) {
+    final CachedValueProvider<List<PsiElement>> provider = new CachedValueProvider<List<PsiElement>>() {
+      @Override
+      public Result<List<PsiElement>> compute() {
+        return Result.create(computeDartRootsInXml(xmlFile), xmlFile);
+      }
+    };
+    return CachedValuesManager.getManager(xmlFile.getProject()).getCachedValue(xmlFile, DART_ROOTS_IN_XML_KEY, provider, false);
+  }
+
+  /**
+   * Embedded Dart code is possible only in script tags with <code>type="application/dart"</code>, so files not mentioning this type
+   * are rejected by a plain text search without walking the PSI tree.
+   */
+  public static List<PsiElement> computeDartRootsInXml(final XmlFile xmlFile) {
+    if (!StringUtil.contains(xmlFile.getViewProvider().getContents(), DART_SCRIPT_TYPE)) {
+      return Collections.emptyList();
+    }
+
     final List<PsiElement> result = new ArrayList<PsiElement>();
     xmlFile.acceptChildren(new XmlRecursiveElementVisitor() {
       @Override
@@ -276,6 +301,18 @@ public class DartResolveUtil {
                                                     @NotNull PsiScopeProcessor processor,
                                                     @Nullable VirtualFile rootVirtualFile,
                                                     @Nullable String componentNameHint) {
+    final PsiFile rootFile = rootVirtualFile == null ? null : context.getManager().findFile(rootVirtualFile);
+    if (rootFile != null) {
+      final boolean isLookingForPrivate = componentNameHint != null && componentNameHint.startsWith("_");
+      final Boolean result =
+        DartTopLevelNamespace.getInstance(rootFile, isLookingForPrivate).process(context.getManager(), processor, componentNameHint);
+      if (result != null) {
+        return result;
+      }
+      // some of the cached declarations are gone, the namespace is walked once more without the cache
+      return DartTopLevelNamespace.walk(rootFile, isLookingForPrivate, processor, new THashSet<PsiFile>());
+    }
+
     final Set<String> fileNames = new THashSet<String>();
     for (VirtualFile virtualFile : DartComponentIndex.getAllFiles(context.getProject(), componentNameHint)) {
       fileNames.add(virtualFile.getName());
@@ -363,9 +400,9 @@ public class DartResolveUtil {
   }
 
   @Nullable
-  private static VirtualFile getImportedFile(final @NotNull Project project,
-                                             final @NotNull VirtualFile contextFile,
-                                             final @NotNull String importText) {
+  public static VirtualFile getImportedFile(final @NotNull Project project,
+                                            final @NotNull VirtualFile contextFile,
+                                            final @NotNull String importText) {
     if (importText.startsWith(PACKAGE_PREFIX)) {
       return getPackagePrefixImportedFile(project, contextFile, importText);
     }
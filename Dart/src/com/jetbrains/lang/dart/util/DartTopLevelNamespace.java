@@ -0,0 +1,381 @@
+package com.jetbrains.lang.dart.util;
+
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.ResolveState;
+import com.intellij.psi.scope.BaseScopeProcessor;
+import com.intellij.psi.scope.PsiScopeProcessor;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.SmartList;
+import com.jetbrains.lang.dart.ide.index.DartImportIndex;
+import com.jetbrains.lang.dart.ide.index.DartLibraryIndex;
+import com.jetbrains.lang.dart.ide.index.DartPathIndex;
+import com.jetbrains.lang.dart.ide.index.DartPathInfo;
+import com.jetbrains.lang.dart.psi.*;
+import com.jetbrains.lang.dart.psi.impl.DartPsiCompositeElementImpl;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Top-level declarations visible in a library file, with show/hide combinators already applied.
+ * The private namespace contains only the declarations of the library itself and its parts. The public one also includes the
+ * public declarations exported by the libraries imported without a prefix: their own declarations, the declarations of their parts
+ * and, through <code>export</code> directives, of the libraries they export. Libraries that are only imported by an imported library
+ * are not visible.
+ * <p/>
+ * Declarations are kept as a file and a name, so the namespace cached on a library doesn't hold PSI of the imported files
+ * (SDK included); they are resolved through {@link FileDeclarations} of each file on lookup. The namespace depends only on the
+ * files it was built from and on the structure of the project, so edits in unrelated libraries keep it.
+ */
+class DartTopLevelNamespace {
+  private static final Key<CachedValue<DartTopLevelNamespace>> PUBLIC_NAMESPACE_KEY = Key.create("dart.public.top.level.namespace");
+  private static final Key<CachedValue<DartTopLevelNamespace>> PRIVATE_NAMESPACE_KEY = Key.create("dart.private.top.level.namespace");
+  private static final Key<CachedValue<FileDeclarations>> FILE_DECLARATIONS_KEY = Key.create("dart.top.level.file.declarations");
+
+  /**
+   * Entries grouped by the file they come from, in the order the files were met.
+   */
+  private final List<FileEntries> myFileEntries = new ArrayList<FileEntries>();
+  private final Map<String, Set<VirtualFile>> myFilesByName = new THashMap<String, Set<VirtualFile>>();
+  private boolean myCacheable = true;
+
+  private DartTopLevelNamespace() {
+  }
+
+  @NotNull
+  static DartTopLevelNamespace getInstance(final @NotNull PsiFile libraryFile, final boolean isPrivate) {
+    final CachedValueProvider<DartTopLevelNamespace> provider = new CachedValueProvider<DartTopLevelNamespace>() {
+      @Override
+      public Result<DartTopLevelNamespace> compute() {
+        final DartTopLevelNamespace namespace = new DartTopLevelNamespace();
+        final Set<PsiFile> files = new THashSet<PsiFile>();
+        walk(libraryFile, isPrivate, new BaseScopeProcessor() {
+          @Override
+          public boolean execute(@NotNull PsiElement element, @NotNull ResolveState state) {
+            if (element instanceof DartComponentName) {
+              namespace.add((DartComponentName)element);
+            }
+            return true;
+          }
+        }, files);
+
+        final List<Object> dependencies = new ArrayList<Object>(files);
+        dependencies.add(DartModificationTracker.getInstance(libraryFile.getProject()).getStructureModificationTracker());
+        dependencies.add(ProjectRootManager.getInstance(libraryFile.getProject()));
+        return Result.create(namespace, ArrayUtil.toObjectArray(dependencies));
+      }
+    };
+    return CachedValuesManager.getManager(libraryFile.getProject())
+      .getCachedValue(libraryFile, isPrivate ? PRIVATE_NAMESPACE_KEY : PUBLIC_NAMESPACE_KEY, provider, false);
+  }
+
+  /**
+   * Walks the namespace of the library without caching it.
+   *
+   * @param files receives the files the namespace is built from
+   */
+  static boolean walk(final @NotNull PsiFile libraryFile,
+                      final boolean isPrivate,
+                      final @NotNull PsiScopeProcessor processor,
+                      final @NotNull Set<PsiFile> files) {
+    final VirtualFile libraryVirtualFile = libraryFile.getOriginalFile().getVirtualFile();
+    if (libraryVirtualFile == null) return true;
+
+    final PsiManager manager = libraryFile.getManager();
+    if (!processLibrary(manager, libraryVirtualFile, processor, new THashSet<VirtualFile>(), files)) return false;
+    if (isPrivate) return true;
+
+    final Set<VirtualFile> processedExports = new THashSet<VirtualFile>();
+    final PsiScopeProcessor publicProcessor = new PublicComponentsProcessor(processor);
+    for (DartPathInfo importInfo : DartImportIndex.getLibraryNames(libraryFile.getProject(), libraryVirtualFile)) {
+      if (importInfo.getPrefix() != null) {
+        // all components of a prefixed import are referenced as prefix.Name
+        continue;
+      }
+      final PsiScopeProcessor importProcessor = importInfo.wrapElementProcessor(publicProcessor);
+      for (VirtualFile importedFile : findLibraryFiles(libraryFile, libraryVirtualFile, importInfo.getPath())) {
+        if (!processExportedNamespace(manager, importedFile, importProcessor, processedExports, files)) return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Processes declarations of the library and its parts.
+   */
+  private static boolean processLibrary(final @NotNull PsiManager manager,
+                                        final @NotNull VirtualFile virtualFile,
+                                        final @NotNull PsiScopeProcessor processor,
+                                        final @NotNull Set<VirtualFile> processedFiles,
+                                        final @NotNull Set<PsiFile> files) {
+    if (!processedFiles.add(virtualFile)) return true;
+
+    final PsiFile psiFile = manager.findFile(virtualFile);
+    if (psiFile == null) return true;
+
+    files.add(psiFile);
+    processor.handleEvent(PsiScopeProcessor.Event.SET_DECLARATION_HOLDER, psiFile);
+    for (PsiElement root : DartResolveUtil.findDartRoots(psiFile)) {
+      if (!DartPsiCompositeElementImpl.processDeclarationsImpl(root, processor, ResolveState.initial(), null)) return false;
+    }
+
+    for (String relativePathOrUrl : DartPathIndex.getPaths(manager.getProject(), virtualFile)) {
+      VirtualFile partFile = DartResolveUtil.findRelativeFile(virtualFile, relativePathOrUrl);
+      partFile = partFile != null ? partFile : VirtualFileManager.getInstance().findFileByUrl(relativePathOrUrl);
+      if (partFile != null && !processLibrary(manager, partFile, processor, processedFiles, files)) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Processes declarations that the library exports: its own ones, the ones of its parts and of the libraries it exports.
+   */
+  private static boolean processExportedNamespace(final @NotNull PsiManager manager,
+                                                  final @NotNull VirtualFile libraryFile,
+                                                  final @NotNull PsiScopeProcessor processor,
+                                                  final @NotNull Set<VirtualFile> processedExports,
+                                                  final @NotNull Set<PsiFile> files) {
+    if (!processedExports.add(libraryFile)) return true;
+    if (!processLibrary(manager, libraryFile, processor, new THashSet<VirtualFile>(), files)) return false;
+
+    final PsiFile psiFile = manager.findFile(libraryFile);
+    if (psiFile == null) return true;
+
+    for (PsiElement root : DartResolveUtil.findDartRoots(psiFile)) {
+      for (PsiElement child : root.getChildren()) {
+        if (!(child instanceof DartExportStatement)) continue;
+
+        final DartPathInfo exportInfo = createExportInfo((DartExportStatement)child);
+        final PsiScopeProcessor exportProcessor = exportInfo.wrapElementProcessor(processor);
+        for (VirtualFile exportedFile : findLibraryFiles(psiFile, libraryFile, exportInfo.getPath())) {
+          if (!processExportedNamespace(manager, exportedFile, exportProcessor, processedExports, files)) return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  @NotNull
+  private static List<VirtualFile> findLibraryFiles(final @NotNull PsiElement context,
+                                                    final @NotNull VirtualFile contextFile,
+                                                    final @NotNull String libraryNameOrPath) {
+    final List<VirtualFile> result = new ArrayList<VirtualFile>(DartLibraryIndex.findLibraryClass(context, libraryNameOrPath));
+    final VirtualFile importedFile = DartResolveUtil.getImportedFile(context.getProject(), contextFile, libraryNameOrPath);
+    if (importedFile != null && !result.contains(importedFile)) {
+      result.add(importedFile);
+    }
+    return result;
+  }
+
+  @NotNull
+  private static DartPathInfo createExportInfo(final @NotNull DartExportStatement exportStatement) {
+    final String path = FileUtil.toSystemIndependentName(
+      DartPsiImplUtil.normalizeLibraryName(StringUtil.unquoteString(exportStatement.getPathOrLibraryReference().getText())));
+
+    final Set<String> showComponentNames = new THashSet<String>();
+    for (DartShowCombinator showCombinator : exportStatement.getShowCombinatorList()) {
+      for (DartExpression expression : showCombinator.getLibraryReferenceList().getLibraryComponentReferenceExpressionList()) {
+        showComponentNames.add(expression.getText());
+      }
+    }
+
+    final Set<String> hideComponentNames = new THashSet<String>();
+    for (DartHideCombinator hideCombinator : exportStatement.getHideCombinatorList()) {
+      for (DartExpression expression : hideCombinator.getLibraryReferenceList().getLibraryComponentReferenceExpressionList()) {
+        hideComponentNames.add(expression.getText());
+      }
+    }
+
+    return new DartPathInfo(path, null, showComponentNames, hideComponentNames);
+  }
+
+  private void add(final @NotNull DartComponentName componentName) {
+    final String name = componentName.getName();
+    if (name == null) return;
+
+    final PsiFile psiFile = componentName.getContainingFile();
+    final VirtualFile virtualFile = psiFile == null ? null : psiFile.getOriginalFile().getVirtualFile();
+    final int index = virtualFile == null ? -1 : FileDeclarations.getInstance(psiFile.getOriginalFile()).indexOf(name, componentName);
+    if (index < 0) {
+      myCacheable = false;
+      return;
+    }
+
+    FileEntries fileEntries = myFileEntries.isEmpty() ? null : myFileEntries.get(myFileEntries.size() - 1);
+    if (fileEntries == null || !fileEntries.myFile.equals(virtualFile)) {
+      fileEntries = new FileEntries(virtualFile);
+      myFileEntries.add(fileEntries);
+    }
+    fileEntries.myEntries.add(new Entry(name, index));
+
+    Set<VirtualFile> files = myFilesByName.get(name);
+    if (files == null) {
+      files = new THashSet<VirtualFile>(1);
+      myFilesByName.put(name, files);
+    }
+    files.add(virtualFile);
+  }
+
+  /**
+   * Processes the declarations of the namespace. With a name hint only the files that declare a component with that name are
+   * processed, but the processor still gets all their declarations and does the filtering itself, as it did without the cache.
+   *
+   * @return <code>false</code> if the processor stopped the processing, <code>null</code> if some of the declarations can't be found
+   *         anymore and the caller should walk the imports itself
+   */
+  @Nullable
+  Boolean process(final @NotNull PsiManager manager, final @NotNull PsiScopeProcessor processor, final @Nullable String nameHint) {
+    if (!myCacheable) return null;
+
+    final Set<VirtualFile> files = nameHint == null ? null : myFilesByName.get(nameHint);
+    if (nameHint != null && files == null) return true;
+
+    final List<PsiFile> psiFiles = new ArrayList<PsiFile>();
+    final List<List<DartComponentName>> components = new ArrayList<List<DartComponentName>>();
+    for (FileEntries fileEntries : myFileEntries) {
+      if (files != null && !files.contains(fileEntries.myFile)) continue;
+
+      final PsiFile psiFile = fileEntries.myFile.isValid() ? manager.findFile(fileEntries.myFile) : null;
+      if (psiFile == null) return null;
+
+      final FileDeclarations declarations = FileDeclarations.getInstance(psiFile);
+      final List<DartComponentName> fileComponents = new ArrayList<DartComponentName>(fileEntries.myEntries.size());
+      for (Entry entry : fileEntries.myEntries) {
+        final DartComponentName component = declarations.get(entry.myName, entry.myIndex);
+        if (component == null || !component.isValid() || !entry.myName.equals(component.getName())) return null;
+        fileComponents.add(component);
+      }
+      psiFiles.add(psiFile);
+      components.add(fileComponents);
+    }
+
+    for (int i = 0; i < psiFiles.size(); i++) {
+      processor.handleEvent(PsiScopeProcessor.Event.SET_DECLARATION_HOLDER, psiFiles.get(i));
+      for (DartComponentName component : components.get(i)) {
+        if (!processor.execute(component, ResolveState.initial())) return false;
+      }
+    }
+    return true;
+  }
+
+  private static class FileEntries {
+    private final VirtualFile myFile;
+    private final List<Entry> myEntries = new SmartList<Entry>();
+
+    FileEntries(@NotNull VirtualFile file) {
+      myFile = file;
+    }
+  }
+
+  private static class Entry {
+    private final String myName;
+    private final int myIndex;
+
+    Entry(@NotNull String name, int index) {
+      myName = name;
+      myIndex = index;
+    }
+  }
+
+  /**
+   * Passes only public declarations: private declarations of imported and exported libraries are not visible.
+   */
+  private static class PublicComponentsProcessor implements PsiScopeProcessor {
+    private final PsiScopeProcessor myProcessor;
+
+    PublicComponentsProcessor(@NotNull PsiScopeProcessor processor) {
+      myProcessor = processor;
+    }
+
+    @Override
+    public boolean execute(@NotNull PsiElement element, @NotNull ResolveState state) {
+      if (element instanceof DartComponentName && StringUtil.startsWithChar(((DartComponentName)element).getName(), '_')) {
+        return true;
+      }
+      return myProcessor.execute(element, state);
+    }
+
+    @Nullable
+    @Override
+    public <T> T getHint(@NotNull Key<T> hintKey) {
+      return myProcessor.getHint(hintKey);
+    }
+
+    @Override
+    public void handleEvent(@NotNull Event event, @Nullable Object associated) {
+      myProcessor.handleEvent(event, associated);
+    }
+  }
+
+  /**
+   * Top-level declarations of a single file grouped by name, cached on the file itself.
+   */
+  private static class FileDeclarations {
+    private final Map<String, List<DartComponentName>> myComponentsByName = new THashMap<String, List<DartComponentName>>();
+
+    @NotNull
+    static FileDeclarations getInstance(final @NotNull PsiFile psiFile) {
+      final CachedValueProvider<FileDeclarations> provider = new CachedValueProvider<FileDeclarations>() {
+        @Override
+        public Result<FileDeclarations> compute() {
+          return Result.create(build(psiFile), psiFile);
+        }
+      };
+      return CachedValuesManager.getManager(psiFile.getProject()).getCachedValue(psiFile, FILE_DECLARATIONS_KEY, provider, false);
+    }
+
+    @NotNull
+    private static FileDeclarations build(final @NotNull PsiFile psiFile) {
+      final FileDeclarations declarations = new FileDeclarations();
+      for (PsiElement root : DartResolveUtil.findDartRoots(psiFile)) {
+        DartPsiCompositeElementImpl.processDeclarationsImpl(root, new BaseScopeProcessor() {
+          @Override
+          public boolean execute(@NotNull PsiElement element, @NotNull ResolveState state) {
+            if (element instanceof DartComponentName) {
+              declarations.add((DartComponentName)element);
+            }
+            return true;
+          }
+        }, ResolveState.initial(), null);
+      }
+      return declarations;
+    }
+
+    private void add(final @NotNull DartComponentName componentName) {
+      final String name = componentName.getName();
+      if (name == null) return;
+
+      List<DartComponentName> components = myComponentsByName.get(name);
+      if (components == null) {
+        components = new SmartList<DartComponentName>();
+        myComponentsByName.put(name, components);
+      }
+      components.add(componentName);
+    }
+
+    int indexOf(final @NotNull String name, final @NotNull DartComponentName componentName) {
+      final List<DartComponentName> components = myComponentsByName.get(name);
+      return components == null ? -1 : components.indexOf(componentName);
+    }
+
+    @Nullable
+    DartComponentName get(final @NotNull String name, final int index) {
+      final List<DartComponentName> components = myComponentsByName.get(name);
+      return components == null || index >= components.size() ? null : components.get(index);
+    }
+  }
+}
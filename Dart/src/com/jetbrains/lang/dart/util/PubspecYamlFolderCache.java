@@ -0,0 +1,119 @@
+package com.jetbrains.lang.dart.util;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.vfs.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers for each content folder the pubspec.yaml file that owns it and the packages folder next to that pubspec.yaml.
+ * The cache is cleared when a pubspec.yaml file or any folder (including packages folders) is created, deleted, moved or renamed,
+ * and when project roots change.
+ */
+public class PubspecYamlFolderCache {
+  private static final String PACKAGES_FOLDER_NAME = "packages";
+
+  private static final Pair<VirtualFile, VirtualFile> NO_PUBSPEC = Pair.create(null, null);
+
+  private final Project myProject;
+  private final ConcurrentMap<VirtualFile, Pair<VirtualFile, VirtualFile>> myFolderToPubspecAndPackages =
+    new ConcurrentHashMap<VirtualFile, Pair<VirtualFile, VirtualFile>>();
+  private volatile long myRootsModificationCount = -1;
+
+  public static PubspecYamlFolderCache getInstance(final @NotNull Project project) {
+    return ServiceManager.getService(project, PubspecYamlFolderCache.class);
+  }
+
+  public PubspecYamlFolderCache(final @NotNull Project project) {
+    myProject = project;
+
+    final VirtualFileAdapter listener = new VirtualFileAdapter() {
+      public void propertyChanged(@NotNull final VirtualFilePropertyEvent event) {
+        if (VirtualFile.PROP_NAME.equals(event.getPropertyName()) &&
+            (isRelevant(event.getFile(), (String)event.getOldValue()) || isRelevant(event.getFile(), (String)event.getNewValue()))) {
+          clear();
+        }
+      }
+
+      public void fileCreated(@NotNull final VirtualFileEvent event) {
+        fileChanged(event);
+      }
+
+      public void fileDeleted(@NotNull final VirtualFileEvent event) {
+        fileChanged(event);
+      }
+
+      public void fileMoved(@NotNull final VirtualFileMoveEvent event) {
+        fileChanged(event);
+      }
+
+      public void fileCopied(@NotNull final VirtualFileCopyEvent event) {
+        fileChanged(event);
+      }
+
+      private void fileChanged(@NotNull final VirtualFileEvent event) {
+        if (isRelevant(event.getFile(), event.getFileName())) {
+          clear();
+        }
+      }
+    };
+
+    VirtualFileManager.getInstance().addVirtualFileListener(listener, project);
+  }
+
+  private static boolean isRelevant(final @NotNull VirtualFile file, final @Nullable String fileName) {
+    return file.isDirectory() || PubspecYamlUtil.PUBSPEC_YAML.equals(fileName);
+  }
+
+  private void clear() {
+    myFolderToPubspecAndPackages.clear();
+  }
+
+  /**
+   * @return pubspec.yaml file that owns the folder and the packages folder next to it, both may be <code>null</code>
+   */
+  @NotNull
+  Pair<VirtualFile, VirtualFile> getPubspecYamlFileAndPackagesFolder(final @NotNull VirtualFile folder) {
+    final long rootsModificationCount = ProjectRootManager.getInstance(myProject).getModificationCount();
+    if (rootsModificationCount != myRootsModificationCount) {
+      clear();
+      myRootsModificationCount = rootsModificationCount;
+    }
+
+    final Pair<VirtualFile, VirtualFile> cached = myFolderToPubspecAndPackages.get(folder);
+    if (cached != null && isValid(cached)) {
+      return cached;
+    }
+
+    final Pair<VirtualFile, VirtualFile> result = computePubspecYamlFileAndPackagesFolder(folder);
+    myFolderToPubspecAndPackages.put(folder, result);
+    return result;
+  }
+
+  @NotNull
+  private Pair<VirtualFile, VirtualFile> computePubspecYamlFileAndPackagesFolder(final @NotNull VirtualFile folder) {
+    if (!folder.isValid() || !ProjectRootManager.getInstance(myProject).getFileIndex().isInContent(folder)) {
+      return NO_PUBSPEC;
+    }
+
+    final VirtualFile pubspecYamlFile = folder.findChild(PubspecYamlUtil.PUBSPEC_YAML);
+    if (pubspecYamlFile != null && !pubspecYamlFile.isDirectory()) {
+      final VirtualFile packagesFolder = folder.findChild(PACKAGES_FOLDER_NAME);
+      return Pair.create(pubspecYamlFile, packagesFolder != null && packagesFolder.isDirectory() ? packagesFolder : null);
+    }
+
+    final VirtualFile parent = folder.getParent();
+    return parent == null ? NO_PUBSPEC : getPubspecYamlFileAndPackagesFolder(parent);
+  }
+
+  private static boolean isValid(final @NotNull Pair<VirtualFile, VirtualFile> pubspecAndPackages) {
+    return (pubspecAndPackages.first == null || pubspecAndPackages.first.isValid()) &&
+           (pubspecAndPackages.second == null || pubspecAndPackages.second.isValid());
+  }
+}
@@ -3,8 +3,6 @@ package com.jetbrains.lang.dart.util;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.roots.ProjectFileIndex;
-import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.vfs.VfsUtilCore;
@@ -32,23 +30,16 @@ public class PubspecYamlUtil {
 
   @Nullable
   public static VirtualFile getPubspecYamlFile(final @NotNull Project project, final @NotNull VirtualFile contextFile) {
-    final ProjectFileIndex fileIndex = ProjectRootManager.getInstance(project).getFileIndex();
-    VirtualFile parent = contextFile;
-    while ((parent = parent.getParent()) != null && fileIndex.isInContent(parent)) {
-      final VirtualFile file = parent.findChild(PUBSPEC_YAML);
-      if (file != null && !file.isDirectory()) return file;
-    }
-
-    return null;
+    return getPubspecYamlFileAndPackagesFolder(project, contextFile).first;
   }
 
   @NotNull
   public static Pair<VirtualFile, VirtualFile> getPubspecYamlFileAndPackagesFolder(final @NotNull Project project,
                                                                                    final @NotNull VirtualFile contextFile) {
-    final VirtualFile pubspecYamlFile = getPubspecYamlFile(project, contextFile);
-    final VirtualFile parentFolder = pubspecYamlFile == null ? null : pubspecYamlFile.getParent();
-    final VirtualFile packagesFolder = parentFolder == null ? null : parentFolder.findChild("packages");
-    return Pair.create(pubspecYamlFile, packagesFolder != null && packagesFolder.isDirectory() ? packagesFolder : null);
+    final VirtualFile parent = contextFile.getParent();
+    if (parent == null) return Pair.create(null, null);
+
+    return PubspecYamlFolderCache.getInstance(project).getPubspecYamlFileAndPackagesFolder(parent);
   }
 
   @Nullable
@@ -0,0 +1,45 @@
+package com.jetbrains.lang.dart.completion;
+
+import com.intellij.codeInsight.completion.CompletionType;
+import com.intellij.codeInsight.lookup.LookupElement;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import com.jetbrains.lang.dart.DartCodeInsightFixtureTestCase;
+
+public class DartGlobalCompletionPerformanceTest extends DartCodeInsightFixtureTestCase {
+  private static final int FILE_COUNT = 1000;
+  private static final int CLASSES_PER_FILE = 20;
+
+  public void testGlobalCompletionLatency() throws Throwable {
+    for (int i = 0; i < FILE_COUNT; i++) {
+      myFixture.addFileToProject("lib/file" + i + ".dart", generateFileText(i));
+    }
+    myFixture.configureByText("main.dart", "main() {\n  Widget7<caret>\n}");
+
+    // warm up the index and the name cache
+    myFixture.complete(CompletionType.BASIC, 2);
+
+    PlatformTestUtil.startPerformanceTest("Dart global completion over " + FILE_COUNT * CLASSES_PER_FILE + " classes", 500,
+                                          new ThrowableRunnable() {
+                                            @Override
+                                            public void run() throws Throwable {
+                                              myFixture.complete(CompletionType.BASIC, 2);
+                                            }
+                                          }).cpuBound().assertTiming();
+
+    final LookupElement[] elements = myFixture.getLookupElements();
+    assertNotNull(elements);
+    for (LookupElement element : elements) {
+      assertTrue(element.getLookupString(), element.getLookupString().contains("7"));
+    }
+  }
+
+  private static String generateFileText(int i) {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("library lib").append(i).append(";\n\n");
+    for (int j = 0; j < CLASSES_PER_FILE; j++) {
+      builder.append("class Widget").append(i).append("x").append(j).append(" {}\n");
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,108 @@
+package com.jetbrains.lang.dart.ide.index;
+
+import com.jetbrains.lang.dart.DartCodeInsightFixtureTestCase;
+import com.jetbrains.lang.dart.DartComponentType;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the enumerated form of {@link DartComponentInfo} with the plain form it replaced, which wrote both strings
+ * with <code>writeUTF</code> and the component type as an int.
+ */
+public class DartComponentInfoExternalizerTest extends DartCodeInsightFixtureTestCase {
+  private static final int FILE_COUNT = 200;
+  private static final int COMPONENTS_PER_FILE = 50;
+  private static final int ITERATIONS = 5;
+
+  public void testRoundTrip() throws IOException {
+    final List<DartComponentInfo> infos = new ArrayList<DartComponentInfo>();
+    infos.add(new DartComponentInfo("file.dart", DartComponentType.CLASS, "lib"));
+    infos.add(new DartComponentInfo("file.dart", null, null));
+    infos.add(new DartComponentInfo("other.dart", DartComponentType.FUNCTION, "lib"));
+
+    final DartComponentInfoListExternalizer externalizer = new DartComponentInfoListExternalizer();
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    externalizer.save(new DataOutputStream(bytes), infos);
+    final List<DartComponentInfo> read =
+      externalizer.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertEquals(infos.size(), read.size());
+    for (int i = 0; i < infos.size(); i++) {
+      assertEquals(infos.get(i).getValue(), read.get(i).getValue());
+      assertEquals(infos.get(i).getType(), read.get(i).getType());
+      assertEquals(infos.get(i).getLibraryId(), read.get(i).getLibraryId());
+    }
+  }
+
+  public void testSizeAndReadTimeComparedToPlainStrings() throws IOException {
+    final List<DartComponentInfo> infos = generateInfos();
+
+    final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+    final DataOutputStream plainOut = new DataOutputStream(plain);
+    for (DartComponentInfo info : infos) {
+      savePlain(plainOut, info);
+    }
+
+    final ByteArrayOutputStream enumerated = new ByteArrayOutputStream();
+    final DataOutputStream enumeratedOut = new DataOutputStream(enumerated);
+    for (DartComponentInfo info : infos) {
+      DartComponentInfoExternalizer.saveComponentInfo(enumeratedOut, info);
+    }
+
+    final byte[] plainBytes = plain.toByteArray();
+    final byte[] enumeratedBytes = enumerated.toByteArray();
+    long plainTime = Long.MAX_VALUE;
+    long enumeratedTime = Long.MAX_VALUE;
+    for (int i = 0; i < ITERATIONS; i++) {
+      long start = System.nanoTime();
+      final DataInputStream plainIn = new DataInputStream(new ByteArrayInputStream(plainBytes));
+      for (int j = 0; j < infos.size(); j++) {
+        readPlain(plainIn);
+      }
+      plainTime = Math.min(plainTime, System.nanoTime() - start);
+
+      start = System.nanoTime();
+      final DataInputStream enumeratedIn =
+        new DataInputStream(new ByteArrayInputStream(enumeratedBytes));
+      for (int j = 0; j < infos.size(); j++) {
+        DartComponentInfoExternalizer.readComponentInfo(enumeratedIn);
+      }
+      enumeratedTime = Math.min(enumeratedTime, System.nanoTime() - start);
+    }
+
+    final String comparison = "plain: " + plain.size() + " bytes, " + plainTime / 1000 + " us; " +
+                              "enumerated: " + enumerated.size() + " bytes, " + enumeratedTime / 1000 + " us";
+    assertTrue(comparison, enumerated.size() * 2 < plain.size());
+    assertTrue(comparison, enumeratedTime < plainTime * 2);
+  }
+
+  private static List<DartComponentInfo> generateInfos() {
+    final DartComponentType[] types = DartComponentType.values();
+    final List<DartComponentInfo> result = new ArrayList<DartComponentInfo>(FILE_COUNT * COMPONENTS_PER_FILE);
+    for (int i = 0; i < FILE_COUNT; i++) {
+      for (int j = 0; j < COMPONENTS_PER_FILE; j++) {
+        result.add(new DartComponentInfo("some_library_file" + i + ".dart", types[j % types.length], "some.library" + i));
+      }
+    }
+    return result;
+  }
+
+  private static void savePlain(DataOutput out, DartComponentInfo info) throws IOException {
+    out.writeUTF(info.getValue());
+    final DartComponentType type = info.getType();
+    out.writeInt(type == null ? -1 : type.getKey());
+    out.writeBoolean(info.getLibraryId() != null);
+    if (info.getLibraryId() != null) {
+      out.writeUTF(info.getLibraryId());
+    }
+  }
+
+  private static DartComponentInfo readPlain(DataInput in) throws IOException {
+    final String value = in.readUTF();
+    final int key = in.readInt();
+    final String libraryId = in.readBoolean() ? in.readUTF() : null;
+    return new DartComponentInfo(value, DartComponentType.valueOf(key), libraryId);
+  }
+}
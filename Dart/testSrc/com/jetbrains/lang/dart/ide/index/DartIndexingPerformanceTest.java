@@ -0,0 +1,104 @@
+package com.jetbrains.lang.dart.ide.index;
+
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileContentImpl;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.indexing.IndexingDataKeys;
+import com.jetbrains.lang.dart.DartCodeInsightFixtureTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DartIndexingPerformanceTest extends DartCodeInsightFixtureTestCase {
+  private static final int FILE_COUNT = 2000;
+  private static final ID<?, ?>[] DART_INDICES = {
+    DartComponentIndex.DART_COMPONENT_INDEX,
+    DartClassIndex.DART_CLASS_INDEX,
+    DartInheritanceIndex.DART_INHERITANCE_INDEX,
+    DartImportIndex.DART_IMPORT_INDEX,
+    DartPathIndex.DART_PATH_INDEX,
+    DartSourceIndex.DART_SOURCE_INDEX,
+    DartSymbolIndex.DART_SYMBOL_INDEX,
+    DartLibraryIndex.DART_LIBRARY_INDEX
+  };
+
+  public void testIndexingThroughput() throws Throwable {
+    for (int i = 0; i < FILE_COUNT; i++) {
+      myFixture.addFileToProject("lib/file" + i + ".dart", generateFileText(i));
+    }
+
+    PlatformTestUtil.startPerformanceTest("Dart indexing of " + FILE_COUNT + " files", 30000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        final GlobalSearchScope scope = GlobalSearchScope.allScope(getProject());
+        for (ID<?, ?> indexId : DART_INDICES) {
+          FileBasedIndex.getInstance().ensureUpToDate(indexId, getProject(), scope);
+        }
+      }
+    }).cpuBound().assertTiming();
+
+    assertEquals(1, DartComponentIndex.getAllFiles(getProject(), "Class" + (FILE_COUNT - 1)).size());
+    assertTrue(DartClassIndex.getNames(getProject()).contains("Class0"));
+  }
+
+  /**
+   * Extracts the index data of the corpus once per file through {@link DartIndexUtil#indexFile} as all Dart indices
+   * do now, and once per index and file as they did before the data was shared, and compares the two in the same run.
+   */
+  public void testSharedExtractionIsFasterThanPerIndexExtraction() {
+    final List<PsiFile> files = new ArrayList<PsiFile>();
+    for (int i = 0; i < FILE_COUNT / 4; i++) {
+      files.add(myFixture.addFileToProject("lib/file" + i + ".dart", generateFileText(i)));
+    }
+
+    long shared = Long.MAX_VALUE;
+    long perIndex = Long.MAX_VALUE;
+    for (int attempt = 0; attempt < 3; attempt++) {
+      long start = System.nanoTime();
+      for (PsiFile file : files) {
+        final FileContentImpl content = FileContentImpl.createByFile(file.getVirtualFile());
+        content.putUserData(IndexingDataKeys.PSI_FILE, file);
+        for (int i = 0; i < DART_INDICES.length; i++) {
+          DartIndexUtil.indexFile(content);
+        }
+      }
+      shared = Math.min(shared, System.nanoTime() - start);
+
+      start = System.nanoTime();
+      for (PsiFile file : files) {
+        for (int i = 0; i < DART_INDICES.length; i++) {
+          DartIndexUtil.indexFileRoots(file);
+        }
+      }
+      perIndex = Math.min(perIndex, System.nanoTime() - start);
+    }
+
+    assertTrue("shared extraction took " + shared / 1000000 + " ms, per index extraction took " + perIndex / 1000000 + " ms",
+               shared * 2 < perIndex);
+  }
+
+  private static String generateFileText(int i) {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("library lib").append(i).append(";\n");
+    if (i > 0) {
+      builder.append("import 'file").append(i - 1).append(".dart' show Class").append(i - 1).append(";\n");
+    }
+    builder.append("part 'part").append(i).append(".dart';\n\n");
+    builder.append("class Class").append(i);
+    if (i > 0) {
+      builder.append(" extends Class").append(i - 1);
+    }
+    builder.append(" {\n");
+    for (int j = 0; j < 10; j++) {
+      builder.append("  int field").append(j).append(";\n");
+      builder.append("  void method").append(j).append("(int p) { var v = p + field").append(j).append("; print(v); }\n");
+    }
+    builder.append("}\n\n");
+    builder.append("int topLevelFunction").append(i).append("() => ").append(i).append(";\n");
+    return builder.toString();
+  }
+}
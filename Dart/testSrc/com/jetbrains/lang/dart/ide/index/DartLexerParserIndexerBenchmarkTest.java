@@ -0,0 +1,147 @@
+package com.jetbrains.lang.dart.ide.index;
+
+import com.intellij.ide.highlighter.HtmlFileType;
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiFileFactory;
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import com.jetbrains.lang.dart.DartCodeInsightFixtureTestCase;
+import com.jetbrains.lang.dart.DartFileType;
+import com.jetbrains.lang.dart.lexer.DartLexer;
+import com.jetbrains.lang.dart.util.DartResolveUtil;
+import com.jetbrains.lang.dart.util.DartTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Throughput and allocation rate of the lexer, the parser and the index extraction over the Dart SDK sources from testData
+ * and the html files with Dart scripts found in testData. Results are logged, timings are asserted with the
+ * usual performance test tolerance.
+ */
+public class DartLexerParserIndexerBenchmarkTest extends DartCodeInsightFixtureTestCase {
+  private static final Logger LOG = Logger.getInstance(DartLexerParserIndexerBenchmarkTest.class.getName());
+  private static final int ITERATIONS = 10;
+
+  private final List<String> myFileNames = new ArrayList<String>();
+  private final List<String> myTexts = new ArrayList<String>();
+  private long myCorpusSize;
+  private long myDartCorpusSize;
+  private int myDartFileCount;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    final File testData = new File(DartTestUtils.BASE_TEST_DATA_PATH);
+    for (File file : FileUtil.findFilesByMask(Pattern.compile(".*\\.dart"), new File(testData, "sdk"))) {
+      addToCorpus(file);
+    }
+    for (File file : FileUtil.findFilesByMask(Pattern.compile(".*\\.html"), testData)) {
+      addToCorpus(file);
+    }
+    assertFalse(myTexts.isEmpty());
+  }
+
+  private void addToCorpus(final File file) throws IOException {
+    final String text = FileUtil.loadFile(file, "UTF-8");
+    if (file.getName().endsWith(".html") && !text.contains(DartResolveUtil.DART_SCRIPT_TYPE)) return;
+
+    myFileNames.add(file.getName());
+    myTexts.add(text);
+    myCorpusSize += text.length();
+    if (file.getName().endsWith(".dart")) {
+      myDartCorpusSize += text.length();
+      myDartFileCount++;
+    }
+  }
+
+  public void testLexer() throws Throwable {
+    final Lexer lexer = new DartLexer();
+    measure("Dart lexer", myDartCorpusSize, myDartFileCount, 2000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        for (int i = 0; i < myTexts.size(); i++) {
+          if (!myFileNames.get(i).endsWith(".dart")) continue;
+          lexer.start(myTexts.get(i));
+          while (lexer.getTokenType() != null) {
+            lexer.advance();
+          }
+        }
+      }
+    });
+  }
+
+  public void testParser() throws Throwable {
+    measure("Dart parser", myCorpusSize, myTexts.size(), 10000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        for (int i = 0; i < myTexts.size(); i++) {
+          parse(i).accept(new PsiRecursiveElementWalkingVisitor() {
+          });
+        }
+      }
+    });
+  }
+
+  public void testIndexer() throws Throwable {
+    final List<PsiFile> files = new ArrayList<PsiFile>();
+    for (int i = 0; i < myTexts.size(); i++) {
+      files.add(parse(i));
+    }
+
+    measure("Dart index extraction", myCorpusSize, myTexts.size(), 10000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        for (PsiFile file : files) {
+          DartIndexUtil.indexFileRoots(file);
+        }
+      }
+    });
+  }
+
+  private PsiFile parse(final int index) {
+    final String fileName = myFileNames.get(index);
+    final FileType fileType = fileName.endsWith(".html") ? HtmlFileType.INSTANCE : DartFileType.INSTANCE;
+    return PsiFileFactory.getInstance(getProject()).createFileFromText(fileName, fileType, myTexts.get(index));
+  }
+
+  private static void measure(final String what,
+                              final long corpusSize,
+                              final int fileCount,
+                              final int expectedMs,
+                              final ThrowableRunnable runnable) throws Throwable {
+    runnable.run(); // warm up
+
+    final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    final boolean allocationSupported = threadMXBean instanceof com.sun.management.ThreadMXBean;
+
+    final long allocatedBefore = allocationSupported ? getAllocatedBytes(threadMXBean) : 0;
+    final long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      runnable.run();
+    }
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    final long allocated = allocationSupported ? getAllocatedBytes(threadMXBean) - allocatedBefore : -1;
+
+    final double megabytes = (double)corpusSize * ITERATIONS / (1024 * 1024);
+    LOG.info(String.format("%s: %.2f MB/s, %.0f files/s, %s", what, megabytes / seconds, fileCount * ITERATIONS / seconds,
+                           allocated < 0 ? "allocation rate n/a"
+                                         : String.format("%.1f MB/s allocated", (double)allocated / (1024 * 1024) / seconds)));
+
+    PlatformTestUtil.startPerformanceTest(what, expectedMs, runnable).cpuBound().assertTiming();
+  }
+
+  private static long getAllocatedBytes(final ThreadMXBean threadMXBean) {
+    return ((com.sun.management.ThreadMXBean)threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
@@ -0,0 +1,61 @@
+package com.jetbrains.lang.dart.ide.index;
+
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.lang.dart.DartCodeInsightFixtureTestCase;
+import com.jetbrains.lang.dart.psi.DartClass;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DartTypeHierarchyTest extends DartCodeInsightFixtureTestCase {
+  public void testSubclassEdited() {
+    final PsiFile base = myFixture.addFileToProject("base.dart", "library base;\nclass Base {}\n");
+    final PsiFile sub = myFixture.addFileToProject("sub.dart", "import 'base.dart';\nclass Sub extends Base {}\n");
+    assertSubclasses(base, "Sub");
+
+    myFixture.saveText(sub.getVirtualFile(), "import 'base.dart';\nclass Sub {}\nclass Other extends Base {}\n");
+    assertSubclasses(base, "Other");
+  }
+
+  public void testExportChanged() {
+    final PsiFile base = myFixture.addFileToProject("base.dart", "library base;\nclass Base {}\n");
+    final PsiFile facade = myFixture.addFileToProject("facade.dart", "library facade;\nexport 'base.dart';\n");
+    myFixture.addFileToProject("sub.dart", "import 'facade.dart';\nclass Sub extends Base {}\n");
+    assertSubclasses(base, "Sub");
+
+    myFixture.saveText(facade.getVirtualFile(), "library facade;\n");
+    assertSubclasses(base);
+
+    myFixture.saveText(facade.getVirtualFile(), "library facade;\nexport 'base.dart';\n");
+    assertSubclasses(base, "Sub");
+  }
+
+  public void testClassRemoved() {
+    final PsiFile base = myFixture.addFileToProject("base.dart", "library base;\nclass Base {}\nclass Sub extends Base {}\n");
+    assertSubclasses(base, "Sub");
+
+    myFixture.saveText(base.getVirtualFile(), "library base;\nclass Base {}\n");
+    assertSubclasses(base);
+  }
+
+  private void assertSubclasses(@NotNull PsiFile file, String... expected) {
+    PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+    final PsiFile psiFile = getPsiManager().findFile(file.getVirtualFile());
+    assertNotNull(psiFile);
+    DartClass baseClass = null;
+    for (DartClass dartClass : PsiTreeUtil.findChildrenOfType(psiFile, DartClass.class)) {
+      if ("Base".equals(dartClass.getName())) baseClass = dartClass;
+    }
+    assertNotNull(baseClass);
+
+    final List<String> actual = new ArrayList<String>();
+    for (DartClass subclass : DartTypeHierarchy.getInstance(getProject()).getDirectSubclasses(baseClass)) {
+      actual.add(subclass.getName());
+    }
+    assertEquals(Arrays.asList(expected), actual);
+  }
+}
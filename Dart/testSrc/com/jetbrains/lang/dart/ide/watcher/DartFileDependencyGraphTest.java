@@ -0,0 +1,106 @@
+package com.jetbrains.lang.dart.ide.watcher;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.jetbrains.lang.dart.DartCodeInsightFixtureTestCase;
+import gnu.trove.THashSet;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+public class DartFileDependencyGraphTest extends DartCodeInsightFixtureTestCase {
+  public void testPartOfLibrary() {
+    final VirtualFile part = addFile("part.dart", "part of a;");
+    final VirtualFile a = addFile("a.dart", "library a;\npart 'part.dart';");
+    final VirtualFile main = addFile("main.dart", "import 'a.dart';\nmain() {}");
+    assertDependents(part, main);
+    assertDependents(a, main);
+    assertDependents(main);
+  }
+
+  public void testImportCycle() {
+    final VirtualFile part = addFile("part.dart", "part of a;");
+    final VirtualFile a = addFile("a.dart", "library a;\nimport 'b.dart';\npart 'part.dart';");
+    final VirtualFile b = addFile("b.dart", "library b;\nimport 'a.dart';\nmain() {}");
+    assertDependents(part, b);
+    assertDependents(a, b);
+    assertDependents(b);
+  }
+
+  public void testImportedLibrary() {
+    final VirtualFile util = addFile("util.dart", "library util;");
+    final VirtualFile lib = addFile("lib.dart", "library lib;\nimport 'util.dart';\nclass main {}");
+    final VirtualFile test = addFile("test.dart", "import 'lib.dart';\nmain() {}");
+    assertDependents(util, test);
+    assertDependents(lib, test);
+  }
+
+  public void testPackageImports() {
+    addFile("pubspec.yaml", "name: app");
+    addFile("bar/pubspec.yaml", "name: bar");
+    final VirtualFile appLib = addFile("lib/app.dart", "library app;");
+    final VirtualFile barLib = addFile("bar/lib/bar.dart", "library bar;");
+    addFile("packages/app/app.dart", "library app;");
+    addFile("packages/bar/bar.dart", "library bar;");
+    final VirtualFile main = addFile("web/main.dart", "import 'package:app/app.dart';\nimport 'package:bar/bar.dart';\nmain() {}");
+    assertDependents(appLib, main);
+    assertDependents(barLib, main);
+  }
+
+  public void testEditedImports() {
+    final VirtualFile util = addFile("util.dart", "library util;");
+    final VirtualFile main = addFile("main.dart", "main() {}");
+    assertDependents(util);
+
+    myFixture.saveText(main, "import 'util.dart';\nmain() {}");
+    assertDependents(util, main);
+
+    myFixture.saveText(main, "main() {}");
+    assertDependents(util);
+  }
+
+  public void testSavesAreCoalesced() throws Exception {
+    final VirtualFile util = addFile("util.dart", "library util;");
+    final VirtualFile other = addFile("other.dart", "library other;");
+    final VirtualFile main1 = addFile("main1.dart", "import 'util.dart';\nmain() {}");
+    final VirtualFile main2 = addFile("main2.dart", "import 'other.dart';\nmain() {}");
+
+    final DartFileDependencyGraph graph = DartFileDependencyGraph.getInstance(getProject());
+    graph.setCoalesceDelay(2000);
+    try {
+      final Future<Set<VirtualFile>> first = coalesceSaveOnPooledThread(graph, util);
+      while (!graph.isBurstInProgress()) {
+        assertFalse(first.isDone());
+        Thread.yield();
+      }
+      final Future<Set<VirtualFile>> second = coalesceSaveOnPooledThread(graph, other);
+
+      assertEquals(Collections.<VirtualFile>emptySet(), second.get());
+      assertEquals(new THashSet<VirtualFile>(Arrays.asList(main1, main2)), first.get());
+    }
+    finally {
+      graph.setCoalesceDelay(DartFileDependencyGraph.DEFAULT_COALESCE_DELAY_MS);
+    }
+  }
+
+  private static Future<Set<VirtualFile>> coalesceSaveOnPooledThread(final DartFileDependencyGraph graph, final VirtualFile file) {
+    return ApplicationManager.getApplication().executeOnPooledThread(new Callable<Set<VirtualFile>>() {
+      @Override
+      public Set<VirtualFile> call() {
+        return graph.coalesceSave(file);
+      }
+    });
+  }
+
+  private VirtualFile addFile(final String path, final String text) {
+    return myFixture.addFileToProject(path, text).getVirtualFile();
+  }
+
+  private void assertDependents(final VirtualFile file, final VirtualFile... expected) {
+    final Set<VirtualFile> actual = DartFileDependencyGraph.getInstance(getProject()).findDependentEntryPoints(file);
+    assertEquals(new THashSet<VirtualFile>(Arrays.asList(expected)), actual);
+  }
+}
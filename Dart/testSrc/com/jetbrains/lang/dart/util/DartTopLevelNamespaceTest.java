@@ -0,0 +1,124 @@
+package com.jetbrains.lang.dart.util;
+
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.ResolveState;
+import com.intellij.psi.scope.BaseScopeProcessor;
+import com.jetbrains.lang.dart.DartCodeInsightFixtureTestCase;
+import com.jetbrains.lang.dart.psi.DartComponentName;
+import gnu.trove.THashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+public class DartTopLevelNamespaceTest extends DartCodeInsightFixtureTestCase {
+  private PsiFile myLibrary;
+  private PsiFile myOtherFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myFixture.addFileToProject("part.dart", "part of lib;\nclass PartClass {}\nvar _partPrivate;\n");
+    myFixture.addFileToProject("shown.dart", "library shown;\nclass Shown {}\nclass Hidden {}\nfoo() {}\n");
+    myFixture.addFileToProject("other.dart", "library other;\n" +
+                                             "import 'deep.dart';\n" +
+                                             "export 'exported.dart' hide NotExported;\n" +
+                                             "class Other {}\nclass Shown {}\nbar() {}\nvar _otherPrivate;\n");
+    myFixture.addFileToProject("deep.dart", "library deep;\nclass Deep {}\n");
+    myFixture.addFileToProject("exported.dart", "library exported;\nclass Exported {}\nclass NotExported {}\n");
+    myLibrary = myFixture.addFileToProject("lib.dart", "library lib;\n" +
+                                                       "import 'shown.dart' show Shown, foo;\n" +
+                                                       "import 'other.dart' hide bar;\n" +
+                                                       "part 'part.dart';\n" +
+                                                       "class LibClass {}\n" +
+                                                       "var _libPrivate;\n");
+    myOtherFile = myFixture.addFileToProject("web/main.dart", "main() {}\n");
+  }
+
+  public void testAllDeclarations() {
+    doTest(null,
+           "LibClass@lib.dart", "_libPrivate@lib.dart", "PartClass@part.dart", "_partPrivate@part.dart",
+           "Shown@shown.dart", "foo@shown.dart", "Other@other.dart", "Shown@other.dart", "Exported@exported.dart");
+  }
+
+  public void testByNameProcessesWholeFiles() {
+    doTest("Shown", "Shown@shown.dart", "foo@shown.dart", "Other@other.dart", "Shown@other.dart");
+    doTest("LibClass", "LibClass@lib.dart", "_libPrivate@lib.dart");
+    doTest("Exported", "Exported@exported.dart");
+  }
+
+  public void testCombinators() {
+    doTest("Hidden");
+    doTest("bar");
+    doTest("NotExported");
+  }
+
+  public void testOnlyDirectImportsAndExports() {
+    doTest("Deep");
+    doTest("Exported", "Exported@exported.dart");
+  }
+
+  public void testPrivate() {
+    doTest("_libPrivate", "LibClass@lib.dart", "_libPrivate@lib.dart");
+    doTest("_partPrivate", "PartClass@part.dart", "_partPrivate@part.dart");
+    doTest("_otherPrivate");
+  }
+
+  public void testAfterModification() {
+    doTest("Other", "Other@other.dart", "Shown@other.dart");
+    myFixture.saveText(myLibrary.getVirtualFile(), "library lib;\nimport 'other.dart';\nclass Other {}\n");
+    commitAndTest("Other", "Other@lib.dart", "Other@other.dart", "Shown@other.dart", "bar@other.dart");
+    myFixture.saveText(myFixture.findFileInTempDir("other.dart"), "library other;\n");
+    commitAndTest("Other", "Other@lib.dart");
+    myFixture.saveText(myFixture.findFileInTempDir("other.dart"), "library other;\nexport 'deep.dart';\n");
+    commitAndTest("Deep", "Deep@deep.dart");
+  }
+
+  public void testDeclarationHolders() {
+    final List<String> holders = new ArrayList<String>();
+    DartResolveUtil.processTopLevelDeclarations(myLibrary, new BaseScopeProcessor() {
+      @Override
+      public boolean execute(@NotNull PsiElement element, @NotNull ResolveState state) {
+        return true;
+      }
+
+      @Override
+      public void handleEvent(@NotNull Event event, @Nullable Object associated) {
+        if (event == Event.SET_DECLARATION_HOLDER && associated instanceof PsiFile) {
+          holders.add(((PsiFile)associated).getName());
+        }
+      }
+    }, myLibrary.getVirtualFile(), "Shown");
+    assertEquals(Arrays.asList("shown.dart", "other.dart"), holders);
+  }
+
+  private void commitAndTest(@Nullable String name, String... expected) {
+    PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+    myLibrary = getPsiManager().findFile(myLibrary.getVirtualFile());
+    doTest(name, expected);
+  }
+
+  private void doTest(@Nullable String name, String... expected) {
+    final Set<String> expectedSet = new THashSet<String>(Arrays.asList(expected));
+    assertEquals(expectedSet, collect(myLibrary, name));
+    // the namespace is cached on the library, the result mustn't depend on the context it was first requested from
+    assertEquals(expectedSet, collect(myOtherFile, name));
+    assertEquals(expectedSet, collect(myLibrary, name));
+  }
+
+  private Set<String> collect(@NotNull PsiElement context, @Nullable String name) {
+    final Set<String> result = new THashSet<String>();
+    DartResolveUtil.processTopLevelDeclarations(context, new BaseScopeProcessor() {
+      @Override
+      public boolean execute(@NotNull PsiElement element, @NotNull ResolveState state) {
+        if (element instanceof DartComponentName) {
+          result.add(((DartComponentName)element).getName() + "@" + element.getContainingFile().getName());
+        }
+        return true;
+      }
+    }, myLibrary.getVirtualFile(), name);
+    return result;
+  }
+}
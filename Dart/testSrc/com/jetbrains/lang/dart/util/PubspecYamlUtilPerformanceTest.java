@@ -0,0 +1,41 @@
+package com.jetbrains.lang.dart.util;
+
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import com.jetbrains.lang.dart.DartCodeInsightFixtureTestCase;
+
+public class PubspecYamlUtilPerformanceTest extends DartCodeInsightFixtureTestCase {
+  private static final int DEPTH = 30;
+  private static final int FILE_COUNT = 50;
+  private static final int LOOKUP_COUNT = 200000;
+
+  public void testNestedFileLookup() throws Throwable {
+    final PsiFile pubspecYaml = myFixture.addFileToProject("pubspec.yaml", "name: foo");
+    myFixture.addFileToProject("packages/bar/bar.dart", "");
+
+    final StringBuilder path = new StringBuilder();
+    for (int i = 0; i < DEPTH; i++) {
+      path.append("dir").append(i).append("/");
+    }
+    final VirtualFile[] files = new VirtualFile[FILE_COUNT];
+    for (int i = 0; i < FILE_COUNT; i++) {
+      files[i] = myFixture.addFileToProject(path + "file" + i + ".dart", "").getVirtualFile();
+    }
+
+    PlatformTestUtil.startPerformanceTest("pubspec.yaml lookup at depth " + DEPTH, 1000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+          final Pair<VirtualFile, VirtualFile> pair =
+            PubspecYamlUtil.getPubspecYamlFileAndPackagesFolder(getProject(), files[i % FILE_COUNT]);
+          assertNotNull(pair.second);
+        }
+      }
+    }).cpuBound().assertTiming();
+
+    assertEquals(pubspecYaml.getVirtualFile(), PubspecYamlUtil.getPubspecYamlFile(getProject(), files[0]));
+  }
+}
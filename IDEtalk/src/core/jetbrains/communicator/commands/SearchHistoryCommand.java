@@ -16,19 +16,22 @@
 package jetbrains.communicator.commands;
 
 import jetbrains.communicator.core.commands.UserCommand;
+import jetbrains.communicator.core.dispatcher.HistoryPager;
+import jetbrains.communicator.core.dispatcher.HistoryQuery;
 import jetbrains.communicator.core.dispatcher.LocalMessage;
 import jetbrains.communicator.core.dispatcher.LocalMessageDispatcher;
 import jetbrains.communicator.core.users.User;
 import jetbrains.communicator.ide.IDEFacade;
 import jetbrains.communicator.util.StringUtil;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * @author Kir
  */
 public class SearchHistoryCommand implements UserCommand {
+  public static final int PAGE_SIZE = 100;
+
   private final LocalMessageDispatcher myMessageDispatcher;
   private final IDEFacade myIdeFacade;
   private User myUser;
@@ -45,20 +48,15 @@ public class SearchHistoryCommand implements UserCommand {
         StringUtil.getMsg("search"));
 
     if (searchString != null) {
-      LocalMessage[] localMessages = myMessageDispatcher.getHistory(myUser, null);
-      List<LocalMessage> result = new ArrayList<LocalMessage>();
-      for (LocalMessage message : localMessages) {
-        if (message.containsString(searchString)) {
-          result.add(message);
-        }
-      }
+      HistoryPager foundMessages = myMessageDispatcher.findInHistory(myUser, new HistoryQuery(searchString));
+      LocalMessage[] result = foundMessages.readOlder(PAGE_SIZE);
 
-      if (result.size() == 0) {
+      if (result.length == 0) {
         myIdeFacade.showMessage(StringUtil.getMsg("SearchHistoryCommand.search.history", myUser.getDisplayName()),
             StringUtil.getMsg("SearchHistoryCommand.no.results"));
       }
       else {
-        myIdeFacade.showSearchHistoryResults(result, myUser);
+        myIdeFacade.showSearchHistoryResults(Arrays.asList(result), foundMessages, myUser);
       }
     }
   }
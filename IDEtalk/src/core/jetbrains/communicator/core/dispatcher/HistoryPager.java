@@ -0,0 +1,26 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.dispatcher;
+
+/**
+ * Reads the message history of one user backwards in time, page by page.
+ */
+public interface HistoryPager {
+
+  /** Returns up to maxCount messages older than the ones returned before, newest messages go first.
+   * An empty array means the start of the history is reached. */
+  LocalMessage[] readOlder(int maxCount);
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.dispatcher;
+
+import jetbrains.communicator.util.TimeUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Message history search query: words which should all be present in a message, "quoted phrases" and
+ * optional <code>since:yyyy-MM-dd</code> and <code>until:yyyy-MM-dd</code> day filters, both days included.
+ * Words are compared case-insensitively, see {@link #tokenize(String)}. A query word matches message words starting with it,
+ * so <code>NullPointer</code> finds <code>NullPointerException</code>; words of a phrase have to match exactly.
+ */
+public class HistoryQuery {
+  @NonNls
+  private static final String SINCE = "since:";
+  @NonNls
+  private static final String UNTIL = "until:";
+  @NonNls
+  private static final String DATE_FORMAT = "yyyy-MM-dd";
+  private static final int MAX_WORD_LENGTH = 100;
+
+  private final Set<String> myWords = new LinkedHashSet<String>();
+  private final Set<String> myPrefixes = new LinkedHashSet<String>();
+  private final List<List<String>> myPhrases = new ArrayList<List<String>>();
+  private Date mySince;
+  private Date myUntil;
+
+  public HistoryQuery(String query) {
+    int i = 0;
+    while (i < query.length()) {
+      char c = query.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      }
+      else if (c == '"') {
+        int end = query.indexOf('"', i + 1);
+        if (end < 0) end = query.length();
+        addPhrase(tokenize(query.substring(i + 1, end)));
+        i = end + 1;
+      }
+      else {
+        int end = i;
+        while (end < query.length() && !Character.isWhitespace(query.charAt(end)) && query.charAt(end) != '"') end++;
+        addToken(query.substring(i, end));
+        i = end;
+      }
+    }
+  }
+
+  private void addToken(String token) {
+    if (token.startsWith(SINCE)) {
+      Date since = parseDay(token.substring(SINCE.length()));
+      if (since != null) {
+        mySince = since;
+        return;
+      }
+    }
+    else if (token.startsWith(UNTIL)) {
+      Date until = parseDay(token.substring(UNTIL.length()));
+      if (until != null) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(until);
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        myUntil = calendar.getTime();
+        return;
+      }
+    }
+    myPrefixes.addAll(tokenize(token));
+  }
+
+  private void addPhrase(List<String> words) {
+    myWords.addAll(words);
+    if (words.size() > 1) {
+      myPhrases.add(words);
+    }
+  }
+
+  @Nullable
+  private static Date parseDay(String day) {
+    try {
+      SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
+      format.setLenient(false);
+      return TimeUtil.getDay(format.parse(day));
+    }
+    catch (ParseException e) {
+      return null;
+    }
+  }
+
+  /** Words of the phrases, to be matched exactly */
+  public Collection<String> getWords() {
+    return Collections.unmodifiableSet(myWords);
+  }
+
+  /** Words outside of phrases, each of them has to be a prefix of some word of the message */
+  public Collection<String> getPrefixes() {
+    return Collections.unmodifiableSet(myPrefixes);
+  }
+
+  public List<List<String>> getPhrases() {
+    return Collections.unmodifiableList(myPhrases);
+  }
+
+  /** Start of the first day of the range, inclusive */
+  @Nullable
+  public Date getSince() {
+    return mySince;
+  }
+
+  /** End of the last day of the range, exclusive */
+  @Nullable
+  public Date getUntil() {
+    return myUntil;
+  }
+
+  public boolean matchesDate(long when) {
+    return (mySince == null || when >= mySince.getTime()) && (myUntil == null || when < myUntil.getTime());
+  }
+
+  public boolean matches(LocalMessage message) {
+    if (!matchesDate(message.getWhen().getTime())) return false;
+
+    List<String> words = tokenize(message.getSearchableText());
+    Set<String> wordSet = new HashSet<String>(words);
+    if (!wordSet.containsAll(myWords)) return false;
+    for (String prefix : myPrefixes) {
+      if (!containsPrefix(wordSet, prefix)) return false;
+    }
+    for (List<String> phrase : myPhrases) {
+      if (Collections.indexOfSubList(words, phrase) < 0) return false;
+    }
+    return true;
+  }
+
+  private static boolean containsPrefix(Set<String> words, String prefix) {
+    if (words.contains(prefix)) return true;
+    for (String word : words) {
+      if (word.startsWith(prefix)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Splits the text into lower-cased words of letters and digits. Words longer than {@link #MAX_WORD_LENGTH} are cut.
+   */
+  public static List<String> tokenize(@Nullable String text) {
+    List<String> result = new ArrayList<String>();
+    if (text == null) return result;
+
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (wordChar && start < 0) {
+        start = i;
+      }
+      else if (!wordChar && start >= 0) {
+        result.add(text.substring(start, Math.min(i, start + MAX_WORD_LENGTH)).toLowerCase());
+        start = -1;
+      }
+    }
+    return result;
+  }
+
+  public String toString() {
+    return "HistoryQuery{words=" + myWords + ", prefixes=" + myPrefixes + ", phrases=" + myPhrases + ", since=" + mySince + ", until=" + myUntil + '}';
+  }
+}
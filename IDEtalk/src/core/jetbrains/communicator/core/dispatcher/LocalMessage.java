@@ -28,6 +28,6 @@ public interface LocalMessage extends Message {
   Icon getMessageIcon(int refreshCounter);
   Date getWhen();
 
-  /** This method is used when searching messages by pattern */
-  boolean containsString(String searchString);
+  /** Text of the message put into the history search index, see {@link HistoryQuery} */
+  String getSearchableText();
 }
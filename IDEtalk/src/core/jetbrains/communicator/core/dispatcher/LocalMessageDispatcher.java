@@ -37,6 +37,12 @@ public interface LocalMessageDispatcher extends MessageDispatcher {
   /** Oldest messages go first */
   LocalMessage[] getHistory(User user, Date since);
 
+  /** Pages through the whole history of the user, starting from the newest messages */
+  HistoryPager getHistoryPager(User user);
+
+  /** Pages through the messages of the user matching the query, starting from the newest ones */
+  HistoryPager findInHistory(User user, HistoryQuery query);
+
   void clearHistory();
   boolean isHistoryEmpty();
 }
@@ -214,12 +214,15 @@ public class VFile implements Comparable, Cloneable {
     return file;
   }
 
-  public boolean containsSearchString(String searchString) {
-    return
-        StringUtil.containedIn(getContentPath(), searchString) ||
-            StringUtil.containedIn(getSourcePath(), searchString) ||
-            StringUtil.containedIn(getFullPath(), searchString) ||
-            StringUtil.containedIn(getFQName(), searchString);
+  /** Paths and name of the file, one per line, for the history search index */
+  public String getSearchableText() {
+    StringBuilder result = new StringBuilder();
+    for (String s : new String[]{getContentPath(), getSourcePath(), getFullPath(), getFQName()}) {
+      if (s != null) {
+        result.append(s).append('\n');
+      }
+    }
+    return result.toString();
   }
 
   private static String getNullableItem(List v, int index) {
@@ -18,6 +18,7 @@ package jetbrains.communicator.ide;
 
 import jetbrains.communicator.commands.FindUsersCommand;
 import jetbrains.communicator.commands.SendMessageInvoker;
+import jetbrains.communicator.core.dispatcher.HistoryPager;
 import jetbrains.communicator.core.dispatcher.LocalMessage;
 import jetbrains.communicator.core.transport.TransportEvent;
 import jetbrains.communicator.core.users.User;
@@ -42,8 +43,9 @@ public interface IDEFacade {
   /** Ask user to enter message and send it to selected User(s) via SendMessageInvoker */
   void invokeSendMessage(User[] allUsers, User[] defaultTargetUsers, String message, SendMessageInvoker sendMessageInvoker);
 
-  /** Show search results, returned by @{link SearchHistoryCommand} */
-  void showSearchHistoryResults(List<LocalMessage> foundMessages, User user);
+  /** Show search results, returned by @{link SearchHistoryCommand}. foundMessages is the newest page of results,
+   * older results are read from moreMessages on demand */
+  void showSearchHistoryResults(List<LocalMessage> foundMessages, HistoryPager moreMessages, User user);
 
   /** Get ProjectsData, including open projects, files etc. See ProjectsData class for more info */
   ProjectsData getProjectsData();
@@ -27,16 +27,22 @@ import jetbrains.communicator.core.users.User;
 import jetbrains.communicator.core.users.UserEvent;
 import jetbrains.communicator.util.XMLUtil;
 import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NonNls;
 import org.picocontainer.Disposable;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Pending messages are stored in a file per user inside a directory named after {@link #getEventsFileName()},
+ * so that saving rewrites only the queues changed since the previous save.
+ *
  * @author Kir
  */
 public abstract class AbstractMessageDispatcher implements MessageDispatcher, Disposable {
   private static final Logger LOG = Logger.getLogger(AbstractMessageDispatcher.class);
+  @NonNls private static final String XML_EXT = ".xml";
   private XStream myXStream;
 
   private final File myDataDir;
@@ -44,8 +50,13 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
 
   private final Object myUser2MessagesLock = new Object();
   private final Map<User,List<Message>> myUser2Messages = new HashMap<User, List<Message>>();
+  private final Set<User> myChangedUsers = new HashSet<User>();
   private final EventBroadcaster myEventBroadcaster;
-  private boolean myDispatching;
+  private final AtomicInteger myDispatchingCount = new AtomicInteger();
+
+  private final Object mySaveLock = new Object();
+  private final Map<User, String> myUser2FileName = new HashMap<User, String>();
+  private int myNextFileIndex;
 
   protected AbstractMessageDispatcher(EventBroadcaster eventBroadcaster, File dataDir) {
     myDataDir = dataDir;
@@ -64,7 +75,7 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
 
   protected boolean performDispatch(User user, Message message) {
     try {
-      myDispatching = true;
+      myDispatchingCount.incrementAndGet();
       if (LOG.isDebugEnabled()) {
         //noinspection HardCodedStringLiteral
         LOG.debug("Start dispatching " + message + " to " + user);
@@ -74,13 +85,16 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
       synchronized(myUser2MessagesLock) {
         List<Message> userMessages = getMessages(user);
         if (result) {
-          userMessages.remove(message);
+          if (userMessages.remove(message)) {
+            myChangedUsers.add(user);
+          }
           if (userMessages.size() == 0) {
             myUser2Messages.remove(user);
           }
         }
         else if (!userMessages.contains(message) ){
           userMessages.add(message);
+          myChangedUsers.add(user);
         }
       }
 
@@ -90,7 +104,7 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
       }
       return result;
     } finally {
-      myDispatching = false;
+      myDispatchingCount.decrementAndGet();
     }
   }
 
@@ -125,13 +139,13 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
   public boolean sendNow(User user, Message message) {
     boolean result = performDispatch(user, message);
     if (result) {
-      save();
+      saveLater();
     }
     return result;
   }
 
   boolean isMessageDispatchInProgress() {
-    return myDispatching;
+    return myDispatchingCount.get() > 0;
   }
 
   protected void addPendingMessage(User user, Message message) {
@@ -139,30 +153,33 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
 
     synchronized(myUser2MessagesLock) {
       List<Message> userMessages = getMessages(user);
-      if (!userMessages.contains(message)) {
-        if (LOG.isDebugEnabled()) {
-          //noinspection HardCodedStringLiteral
-          LOG.debug("Added pending message " + message + "\nfor user " + user);
-        }
-        userMessages.add(message);
-        save();
+      if (userMessages.contains(message)) return;
+
+      if (LOG.isDebugEnabled()) {
+        //noinspection HardCodedStringLiteral
+        LOG.debug("Added pending message " + message + "\nfor user " + user);
       }
+      userMessages.add(message);
+      myChangedUsers.add(user);
     }
+    saveLater();
   }
 
   protected void removePendingMessage(User user, int messageIndex) {
     synchronized(myUser2MessagesLock) {
       List<Message> userMessages = getMessages(user);
       userMessages.remove(messageIndex);
-      save();
+      myChangedUsers.add(user);
     }
+    saveLater();
   }
 
   protected void clearAll() {
     synchronized (myUser2MessagesLock) {
+      myChangedUsers.addAll(myUser2Messages.keySet());
       myUser2Messages.clear();
-      save();
     }
+    saveLater();
   }
 
   private List<Message> getMessages(User user) {
@@ -177,43 +194,136 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
   }
 
   protected final void load() {
-    synchronized (myUser2MessagesLock) {
-      Object pendingEventsStorable = XMLUtil.fromXml(getXStream(), getFileName(), false);
-      if (pendingEventsStorable instanceof MessagesStorable) {
-        loadFromStorableMessages((MessagesStorable) pendingEventsStorable);
+    if (myDataDir == null) return;
+
+    File oldFile = new File(myDataDir, getEventsFileName());
+    boolean hasOldFile;
+    synchronized (mySaveLock) {
+      synchronized (myUser2MessagesLock) {
+        myUser2Messages.clear();
+        myUser2FileName.clear();
+        myChangedUsers.clear();
+
+        File[] files = getStoreDir().listFiles();
+        if (files != null) {
+          for (File file : files) {
+            if (file.getName().endsWith(XML_EXT)) {
+              loadUserFile(file);
+            }
+          }
+        }
+
+        // Migrate the single file all queues were kept in before
+        Object oldStorable = XMLUtil.fromXml(getXStream(), oldFile.getAbsolutePath(), false);
+        hasOldFile = oldStorable instanceof MessagesStorable;
+        if (hasOldFile) {
+          for (Map.Entry<User, List<Message>> entry : ((MessagesStorable)oldStorable).getUser2Messages().entrySet()) {
+            if (!myUser2Messages.containsKey(entry.getKey())) {
+              myUser2Messages.put(entry.getKey(), new ArrayList<Message>(entry.getValue()));
+              myChangedUsers.add(entry.getKey());
+            }
+          }
+        }
+      }
+    }
+
+    if (hasOldFile) {
+      save();
+      if (!oldFile.delete()) {
+        LOG.info("Cannot delete " + oldFile);
       }
     }
   }
 
-  protected void loadFromStorableMessages(MessagesStorable messagesStorable) {
-    myUser2Messages.clear();
-    myUser2Messages.putAll(messagesStorable.getUser2Messages());
+  private void loadUserFile(File file) {
+    Object storable = XMLUtil.fromXml(getXStream(), file.getAbsolutePath(), false);
+    if (!(storable instanceof MessagesStorable)) return;
+
+    for (Map.Entry<User, List<Message>> entry : ((MessagesStorable)storable).getUser2Messages().entrySet()) {
+      myUser2Messages.put(entry.getKey(), new ArrayList<Message>(entry.getValue()));
+      myUser2FileName.put(entry.getKey(), file.getName());
+    }
+
+    String name = file.getName().substring(0, file.getName().length() - XML_EXT.length());
+    try {
+      myNextFileIndex = Math.max(myNextFileIndex, Integer.parseInt(name) + 1);
+    }
+    catch (NumberFormatException ignored) {
+    }
   }
 
-  private String getFileName() {
-    return new File(myDataDir, getEventsFileName()).getAbsolutePath();
+  private File getStoreDir() {
+    String fileName = getEventsFileName();
+    if (fileName.endsWith(XML_EXT)) {
+      fileName = fileName.substring(0, fileName.length() - XML_EXT.length());
+    }
+    return new File(myDataDir, fileName);
   }
 
   private void removeUser(User user) {
     synchronized (myUser2MessagesLock) {
-      myUser2Messages.remove(user);
-      save();
+      if (myUser2Messages.remove(user) == null) return;
+      myChangedUsers.add(user);
     }
+    saveLater();
   }
 
+  /**
+   * Called after pending messages are changed. Saves them immediately, subclasses may batch the changes instead.
+   */
+  protected void saveLater() {
+    save();
+  }
+
+  /**
+   * Writes queues of the users changed since the previous save. Messages are serialized outside of the
+   * queues lock, so delivery and new messages don't wait for the disk.
+   */
   @SuppressWarnings({"HardCodedStringLiteral"})
   protected void save() {
     if (myDataDir == null || !myDataDir.exists()) return;
 
     LOG.debug("Save start");
-    synchronized(myUser2MessagesLock) {
-      XMLUtil.toXml(getXStream(), getFileName(), createStorableMessages());
+    synchronized (mySaveLock) {
+      Map<User, List<Message>> changed = new HashMap<User, List<Message>>();
+      synchronized (myUser2MessagesLock) {
+        for (User user : myChangedUsers) {
+          List<Message> messages = myUser2Messages.get(user);
+          changed.put(user, messages == null ? null : new ArrayList<Message>(messages));
+        }
+        myChangedUsers.clear();
+      }
+
+      File storeDir = getStoreDir();
+      if (!changed.isEmpty() && !storeDir.exists() && !storeDir.mkdirs()) {
+        LOG.info("Cannot create " + storeDir);
+      }
+      for (Map.Entry<User, List<Message>> entry : changed.entrySet()) {
+        saveUser(storeDir, entry.getKey(), entry.getValue());
+      }
     }
     LOG.debug("Save finish");
   }
 
-  protected MessagesStorable createStorableMessages() {
-    return new MessagesStorable(myUser2Messages);
+  private void saveUser(File storeDir, User user, List<Message> messages) {
+    String fileName = myUser2FileName.get(user);
+    if (messages == null || messages.isEmpty()) {
+      if (fileName != null) {
+        myUser2FileName.remove(user);
+        if (!new File(storeDir, fileName).delete()) {
+          LOG.info("Cannot delete " + fileName + " in " + storeDir);
+        }
+      }
+      return;
+    }
+
+    if (fileName == null) {
+      fileName = myNextFileIndex++ + XML_EXT;
+      myUser2FileName.put(user, fileName);
+    }
+    Map<User, List<Message>> user2Messages = new HashMap<User, List<Message>>();
+    user2Messages.put(user, messages);
+    XMLUtil.toXml(getXStream(), storeDir, fileName, new MessagesStorable(user2Messages));
   }
 
   @SuppressWarnings({"HardCodedStringLiteral"})
@@ -15,6 +15,7 @@
  */
 package jetbrains.communicator.core.impl.dispatcher;
 
+import com.intellij.util.Time;
 import jetbrains.communicator.core.EventBroadcaster;
 import jetbrains.communicator.core.EventVisitor;
 import jetbrains.communicator.core.IDEtalkAdapter;
@@ -27,13 +28,26 @@ import jetbrains.communicator.ide.IDEFacade;
 import jetbrains.communicator.util.WaitFor;
 import org.apache.log4j.Logger;
 
+import java.util.*;
+
 /**
+ * Every user has its own delivery queue. "Network Message Dispatcher" thread only schedules deliveries:
+ * queues are drained on pooled threads in parallel, so a slow or unreachable user doesn't delay the others.
+ * When delivery to a user fails, the next attempt is postponed with exponential backoff, until the user
+ * comes online or a message is sent to the user directly.
+ * Changes of the queues are saved in batches, not more often than once in {@link #SAVE_DELAY}.
+ *
  * @author Kir
  */
 public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implements AsyncMessageDispatcher, Runnable {
   private static final Logger LOG = Logger.getLogger(AsyncMessageDispatcherImpl.class);
 
   private static final String FILE_NAME = "pendingNetworkMessages.xml";
+  static final int MAX_PARALLEL_DELIVERIES = 8;
+  static final long MIN_RETRY_DELAY = 2 * Time.SECOND;
+  static final long MAX_RETRY_DELAY = 5 * Time.MINUTE;
+  static final long SAVE_DELAY = Time.SECOND;
+
   private final MyEventListener myEventListener;
   private final IDEFacade myIdeFacade;
 
@@ -43,6 +57,13 @@ public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implem
 
   private boolean myShouldDeliverNow;
 
+  // guarded by myWorkingThreadLock
+  private final Map<User, PeerQueue> myQueues = new HashMap<User, PeerQueue>();
+  private int myActiveDeliveries;
+  private long mySaveTime;
+  private long myMinRetryDelay = MIN_RETRY_DELAY;
+  private long myMaxRetryDelay = MAX_RETRY_DELAY;
+
   public AsyncMessageDispatcherImpl(EventBroadcaster broadcaster, IDEFacade ideFacade) {
     super(broadcaster, ideFacade.getCacheDir());
 
@@ -73,16 +94,26 @@ public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implem
     try {
       LOG.debug("Started Network Message Dispatcher thread");
       while (notDisposed()) {
+        boolean shouldSave;
         synchronized(myWorkingThreadLock) {
-          while (!myShouldDeliverNow && notDisposed()) {
-            myWorkingThreadLock.wait();
+          long delay = getDelayUntilNextWork();
+          while (!myShouldDeliverNow && delay != 0 && notDisposed()) {
+            myWorkingThreadLock.wait(Math.max(delay, 0));
+            delay = getDelayUntilNextWork();
           }
           myShouldDeliverNow = false;
+          shouldSave = mySaveTime > 0 && mySaveTime <= System.currentTimeMillis();
+          if (shouldSave) {
+            mySaveTime = 0;
+          }
         }
         LOG.debug("Process pending network messages");
 
         if (notDisposed()) {
-          dispatchAllMessages();
+          startDeliveries();
+        }
+        if (shouldSave) {
+          save();
         }
       }
     } catch (InterruptedException e) {
@@ -99,16 +130,127 @@ public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implem
     return myWorkingThread != null;
   }
 
-  private void dispatchAllMessages() {
+  /** @return 0 if there is some work right now, -1 if there is nothing scheduled */
+  private long getDelayUntilNextWork() {
+    long now = System.currentTimeMillis();
+    long nextTime = mySaveTime > 0 ? mySaveTime : Long.MAX_VALUE;
+    if (myActiveDeliveries < MAX_PARALLEL_DELIVERIES) {
+      for (PeerQueue queue : myQueues.values()) {
+        if (!queue.myDelivering && queue.myNextAttempt > 0) {
+          nextTime = Math.min(nextTime, queue.myNextAttempt);
+        }
+      }
+    }
+    if (nextTime == Long.MAX_VALUE) return -1;
+    return Math.max(nextTime - now, 0);
+  }
+
+  private void startDeliveries() {
     User[] usersWithMessages = getUsersWithMessages();
-    for (int i = 0; i < usersWithMessages.length && isRunning(); i++) {
-      User user = usersWithMessages[i];
-      Message[] pendingMessages = getPendingMessages(user);
-      for (int j = 0; j < pendingMessages.length && isRunning(); j++) {
-        performDispatch(user, pendingMessages[j]);
+    long now = System.currentTimeMillis();
+    synchronized(myWorkingThreadLock) {
+      for (int i = 0; i < usersWithMessages.length && myActiveDeliveries < MAX_PARALLEL_DELIVERIES; i++) {
+        final User user = usersWithMessages[i];
+        final PeerQueue queue = getQueue(user);
+        if (queue.myDelivering || queue.myNextAttempt > now) continue;
+
+        queue.myDelivering = true;
+        myActiveDeliveries++;
+        myIdeFacade.runOnPooledThread(new Runnable() {
+          public void run() {
+            deliver(user, queue);
+          }
+        });
+      }
+
+      Set<User> users = new HashSet<User>(Arrays.asList(usersWithMessages));
+      for (Iterator<Map.Entry<User, PeerQueue>> it = myQueues.entrySet().iterator(); it.hasNext();) {
+        Map.Entry<User, PeerQueue> entry = it.next();
+        if (!entry.getValue().myDelivering && !users.contains(entry.getKey())) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  private void deliver(User user, PeerQueue queue) {
+    boolean delivered = false;
+    try {
+      delivered = deliverPendingMessages(user);
+    }
+    catch (Throwable e) {
+      LOG.info(e.getMessage(), e);
+    }
+    finally {
+      synchronized(myWorkingThreadLock) {
+        queue.myDelivering = false;
+        myActiveDeliveries--;
+        if (delivered) {
+          queue.myFailures = 0;
+          queue.myNextAttempt = 0;
+        }
+        else {
+          queue.myFailures++;
+          queue.myNextAttempt = System.currentTimeMillis() + getRetryDelay(queue.myFailures);
+        }
+        // messages added during delivery and queues waiting for a free slot
+        myShouldDeliverNow = true;
+        myWorkingThreadLock.notifyAll();
+      }
+      saveLater();
+    }
+  }
+
+  /** Stops at the first failure to keep the order of messages */
+  private boolean deliverPendingMessages(User user) {
+    Message[] pendingMessages = getPendingMessages(user);
+    for (int i = 0; i < pendingMessages.length && isRunning(); i++) {
+      if (!performDispatch(user, pendingMessages[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Delay before the next attempt after <code>failures</code> failed deliveries in a row */
+  long getRetryDelay(int failures) {
+    synchronized(myWorkingThreadLock) {
+      long delay = myMinRetryDelay << Math.min(failures - 1, 30);
+      return delay > 0 ? Math.min(delay, myMaxRetryDelay) : myMaxRetryDelay;
+    }
+  }
+
+  int getFailureCount(User user) {
+    synchronized(myWorkingThreadLock) {
+      PeerQueue queue = myQueues.get(user);
+      return queue == null ? 0 : queue.myFailures;
+    }
+  }
+
+  void setRetryDelays(long minRetryDelay, long maxRetryDelay) {
+    synchronized(myWorkingThreadLock) {
+      myMinRetryDelay = minRetryDelay;
+      myMaxRetryDelay = maxRetryDelay;
+    }
+  }
+
+  private PeerQueue getQueue(User user) {
+    PeerQueue result = myQueues.get(user);
+    if (result == null) {
+      result = new PeerQueue();
+      myQueues.put(user, result);
+    }
+    return result;
+  }
+
+  private void resetRetryDelay(User user) {
+    synchronized(myWorkingThreadLock) {
+      PeerQueue queue = myQueues.get(user);
+      if (queue != null) {
+        queue.myFailures = 0;
+        queue.myNextAttempt = 0;
       }
     }
-    save();
   }
 
   public void dispose() {
@@ -124,6 +266,7 @@ public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implem
       }
     };
 
+    save();
     super.dispose();
   }
 
@@ -131,6 +274,18 @@ public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implem
     return FILE_NAME;
   }
 
+  protected void saveLater() {
+    synchronized(myWorkingThreadLock) {
+      if (mySaveTime == 0) {
+        mySaveTime = System.currentTimeMillis() + SAVE_DELAY;
+        myWorkingThreadLock.notifyAll();
+      }
+    }
+    if (!isRunning()) {
+      save();
+    }
+  }
+
   public void sendLater(User user, Message message) {
     synchronized(myWorkingThreadLock) {
       addPendingMessage(user, message);
@@ -138,6 +293,15 @@ public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implem
     }
   }
 
+  public boolean sendNow(User user, Message message) {
+    boolean result = super.sendNow(user, message);
+    if (result) {
+      resetRetryDelay(user);
+      triggerDelivery();
+    }
+    return result;
+  }
+
   public IDEFacade getIdeFacade() {
     return myIdeFacade;
   }
@@ -149,6 +313,12 @@ public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implem
     }
   }
 
+  private static class PeerQueue {
+    private boolean myDelivering;
+    private int myFailures;
+    private long myNextAttempt;
+  }
+
   private class MyEventListener extends IDEtalkAdapter {
     private final EventBroadcaster myBroadcaster;
 
@@ -164,6 +334,7 @@ public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implem
     public void afterChange(IDEtalkEvent event) {
       event.accept(new EventVisitor(){
         @Override public void visitUserOnline(UserEvent.Online online) {
+          resetRetryDelay(online.getUser());
           triggerDelivery();
         }
       });
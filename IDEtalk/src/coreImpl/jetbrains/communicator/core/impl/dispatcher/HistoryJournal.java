@@ -0,0 +1,803 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.impl.dispatcher;
+
+import com.thoughtworks.xstream.XStream;
+import jetbrains.communicator.core.dispatcher.LocalMessage;
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.util.TimeUtil;
+import jetbrains.communicator.util.XMLUtil;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Append-only message history storage, one journal file per day.<p>
+ *
+ * A journal is a sequence of records: <code>int length</code> followed by <code>length</code> bytes of
+ * <code>UTF user, long when, UTF-8 XML of the message</code>. Next to the history directory, an index file per day keeps
+ * <code>UTF user, long record offset, long when</code> for every record, so the messages of one user can be read without
+ * scanning the whole day.<p>
+ *
+ * Adding messages only appends to the two files of the message day. A record torn by a crash is cut off before the next append,
+ * and the index is rebuilt from the journal whenever it doesn't match it.<p>
+ *
+ * The segments file in the index directory lists the days having messages of every user, so the history of one user can be
+ * read page by page without looking into the days of other users.
+ */
+class HistoryJournal {
+  @NonNls
+  private static final Logger LOG = Logger.getLogger(HistoryJournal.class);
+
+  @NonNls
+  static final String JOURNAL_EXT = ".journal";
+  @NonNls
+  private static final String INDEX_EXT = ".idx";
+  @NonNls
+  private static final String XML_EXT = ".xml";
+  @NonNls
+  private static final String TMP_EXT = ".tmp";
+  @NonNls
+  private static final String UTF8 = "UTF-8";
+  @NonNls
+  private static final String SEGMENTS = "segments";
+
+  private final File myHistoryDir;
+  private final File myIndexDir;
+  private final XStream myXStream;
+  private final UserConverter myUserConverter;
+  @NonNls
+  private final SimpleDateFormat myDateFormat = new SimpleDateFormat("yyyy-MM-dd");
+
+  /** Days whose journal and index were checked for a torn tail in this session */
+  private final Set<String> myCheckedDays = new HashSet<String>();
+  /** User to the days having messages of the user, loaded on first use */
+  private Map<String, SortedSet<String>> mySegments;
+
+  static class Entry {
+    final User myUser;
+    final LocalMessage myMessage;
+
+    // set when the entry is written to or read from a journal
+    String myUserKey;
+    String myDayName;
+    long myOffset = -1;
+    long myEnd;
+
+    Entry(User user, LocalMessage message) {
+      myUser = user;
+      myMessage = message;
+    }
+  }
+
+  static class IndexEntry {
+    final String myUser;
+    final long myOffset;
+    final long myWhen;
+
+    IndexEntry(String user, long offset, long when) {
+      myUser = user;
+      myOffset = offset;
+      myWhen = when;
+    }
+  }
+
+  HistoryJournal(File historyDir, File indexDir, XStream xStream, UserConverter userConverter) {
+    myHistoryDir = historyDir;
+    myIndexDir = indexDir;
+    myXStream = xStream;
+    myUserConverter = userConverter;
+  }
+
+  /**
+   * @return days having a journal, the oldest first
+   */
+  List<Date> getDays() {
+    List<Date> result = new ArrayList<Date>();
+    String[] names = myHistoryDir.list();
+    if (names == null) return result;
+
+    Arrays.sort(names);
+    for (String name : names) {
+      if (!name.endsWith(JOURNAL_EXT)) continue;
+      Date day = parseDay(name);
+      if (day != null) {
+        result.add(day);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return entries that could not be written, so that they can be appended again later
+   */
+  List<Entry> append(List<Entry> entries) {
+    Map<Date, List<Entry>> byDay = new TreeMap<Date, List<Entry>>();
+    for (Entry entry : entries) {
+      Date day = TimeUtil.getDay(entry.myMessage.getWhen());
+      List<Entry> list = byDay.get(day);
+      if (list == null) {
+        list = new ArrayList<Entry>();
+        byDay.put(day, list);
+      }
+      list.add(entry);
+    }
+
+    List<Entry> failed = new ArrayList<Entry>();
+    for (Map.Entry<Date, List<Entry>> dayEntries : byDay.entrySet()) {
+      try {
+        appendToDay(dayEntries.getKey(), dayEntries.getValue());
+      }
+      catch (IOException e) {
+        LOG.warn("Unable to save history for " + dayEntries.getKey() + ", will retry on next save", e);
+        failed.addAll(dayEntries.getValue());
+      }
+    }
+    return failed;
+  }
+
+  private void appendToDay(Date day, List<Entry> entries) throws IOException {
+    String dayName = myDateFormat.format(day);
+    try {
+      doAppendToDay(dayName, entries);
+    }
+    catch (IOException e) {
+      // the files may be inconsistent now, check them again before the next append
+      myCheckedDays.remove(dayName);
+      throw e;
+    }
+  }
+
+  private void doAppendToDay(String dayName, List<Entry> entries) throws IOException {
+    File journal = getJournalFile(dayName);
+    ensureConsistent(dayName);
+    myIndexDir.mkdirs();
+
+    Set<String> users = new HashSet<String>();
+    for (Entry entry : entries) {
+      users.add(myUserConverter.toString(entry.myUser));
+    }
+    // segments may list a day without messages of the user, but never miss one
+    addSegments(dayName, users);
+
+    final long startOffset = journal.length();
+    long offset = startOffset;
+    DataOutputStream journalOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journal, true)));
+    DataOutputStream indexOut = null;
+    try {
+      indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getIndexFile(dayName), true)));
+      for (Entry entry : entries) {
+        String user = myUserConverter.toString(entry.myUser);
+        long when = entry.myMessage.getWhen().getTime();
+        byte[] record = createRecord(user, when, myXStream.toXML(entry.myMessage));
+
+        journalOut.writeInt(record.length);
+        journalOut.write(record);
+        writeIndexEntry(indexOut, new IndexEntry(user, offset, when));
+        entry.myUserKey = user;
+        entry.myDayName = dayName;
+        entry.myOffset = offset;
+        entry.myEnd = offset + 4 + record.length;
+        offset = entry.myEnd;
+      }
+      journalOut.close();
+      indexOut.close();
+    }
+    catch (IOException e) {
+      for (Entry entry : entries) {
+        entry.myOffset = -1;
+      }
+      closeQuietly(journalOut);
+      closeQuietly(indexOut);
+      // the entries are appended again later, don't leave the records written so far to be duplicated
+      truncate(journal, startOffset);
+      throw e;
+    }
+  }
+
+  private static void closeQuietly(@Nullable Closeable closeable) {
+    if (closeable == null) return;
+    try {
+      closeable.close();
+    }
+    catch (IOException e) {
+      // already failed
+    }
+  }
+
+  private static void truncate(File journal, long length) {
+    try {
+      RandomAccessFile file = new RandomAccessFile(journal, "rw");
+      try {
+        if (file.length() > length) {
+          file.setLength(length);
+        }
+      }
+      finally {
+        file.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Unable to cut off unsaved history records in " + journal, e);
+    }
+  }
+
+  private static byte[] createRecord(String user, long when, String xml) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(user);
+    out.writeLong(when);
+    out.write(xml.getBytes(UTF8));
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static void writeIndexEntry(DataOutputStream out, IndexEntry entry) throws IOException {
+    out.writeUTF(entry.myUser);
+    out.writeLong(entry.myOffset);
+    out.writeLong(entry.myWhen);
+  }
+
+  /**
+   * Cuts off a torn last record and rebuilds the index if it doesn't describe the journal, once per day and session.
+   */
+  private void ensureConsistent(String dayName) throws IOException {
+    if (!myCheckedDays.add(dayName)) return;
+
+    File journal = getJournalFile(dayName);
+    if (!journal.exists()) {
+      getIndexFile(dayName).delete();
+      return;
+    }
+
+    List<IndexEntry> fromJournal = new ArrayList<IndexEntry>();
+    long validLength = scanJournal(journal, fromJournal);
+    if (validLength < journal.length()) {
+      LOG.info("Truncating torn history record in " + journal + " at " + validLength);
+      RandomAccessFile file = new RandomAccessFile(journal, "rw");
+      try {
+        file.setLength(validLength);
+      }
+      finally {
+        file.close();
+      }
+    }
+
+    File index = getIndexFile(dayName);
+    long indexLength = index.length();
+    List<IndexEntry> fromIndex = new ArrayList<IndexEntry>();
+    long validIndexLength = readIndex(index, fromIndex);
+    if (validIndexLength != indexLength || !sameOffsets(fromIndex, fromJournal)) {
+      writeIndex(index, fromJournal);
+    }
+  }
+
+  private static boolean sameOffsets(List<IndexEntry> entries1, List<IndexEntry> entries2) {
+    if (entries1.size() != entries2.size()) return false;
+    for (int i = 0; i < entries1.size(); i++) {
+      if (entries1.get(i).myOffset != entries2.get(i).myOffset) return false;
+    }
+    return true;
+  }
+
+  private void writeIndex(File index, List<IndexEntry> entries) throws IOException {
+    myIndexDir.mkdirs();
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index, false)));
+    try {
+      for (IndexEntry entry : entries) {
+        writeIndexEntry(out, entry);
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @return length of the complete records at the start of the journal
+   */
+  private static long scanJournal(File journal, List<IndexEntry> entries) throws IOException {
+    long fileLength = journal.length();
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+    long offset = 0;
+    try {
+      while (offset + 4 <= fileLength) {
+        int length = in.readInt();
+        if (length < 0 || offset + 4 + length > fileLength) break;
+        byte[] record = new byte[length];
+        in.readFully(record);
+        DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(record));
+        entries.add(new IndexEntry(recordIn.readUTF(), offset, recordIn.readLong()));
+        offset += 4 + length;
+      }
+    }
+    finally {
+      in.close();
+    }
+    return offset;
+  }
+
+  /**
+   * @return length of the complete entries at the start of the index; an unreadable entry is treated as the end of the index,
+   *         so that a corrupt index is rebuilt from the journal rather than failing every read
+   */
+  private static long readIndex(File index, List<IndexEntry> entries) throws IOException {
+    if (!index.exists()) return 0;
+
+    CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(index)));
+    DataInputStream in = new DataInputStream(counter);
+    long validLength = 0;
+    try {
+      while (true) {
+        entries.add(new IndexEntry(in.readUTF(), in.readLong(), in.readLong()));
+        validLength = counter.myCount;
+      }
+    }
+    catch (EOFException e) {
+      // end of the index, a torn last entry is not added
+    }
+    catch (IOException e) {
+      LOG.info("Corrupt history index " + index + " at " + validLength, e);
+    }
+    finally {
+      in.close();
+    }
+    return validLength;
+  }
+
+  private Map<String, SortedSet<String>> getSegments() throws IOException {
+    if (mySegments == null) {
+      Map<String, SortedSet<String>> segments = new HashMap<String, SortedSet<String>>();
+      File file = getSegmentsFile();
+      long length = file.length();
+      if (!file.exists() || readSegments(file, segments) != length) {
+        segments.clear();
+        buildSegments(segments);
+        writeSegments(file, segments);
+      }
+      mySegments = segments;
+    }
+    return mySegments;
+  }
+
+  private void buildSegments(Map<String, SortedSet<String>> segments) throws IOException {
+    for (Date day : getDays()) {
+      String dayName = myDateFormat.format(day);
+      File index = getIndexFile(dayName);
+      ensureConsistent(dayName);
+
+      List<IndexEntry> entries = new ArrayList<IndexEntry>();
+      readIndex(index, entries);
+      for (IndexEntry entry : entries) {
+        addSegment(segments, entry.myUser, dayName);
+      }
+    }
+  }
+
+  private static boolean addSegment(Map<String, SortedSet<String>> segments, String user, String dayName) {
+    SortedSet<String> days = segments.get(user);
+    if (days == null) {
+      days = new TreeSet<String>();
+      segments.put(user, days);
+    }
+    return days.add(dayName);
+  }
+
+  private void addSegments(String dayName, Collection<String> users) throws IOException {
+    Map<String, SortedSet<String>> segments = getSegments();
+    DataOutputStream out = null;
+    try {
+      for (String user : users) {
+        if (addSegment(segments, user, dayName)) {
+          if (out == null) {
+            myIndexDir.mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getSegmentsFile(), true)));
+          }
+          out.writeUTF(user);
+          out.writeUTF(dayName);
+        }
+      }
+    }
+    catch (IOException e) {
+      // rebuild the segments from the day indices next time
+      mySegments = null;
+      getSegmentsFile().delete();
+      throw e;
+    }
+    finally {
+      if (out != null) {
+        out.close();
+      }
+    }
+  }
+
+  /**
+   * @return length of the complete entries at the start of the segments file
+   */
+  private static long readSegments(File file, Map<String, SortedSet<String>> segments) throws IOException {
+    CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+    DataInputStream in = new DataInputStream(counter);
+    long validLength = 0;
+    try {
+      while (true) {
+        String user = in.readUTF();
+        addSegment(segments, user, in.readUTF());
+        validLength = counter.myCount;
+      }
+    }
+    catch (EOFException e) {
+      // end of the file, a torn last entry is not added
+    }
+    finally {
+      in.close();
+    }
+    return validLength;
+  }
+
+  private void writeSegments(File file, Map<String, SortedSet<String>> segments) throws IOException {
+    myIndexDir.mkdirs();
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, false)));
+    try {
+      for (Map.Entry<String, SortedSet<String>> entry : segments.entrySet()) {
+        for (String dayName : entry.getValue()) {
+          out.writeUTF(entry.getKey());
+          out.writeUTF(dayName);
+        }
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @return days having messages of the user, the oldest first
+   */
+  List<Date> getDays(User user) {
+    List<Date> result = new ArrayList<Date>();
+    try {
+      SortedSet<String> dayNames = getSegments().get(myUserConverter.toString(user));
+      if (dayNames == null) return result;
+
+      for (String dayName : dayNames) {
+        Date day = parseDay(dayName);
+        if (day != null) {
+          result.add(day);
+        }
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Unable to read history segments", e);
+    }
+    return result;
+  }
+
+  /**
+   * @return index entries of the messages of the user sent or received at the day, the oldest first
+   */
+  List<IndexEntry> readIndex(Date day, User user) {
+    String dayName = myDateFormat.format(day);
+    String userString = myUserConverter.toString(user);
+    List<IndexEntry> result = new ArrayList<IndexEntry>();
+    try {
+      ensureConsistent(dayName);
+
+      List<IndexEntry> entries = new ArrayList<IndexEntry>();
+      readIndex(getIndexFile(dayName), entries);
+      for (IndexEntry entry : entries) {
+        if (entry.myUser.equals(userString)) {
+          result.add(entry);
+        }
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Unable to read history index for " + dayName, e);
+    }
+
+    Collections.sort(result, new Comparator<IndexEntry>() {
+      public int compare(IndexEntry o1, IndexEntry o2) {
+        return o1.myWhen < o2.myWhen ? -1 : o1.myWhen == o2.myWhen ? 0 : 1;
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Reads the messages of given index entries of the day, in the order of the entries.
+   */
+  List<LocalMessage> readMessages(Date day, List<IndexEntry> entries) {
+    return readMessages(getDayName(day), entries);
+  }
+
+  List<LocalMessage> readMessages(String dayName, List<IndexEntry> entries) {
+    List<LocalMessage> result = new ArrayList<LocalMessage>(entries.size());
+    File journal = getJournalFile(dayName);
+    if (entries.isEmpty() || !journal.exists()) return result;
+
+    try {
+      RandomAccessFile file = new RandomAccessFile(journal, "r");
+      try {
+        long fileLength = file.length();
+        for (IndexEntry entry : entries) {
+          if (entry.myOffset + 4 > fileLength) break;
+          file.seek(entry.myOffset);
+          int length = file.readInt();
+          if (length < 0 || entry.myOffset + 4 + length > fileLength) break;
+          byte[] record = new byte[length];
+          file.readFully(record);
+
+          DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+          in.readUTF();
+          in.readLong();
+          LocalMessage message = parseMessage(record, record.length - in.available(), entry.myUser);
+          if (message != null) {
+            result.add(message);
+          }
+        }
+      }
+      finally {
+        file.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Error reading " + journal, e);
+    }
+    return result;
+  }
+
+  /**
+   * Reads all records of the day into the history.
+   */
+  void readDay(Date day, DayHistory history) {
+    File journal = getJournalFile(myDateFormat.format(day));
+    if (!journal.exists()) return;
+
+    try {
+      long fileLength = journal.length();
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+      long offset = 0;
+      try {
+        while (offset + 4 <= fileLength) {
+          int length = in.readInt();
+          if (length < 0 || offset + 4 + length > fileLength) break;
+          byte[] record = new byte[length];
+          in.readFully(record);
+          readRecord(record, history);
+          offset += 4 + length;
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Error reading " + journal, e);
+    }
+  }
+
+  /**
+   * Reads the records of the day starting at the offset.
+   *
+   * @return entries of the complete records, with the journal position fields set; the message is <code>null</code> if
+   * it can't be read
+   */
+  List<Entry> readEntries(String dayName, long from) {
+    List<Entry> result = new ArrayList<Entry>();
+    File journal = getJournalFile(dayName);
+    if (journal.length() <= from) return result;
+
+    try {
+      RandomAccessFile file = new RandomAccessFile(journal, "r");
+      try {
+        long fileLength = file.length();
+        long offset = from;
+        file.seek(offset);
+        while (offset + 4 <= fileLength) {
+          int length = file.readInt();
+          if (length < 0 || offset + 4 + length > fileLength) break;
+          byte[] record = new byte[length];
+          file.readFully(record);
+
+          DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+          String user = in.readUTF();
+          in.readLong();
+          // unreadable messages are returned too, so that they're not read again
+          LocalMessage message = parseMessage(record, record.length - in.available(), user);
+          Entry entry = new Entry((User)myUserConverter.fromString(user), message);
+          entry.myUserKey = user;
+          entry.myDayName = dayName;
+          entry.myOffset = offset;
+          entry.myEnd = offset + 4 + length;
+          result.add(entry);
+          offset += 4 + length;
+        }
+      }
+      finally {
+        file.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Error reading " + journal, e);
+    }
+    return result;
+  }
+
+  private void readRecord(byte[] record, DayHistory history) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+    String user = in.readUTF();
+    in.readLong();
+    LocalMessage message = parseMessage(record, record.length - in.available(), user);
+    if (message != null) {
+      history.addMessage((User)myUserConverter.fromString(user), message);
+    }
+  }
+
+  @Nullable
+  private LocalMessage parseMessage(byte[] record, int start, String user) throws IOException {
+    try {
+      Object message = myXStream.fromXML(new String(record, start, record.length - start, UTF8));
+      if (message instanceof LocalMessage) {
+        return (LocalMessage)message;
+      }
+    }
+    catch (RuntimeException e) {
+      LOG.info("Unable to read history record of " + user, e);
+    }
+    return null;
+  }
+
+  /**
+   * Converts day files written by XStream in older versions to journals.
+   */
+  void migrateXmlDayFiles() {
+    String[] names = myHistoryDir.list();
+    if (names == null) return;
+
+    for (String name : names) {
+      if (!name.endsWith(XML_EXT)) continue;
+      Date day = parseDay(name);
+      if (day == null) continue;
+
+      File xmlFile = new File(myHistoryDir, name);
+      String dayName = myDateFormat.format(day);
+      File journal = getJournalFile(dayName);
+      if (!journal.exists()) {
+        DayHistory dayHistory = (DayHistory)XMLUtil.fromXml(myXStream, xmlFile.getAbsolutePath(), false);
+        if (dayHistory == null) continue;
+
+        try {
+          migrateDay(dayName, dayHistory);
+        }
+        catch (IOException e) {
+          LOG.error("Unable to convert " + xmlFile, e);
+          continue;
+        }
+      }
+      xmlFile.delete();
+    }
+  }
+
+  private void migrateDay(String dayName, DayHistory dayHistory) throws IOException {
+    File journal = getJournalFile(dayName);
+    File tmpJournal = new File(myHistoryDir, dayName + JOURNAL_EXT + TMP_EXT);
+    List<IndexEntry> entries = new ArrayList<IndexEntry>();
+    Set<String> users = new HashSet<String>();
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpJournal, false)));
+    try {
+      long offset = 0;
+      for (User user : dayHistory.keySet()) {
+        String userString = myUserConverter.toString(user);
+        users.add(userString);
+        for (LocalMessage message : dayHistory.readMessages(user)) {
+          long when = message.getWhen().getTime();
+          byte[] record = createRecord(userString, when, myXStream.toXML(message));
+          out.writeInt(record.length);
+          out.write(record);
+          entries.add(new IndexEntry(userString, offset, when));
+          offset += 4 + record.length;
+        }
+      }
+    }
+    finally {
+      out.close();
+    }
+
+    if (!tmpJournal.renameTo(journal)) {
+      tmpJournal.delete();
+      throw new IOException("Unable to rename " + tmpJournal + " to " + journal);
+    }
+    writeIndex(getIndexFile(dayName), entries);
+    addSegments(dayName, users);
+  }
+
+  void deleteAll() {
+    myCheckedDays.clear();
+    mySegments = null;
+    deleteFiles(myHistoryDir);
+    deleteFiles(myIndexDir);
+  }
+
+  private static void deleteFiles(File dir) {
+    File[] files = dir.listFiles();
+    if (files == null) return;
+
+    Thread thread = Thread.currentThread();
+    for (File file : files) {
+      if (thread.isInterrupted()) return;
+      file.delete();
+    }
+  }
+
+  @Nullable
+  private Date parseDay(String fileName) {
+    try {
+      return myDateFormat.parse(fileName);
+    }
+    catch (ParseException e) {
+      // ignore file of wrong format
+      return null;
+    }
+    catch (NumberFormatException e) {
+      // ignore file of wrong format
+      return null;
+    }
+  }
+
+  String getDayName(Date day) {
+    return myDateFormat.format(day);
+  }
+
+  String getUserKey(User user) {
+    return myUserConverter.toString(user);
+  }
+
+  private File getJournalFile(String dayName) {
+    return new File(myHistoryDir, dayName + JOURNAL_EXT);
+  }
+
+  private File getIndexFile(String dayName) {
+    return new File(myIndexDir, dayName + INDEX_EXT);
+  }
+
+  private File getSegmentsFile() {
+    return new File(myIndexDir, SEGMENTS);
+  }
+
+  private static class CountingInputStream extends FilterInputStream {
+    private long myCount;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    public int read() throws IOException {
+      int result = super.read();
+      if (result != -1) myCount++;
+      return result;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+      int result = super.read(b, off, len);
+      if (result > 0) myCount += result;
+      return result;
+    }
+  }
+}
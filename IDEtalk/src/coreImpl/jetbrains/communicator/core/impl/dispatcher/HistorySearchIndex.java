@@ -0,0 +1,455 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.impl.dispatcher;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongArrayList;
+import gnu.trove.TObjectIntHashMap;
+import gnu.trove.TObjectLongHashMap;
+import jetbrains.communicator.core.dispatcher.HistoryQuery;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Inverted index of the words of history messages, see {@link HistoryQuery}.<p>
+ *
+ * Every indexed message is a document, numbered in the order of indexing. A document keeps its user, time and position
+ * in the day journal; for every word, the index keeps the ascending numbers of the documents containing it.<p>
+ *
+ * The index is kept in memory and persisted as an append-only log of documents with their words, which is replayed on
+ * {@link #load()}. For every day, the index remembers how much of the journal is indexed, so the messages missing from the
+ * index after a crash or an upgrade are found by comparing it with the journal length.
+ */
+class HistorySearchIndex {
+  @NonNls
+  private static final Logger LOG = Logger.getLogger(HistorySearchIndex.class);
+
+  @NonNls
+  private static final String POSTINGS = "postings";
+
+  private final File myDir;
+  private boolean myLoaded;
+  /** All journal records are indexed, set after the catch-up with the journal */
+  private volatile boolean myUpToDate;
+  /** Counts the times the index became not up to date */
+  private int myStaleMarks;
+  /** Changed when the index is cleared, search results of older generations are not valid */
+  private int myGeneration;
+  private long myLogLength;
+
+  private final List<String> myDayNames = new ArrayList<String>();
+  private final TObjectIntHashMap<String> myDayIds = new TObjectIntHashMap<String>();
+  private final List<String> myUserKeys = new ArrayList<String>();
+  private final TObjectIntHashMap<String> myUserIds = new TObjectIntHashMap<String>();
+  /** Day name to the indexed length of the day journal */
+  private final TObjectLongHashMap<String> myIndexedLengths = new TObjectLongHashMap<String>();
+
+  private final TIntArrayList myDocDays = new TIntArrayList();
+  private final TIntArrayList myDocUsers = new TIntArrayList();
+  private final TLongArrayList myDocWhen = new TLongArrayList();
+  private final TLongArrayList myDocOffsets = new TLongArrayList();
+
+  /** Sorted, so that the words starting with a prefix form a key range */
+  private final SortedMap<String, TIntArrayList> myPostings = new TreeMap<String, TIntArrayList>();
+
+  /** Position of a found message */
+  static class Hit {
+    final String myDayName;
+    final HistoryJournal.IndexEntry myEntry;
+
+    Hit(String dayName, HistoryJournal.IndexEntry entry) {
+      myDayName = dayName;
+      myEntry = entry;
+    }
+  }
+
+  HistorySearchIndex(File dir) {
+    myDir = dir;
+  }
+
+  boolean isUpToDate() {
+    return myUpToDate;
+  }
+
+  synchronized int getStaleMarks() {
+    return myStaleMarks;
+  }
+
+  /**
+   * Called after the catch-up with the journal, which started when the index was marked stale given number of times.
+   */
+  synchronized void setUpToDate(int staleMarks) {
+    if (staleMarks == myStaleMarks) {
+      myUpToDate = true;
+    }
+  }
+
+  private void markStale() {
+    myUpToDate = false;
+    myStaleMarks++;
+  }
+
+  synchronized int getGeneration() {
+    return myGeneration;
+  }
+
+  synchronized long getIndexedLength(String dayName) {
+    load();
+    return myIndexedLengths.get(dayName);
+  }
+
+  /**
+   * Reads the persisted index, if not done yet. A torn last record is cut off.
+   */
+  synchronized void load() {
+    if (myLoaded) return;
+    myLoaded = true;
+
+    File log = getLogFile();
+    if (!log.exists()) return;
+
+    long fileLength = log.length();
+    long offset = 0;
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)));
+      try {
+        while (offset + 4 <= fileLength) {
+          int length = in.readInt();
+          if (length < 0 || offset + 4 + length > fileLength) break;
+          byte[] record = new byte[length];
+          in.readFully(record);
+          readRecord(record);
+          offset += 4 + length;
+        }
+      }
+      finally {
+        in.close();
+      }
+
+      if (offset < fileLength) {
+        LOG.info("Truncating torn search index record in " + log + " at " + offset);
+        truncate(log, offset);
+      }
+      myLogLength = offset;
+    }
+    catch (IOException e) {
+      LOG.info("Unable to read search index, it will be rebuilt", e);
+      clearData();
+      log.delete();
+    }
+  }
+
+  private void readRecord(byte[] record) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+    String dayName = in.readUTF();
+    long offset = in.readLong();
+    long end = in.readLong();
+    String userKey = in.readUTF();
+    long when = in.readLong();
+    int count = in.readInt();
+    List<String> words = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      words.add(in.readUTF());
+    }
+    // the same rule as in add(), in case another process appended to the log
+    if (offset == myIndexedLengths.get(dayName)) {
+      addDocument(dayName, offset, end, userKey, when, words);
+    }
+  }
+
+  /**
+   * Indexes the entries written to the journal. The entries already indexed and the ones failed to be written are skipped.
+   * The index of a day journal has no gaps: if an entry doesn't follow the indexed part of its journal, it is skipped too
+   * and the index becomes not up to date, until the catch-up with the journal.
+   */
+  synchronized void add(List<HistoryJournal.Entry> entries) {
+    load();
+
+    List<HistoryJournal.Entry> added = new ArrayList<HistoryJournal.Entry>();
+    List<Collection<String>> addedWords = new ArrayList<Collection<String>>();
+    Map<String, Long> indexedLengths = new HashMap<String, Long>();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      DataOutputStream out = new DataOutputStream(bytes);
+      for (HistoryJournal.Entry entry : entries) {
+        if (entry.myOffset < 0) continue;
+        Long indexedLength = indexedLengths.get(entry.myDayName);
+        if (indexedLength == null) {
+          indexedLength = myIndexedLengths.get(entry.myDayName);
+        }
+        if (entry.myOffset < indexedLength) continue;
+        if (entry.myOffset > indexedLength) {
+          markStale();
+          continue;
+        }
+        indexedLengths.put(entry.myDayName, entry.myEnd);
+
+        Collection<String> words = entry.myMessage != null
+                                   ? new LinkedHashSet<String>(HistoryQuery.tokenize(entry.myMessage.getSearchableText()))
+                                   : Collections.<String>emptySet();
+        long when = entry.myMessage != null ? entry.myMessage.getWhen().getTime() : 0;
+        byte[] record = createRecord(entry, when, words);
+        out.writeInt(record.length);
+        out.write(record);
+        added.add(entry);
+        addedWords.add(words);
+      }
+      if (added.isEmpty()) return;
+
+      myDir.mkdirs();
+      FileOutputStream log = new FileOutputStream(getLogFile(), true);
+      try {
+        log.write(bytes.toByteArray());
+      }
+      finally {
+        log.close();
+      }
+      myLogLength += bytes.size();
+    }
+    catch (IOException e) {
+      LOG.info("Unable to update search index, searching without it", e);
+      markStale();
+      try {
+        truncate(getLogFile(), myLogLength);
+      }
+      catch (IOException e1) {
+        // index everything again in the catch-up
+        clearData();
+        getLogFile().delete();
+      }
+      return;
+    }
+
+    for (int i = 0; i < added.size(); i++) {
+      HistoryJournal.Entry entry = added.get(i);
+      long when = entry.myMessage != null ? entry.myMessage.getWhen().getTime() : 0;
+      addDocument(entry.myDayName, entry.myOffset, entry.myEnd, entry.myUserKey, when, addedWords.get(i));
+    }
+  }
+
+  private static byte[] createRecord(HistoryJournal.Entry entry, long when, Collection<String> words) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(entry.myDayName);
+    out.writeLong(entry.myOffset);
+    out.writeLong(entry.myEnd);
+    out.writeUTF(entry.myUserKey);
+    out.writeLong(when);
+    out.writeInt(words.size());
+    for (String word : words) {
+      out.writeUTF(word);
+    }
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private void addDocument(String dayName, long offset, long end, String userKey, long when, Collection<String> words) {
+    int doc = myDocDays.size();
+    myDocDays.add(getId(dayName, myDayNames, myDayIds));
+    myDocUsers.add(getId(userKey, myUserKeys, myUserIds));
+    myDocWhen.add(when);
+    myDocOffsets.add(offset);
+    if (end > myIndexedLengths.get(dayName)) {
+      myIndexedLengths.put(dayName, end);
+    }
+
+    for (String word : words) {
+      TIntArrayList docs = myPostings.get(word);
+      if (docs == null) {
+        docs = new TIntArrayList(1);
+        myPostings.put(word, docs);
+      }
+      docs.add(doc);
+    }
+  }
+
+  private static int getId(String key, List<String> keys, TObjectIntHashMap<String> ids) {
+    if (ids.containsKey(key)) {
+      return ids.get(key);
+    }
+    int id = keys.size();
+    keys.add(key);
+    ids.put(key, id);
+    return id;
+  }
+
+  /**
+   * Finds documents of the user containing all words of the query, words starting with each of its prefixes and fitting
+   * its date range. Phrases are not checked, the caller checks them on the found messages.
+   *
+   * @return found documents, the newest first
+   */
+  synchronized int[] search(String userKey, HistoryQuery query) {
+    load();
+    if (!myUserIds.containsKey(userKey)) return new int[0];
+    int user = myUserIds.get(userKey);
+
+    TIntArrayList candidates = null;
+    List<TIntArrayList> postings = new ArrayList<TIntArrayList>();
+    for (String word : query.getWords()) {
+      TIntArrayList docs = myPostings.get(word);
+      if (docs == null) return new int[0];
+      postings.add(docs);
+    }
+    for (String prefix : query.getPrefixes()) {
+      TIntArrayList docs = getPrefixPostings(prefix);
+      if (docs.isEmpty()) return new int[0];
+      postings.add(docs);
+    }
+    Collections.sort(postings, new Comparator<TIntArrayList>() {
+      public int compare(TIntArrayList o1, TIntArrayList o2) {
+        return o1.size() - o2.size();
+      }
+    });
+    for (TIntArrayList docs : postings) {
+      candidates = candidates == null ? docs : intersect(candidates, docs);
+      if (candidates.isEmpty()) return new int[0];
+    }
+
+    TIntArrayList found = new TIntArrayList();
+    int count = candidates != null ? candidates.size() : myDocUsers.size();
+    for (int i = 0; i < count; i++) {
+      int doc = candidates != null ? candidates.get(i) : i;
+      if (myDocUsers.get(doc) == user && query.matchesDate(myDocWhen.get(doc))) {
+        found.add(doc);
+      }
+    }
+
+    Integer[] sorted = new Integer[found.size()];
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] = found.get(i);
+    }
+    Arrays.sort(sorted, new Comparator<Integer>() {
+      public int compare(Integer o1, Integer o2) {
+        long when1 = myDocWhen.get(o1);
+        long when2 = myDocWhen.get(o2);
+        return when1 > when2 ? -1 : when1 == when2 ? o2 - o1 : 1;
+      }
+    });
+    int[] result = new int[sorted.length];
+    for (int i = 0; i < sorted.length; i++) {
+      result[i] = sorted[i];
+    }
+    return result;
+  }
+
+  /**
+   * @return ascending documents containing words starting with the prefix
+   */
+  private TIntArrayList getPrefixPostings(String prefix) {
+    Collection<TIntArrayList> postings = myPostings.subMap(prefix, prefix + Character.MAX_VALUE).values();
+    if (postings.size() <= 1) {
+      return postings.isEmpty() ? new TIntArrayList() : postings.iterator().next();
+    }
+
+    // a short prefix may match thousands of words, mark their documents instead of merging the lists one by one
+    BitSet docs = new BitSet(myDocUsers.size());
+    for (TIntArrayList wordDocs : postings) {
+      for (int i = 0; i < wordDocs.size(); i++) {
+        docs.set(wordDocs.get(i));
+      }
+    }
+    TIntArrayList result = new TIntArrayList(docs.cardinality());
+    for (int doc = docs.nextSetBit(0); doc >= 0; doc = docs.nextSetBit(doc + 1)) {
+      result.add(doc);
+    }
+    return result;
+  }
+
+  private static TIntArrayList intersect(TIntArrayList docs1, TIntArrayList docs2) {
+    TIntArrayList result = new TIntArrayList();
+    int i = 0;
+    int j = 0;
+    while (i < docs1.size() && j < docs2.size()) {
+      int doc1 = docs1.get(i);
+      int doc2 = docs2.get(j);
+      if (doc1 == doc2) {
+        result.add(doc1);
+        i++;
+        j++;
+      }
+      else if (doc1 < doc2) {
+        i++;
+      }
+      else {
+        j++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return journal positions of the documents, or <code>null</code> if the index was cleared after the search
+   */
+  @Nullable
+  synchronized List<Hit> getHits(int generation, int[] docs, int from, int to) {
+    if (generation != myGeneration) return null;
+
+    List<Hit> result = new ArrayList<Hit>(to - from);
+    for (int i = from; i < to; i++) {
+      int doc = docs[i];
+      HistoryJournal.IndexEntry entry =
+        new HistoryJournal.IndexEntry(myUserKeys.get(myDocUsers.get(doc)), myDocOffsets.get(doc), myDocWhen.get(doc));
+      result.add(new Hit(myDayNames.get(myDocDays.get(doc)), entry));
+    }
+    return result;
+  }
+
+  synchronized void clear() {
+    clearData();
+    myGeneration++;
+    myLoaded = true;
+    myUpToDate = true;
+
+    File[] files = myDir.listFiles();
+    if (files == null) return;
+    for (File file : files) {
+      file.delete();
+    }
+  }
+
+  private void clearData() {
+    myLogLength = 0;
+    myDayNames.clear();
+    myDayIds.clear();
+    myUserKeys.clear();
+    myUserIds.clear();
+    myIndexedLengths.clear();
+    myDocDays.clear();
+    myDocUsers.clear();
+    myDocWhen.clear();
+    myDocOffsets.clear();
+    myPostings.clear();
+  }
+
+  private static void truncate(File file, long length) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      randomAccessFile.setLength(length);
+    }
+    finally {
+      randomAccessFile.close();
+    }
+  }
+
+  private File getLogFile() {
+    return new File(myDir, POSTINGS);
+  }
+}
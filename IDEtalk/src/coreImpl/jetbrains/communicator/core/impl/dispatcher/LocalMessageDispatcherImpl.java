@@ -19,6 +19,8 @@ import jetbrains.communicator.core.EventBroadcaster;
 import jetbrains.communicator.core.EventVisitor;
 import jetbrains.communicator.core.IDEtalkAdapter;
 import jetbrains.communicator.core.IDEtalkEvent;
+import jetbrains.communicator.core.dispatcher.HistoryPager;
+import jetbrains.communicator.core.dispatcher.HistoryQuery;
 import jetbrains.communicator.core.dispatcher.LocalMessage;
 import jetbrains.communicator.core.dispatcher.LocalMessageDispatcher;
 import jetbrains.communicator.core.dispatcher.Message;
@@ -114,6 +116,16 @@ public class LocalMessageDispatcherImpl extends AbstractMessageDispatcher implem
     return myHistory.getHistory(user, since);
   }
 
+  @Override
+  public HistoryPager getHistoryPager(User user) {
+    return myHistory.getHistoryPager(user);
+  }
+
+  @Override
+  public HistoryPager findInHistory(User user, HistoryQuery query) {
+    return myHistory.findInHistory(user, query);
+  }
+
   @Override
   public void clearHistory() {
     myHistory.clear();
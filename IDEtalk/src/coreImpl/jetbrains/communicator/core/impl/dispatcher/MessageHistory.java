@@ -16,6 +16,8 @@
 package jetbrains.communicator.core.impl.dispatcher;
 
 import com.thoughtworks.xstream.XStream;
+import jetbrains.communicator.core.dispatcher.HistoryPager;
+import jetbrains.communicator.core.dispatcher.HistoryQuery;
 import jetbrains.communicator.core.dispatcher.LocalMessage;
 import jetbrains.communicator.core.impl.users.UserImpl;
 import jetbrains.communicator.core.users.User;
@@ -28,10 +30,10 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
-import java.io.FilenameFilter;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 import java.util.concurrent.Future;
 
 /**
@@ -44,17 +46,24 @@ class MessageHistory {
   public static final long SAVE_TIMEOUT = 300;
   @NonNls
   private static final String HISTORY = "history";
+  @NonNls
+  private static final String HISTORY_INDEX = "historyIndex";
+  @NonNls
+  private static final String HISTORY_SEARCH = "historySearch";
 
   private final DayHistory myHistory = new DayHistory();
   @NonNls
   private final XStream myXStream;
   private final UserModel myUserModel;
   private final IDEFacade myFacade;
+  private final HistoryJournal myJournal;
+  private final HistorySearchIndex mySearchIndex;
 
+  /** Messages added since the last save, in order of addition */
+  private List<HistoryJournal.Entry> myUnsavedEntries = new ArrayList<HistoryJournal.Entry>();
   private Future<?> myPendingSave;
-
-  @NonNls
-  private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
+  private Future<?> mySearchIndexUpdate;
+  private boolean myDisposed;
 
   MessageHistory(IDEFacade facade, UserModel userModel) {
     myFacade = facade;
@@ -63,47 +72,48 @@ class MessageHistory {
     getHistoryDir().mkdir();
 
     myXStream = XMLUtil.createXStream();
-    setupXStream();
+    UserConverter userConverter = new UserConverter(myUserModel);
+    setupXStream(userConverter);
+
+    myJournal = new HistoryJournal(getHistoryDir(), new File(myFacade.getCacheDir(), HISTORY_INDEX), myXStream, userConverter);
+    myJournal.migrateXmlDayFiles();
+    mySearchIndex = new HistorySearchIndex(new File(myFacade.getCacheDir(), HISTORY_SEARCH));
 
     loadHistorySince(new Date());
+    updateSearchIndex();
   }
 
   public synchronized void dispose() {
+    myDisposed = true;
     if (myPendingSave != null) {
       myPendingSave.cancel(true);
       myPendingSave = null;
     }
+    saveHistory();
 
     myHistory.clear();
   }
 
-  private void setupXStream() {
+  private void setupXStream(UserConverter userConverter) {
     myXStream.alias("user", UserImpl.class);
     myXStream.alias("dayHistory", DayHistory.class);
     myXStream.aliasField("historyEntries", DayHistory.class, "myData");
 
-    myXStream.registerConverter(new UserConverter(myUserModel));
+    myXStream.registerConverter(userConverter);
   }
 
   public synchronized void addMessage(User user, LocalMessage message) {
     myHistory.addMessage(user, message);
+    myUnsavedEntries.add(new HistoryJournal.Entry(user, message));
     triggerSave();
   }
 
   public synchronized void clear() {
     myHistory.clear();
+    myUnsavedEntries.clear();
 
-    deleteAllHistoryFiles();
-  }
-
-  private void deleteAllHistoryFiles() {
-    File historyDir = getHistoryDir();
-    Thread thread = Thread.currentThread();
-
-    for (File file : historyDir.listFiles()) {
-      if (thread.isInterrupted()) return;
-      file.delete();
-    }
+    myJournal.deleteAll();
+    mySearchIndex.clear();
   }
 
   private File getHistoryDir() {
@@ -117,6 +127,68 @@ class MessageHistory {
     return list.toArray(new LocalMessage[list.size()]);
   }
 
+  /**
+   * Reads the history of the user straight from the journals, without loading the history of other users into memory.
+   */
+  public synchronized HistoryPager getHistoryPager(User user) {
+    saveHistory();
+    return new UserHistoryPager(user, myJournal.getDays(user));
+  }
+
+  /**
+   * Finds messages with the search index. Until the index is loaded and brought up to date with the journals,
+   * the history of the user is scanned instead.
+   */
+  public synchronized HistoryPager findInHistory(User user, HistoryQuery query) {
+    saveHistory();
+    if (!mySearchIndex.isUpToDate()) {
+      updateSearchIndex();
+      return new ScanningPager(new UserHistoryPager(user, myJournal.getDays(user)), query);
+    }
+
+    int generation = mySearchIndex.getGeneration();
+    return new SearchResultsPager(mySearchIndex.search(myJournal.getUserKey(user), query), generation, query);
+  }
+
+  boolean isSearchIndexUpToDate() {
+    return mySearchIndex.isUpToDate();
+  }
+
+  private synchronized void updateSearchIndex() {
+    if (mySearchIndexUpdate == null || mySearchIndexUpdate.isDone()) {
+      mySearchIndexUpdate = myFacade.runOnPooledThread(new Runnable() {
+        public void run() {
+          doUpdateSearchIndex();
+        }
+      });
+    }
+  }
+
+  /**
+   * Loads the search index and indexes the journal records missing from it, a day at a time.
+   */
+  private void doUpdateSearchIndex() {
+    LOG.debug("Start search index update");
+    mySearchIndex.load();
+
+    int staleMarks = mySearchIndex.getStaleMarks();
+    List<Date> days;
+    synchronized (this) {
+      if (myDisposed) return;
+      days = myJournal.getDays();
+    }
+    for (Date day : days) {
+      synchronized (this) {
+        if (myDisposed || Thread.currentThread().isInterrupted()) return;
+        String dayName = myJournal.getDayName(day);
+        mySearchIndex.add(myJournal.readEntries(dayName, mySearchIndex.getIndexedLength(dayName)));
+      }
+    }
+
+    mySearchIndex.setUpToDate(staleMarks);
+    LOG.debug("Done search index update");
+  }
+
   private List<LocalMessage> filterHistoryByDate(User user, Date since) {
     List<LocalMessage> list = myHistory.readMessages(user);
     if (since != null) {
@@ -148,31 +220,11 @@ class MessageHistory {
   }
 
   private void doLoadHistorySince(Date since) {
-    File historyDir = getHistoryDir();
-
-    String[] historyFiles = historyDir.list(new FilenameFilter() {
-      public boolean accept(File dir, String name) {
-        return name.endsWith(".xml");
-      }
-    });
-
-    Arrays.sort(historyFiles);
-    for (int i = historyFiles.length - 1; i >= 0; i--) {
-      String historyFile = historyFiles[i];
-      try {
-        Date date = DATE_FORMAT.parse(historyFile);
-        if (!date.before(since) && !myHistory.hasHistorySince(date)) {
-          DayHistory dayHistory = (DayHistory)XMLUtil.fromXml(myXStream, myFacade.getCacheDir(), getFileNameForDate(date), false);
-          if (dayHistory != null) {
-            dayHistory.copyTo(myHistory);
-          }
-        }
-      }
-      catch (ParseException e) {
-        // ignore file of wrong format
-      }
-      catch (NumberFormatException e) {
-        // ignore file of wrong format
+    List<Date> days = myJournal.getDays();
+    for (int i = days.size() - 1; i >= 0; i--) {
+      Date date = days.get(i);
+      if (!date.before(since) && !myHistory.hasHistorySince(date)) {
+        myJournal.readDay(date, myHistory);
       }
     }
 
@@ -197,50 +249,135 @@ class MessageHistory {
     }
   }
 
-  private synchronized void saveHistory() {
+  /**
+   * Appends the messages added since the previous save to the journals of their days.
+   */
+  synchronized void saveHistory() {
+    if (myUnsavedEntries.isEmpty()) return;
+
     LOG.debug("Start history save");
-    Map<Date, DayHistory> map = getHistory();
-    for (Date date : map.keySet()) {
-      DayHistory dayHistory = map.get(date);
-      try {
-        XMLUtil.toXml(myXStream, myFacade.getCacheDir(), getFileNameForDate(date), dayHistory);
-      } catch (RuntimeException e) {
-        LOG.error("Unable to save dayHistory for " + date + ": " + dayHistory, e);
+    List<HistoryJournal.Entry> entries = myUnsavedEntries;
+    myUnsavedEntries = new ArrayList<HistoryJournal.Entry>();
+    try {
+      List<HistoryJournal.Entry> failed = myJournal.append(entries);
+      if (!failed.isEmpty()) {
+        // keep them for the next save, before the messages added since
+        myUnsavedEntries.addAll(0, failed);
+        entries.removeAll(failed);
       }
+      mySearchIndex.add(entries);
+    } catch (RuntimeException e) {
+      LOG.error("Unable to save history: " + entries.size() + " messages", e);
     }
 
     LOG.debug("Done history save");
   }
 
-  private synchronized Map<Date, DayHistory> getHistory() {
-    Map<Date, DayHistory> result = new HashMap<Date, DayHistory>();
+  private class UserHistoryPager implements HistoryPager {
+    private final User myUser;
+    /** Days not read yet, the oldest first */
+    private final List<Date> myDays;
+    private Date myDay;
+    /** Entries of the current day not read yet, the oldest first */
+    private List<HistoryJournal.IndexEntry> myDayEntries = new ArrayList<HistoryJournal.IndexEntry>();
+
+    UserHistoryPager(User user, List<Date> days) {
+      myUser = user;
+      myDays = days;
+    }
 
-    for (User user : myHistory.keySet()) {
-      List<LocalMessage> messages = myHistory.get(user);
-      for (LocalMessage message : messages) {
-        DayHistory dayHistory = getDayHistoryFor(message, result);
+    public LocalMessage[] readOlder(int maxCount) {
+      List<LocalMessage> result = new ArrayList<LocalMessage>();
+      synchronized (MessageHistory.this) {
+        while (result.size() < maxCount) {
+          if (myDayEntries.isEmpty()) {
+            if (myDays.isEmpty()) break;
+            myDay = myDays.remove(myDays.size() - 1);
+            myDayEntries = myJournal.readIndex(myDay, myUser);
+            continue;
+          }
 
-        dayHistory.addMessage(user, message);
+          int from = Math.max(0, myDayEntries.size() - (maxCount - result.size()));
+          List<HistoryJournal.IndexEntry> page = myDayEntries.subList(from, myDayEntries.size());
+          List<LocalMessage> messages = myJournal.readMessages(myDay, page);
+          Collections.reverse(messages);
+          result.addAll(messages);
+          page.clear();
+        }
       }
+      return result.toArray(new LocalMessage[result.size()]);
     }
-
-    return result;
   }
 
-  private DayHistory getDayHistoryFor(LocalMessage message, Map<Date, DayHistory> result) {
-    Date day = TimeUtil.getDay(message.getWhen());
-    DayHistory dayHistory = result.get(day);
-    if (dayHistory == null) {
-      dayHistory = new DayHistory();
-      result.put(day, dayHistory);
+  private class SearchResultsPager implements HistoryPager {
+    /** Found documents of the search index, the newest first */
+    private final int[] myDocs;
+    private final int myGeneration;
+    private final HistoryQuery myQuery;
+    private int myPosition;
+
+    SearchResultsPager(int[] docs, int generation, HistoryQuery query) {
+      myDocs = docs;
+      myGeneration = generation;
+      myQuery = query;
+    }
+
+    public LocalMessage[] readOlder(int maxCount) {
+      List<LocalMessage> result = new ArrayList<LocalMessage>();
+      while (result.size() < maxCount && myPosition < myDocs.length) {
+        int to = Math.min(myDocs.length, myPosition + maxCount - result.size());
+        List<HistorySearchIndex.Hit> hits = mySearchIndex.getHits(myGeneration, myDocs, myPosition, to);
+        myPosition = hits != null ? to : myDocs.length;
+        if (hits == null) break;
+
+        synchronized (MessageHistory.this) {
+          int i = 0;
+          while (i < hits.size()) {
+            String dayName = hits.get(i).myDayName;
+            List<HistoryJournal.IndexEntry> entries = new ArrayList<HistoryJournal.IndexEntry>();
+            while (i < hits.size() && hits.get(i).myDayName.equals(dayName)) {
+              entries.add(hits.get(i++).myEntry);
+            }
+
+            // the index has no word positions, phrases are checked here
+            for (LocalMessage message : myJournal.readMessages(dayName, entries)) {
+              if (myQuery.matches(message)) {
+                result.add(message);
+              }
+            }
+          }
+        }
+      }
+      return result.toArray(new LocalMessage[result.size()]);
     }
-    return dayHistory;
   }
 
-  @NonNls
-  private String getFileNameForDate(Date date) {
-    //noinspection HardCodedStringLiteral
-    return HISTORY + '/' + DATE_FORMAT.format(date) + ".xml";
+  private static class ScanningPager implements HistoryPager {
+    private final HistoryPager myHistory;
+    private final HistoryQuery myQuery;
+    /** Found messages not returned yet, newest first */
+    private final List<LocalMessage> myFound = new ArrayList<LocalMessage>();
+
+    ScanningPager(HistoryPager history, HistoryQuery query) {
+      myHistory = history;
+      myQuery = query;
+    }
+
+    public LocalMessage[] readOlder(int maxCount) {
+      LocalMessage[] page;
+      while (myFound.size() < maxCount && (page = myHistory.readOlder(maxCount)).length > 0) {
+        for (LocalMessage message : page) {
+          if (myQuery.matches(message)) {
+            myFound.add(message);
+          }
+        }
+      }
+
+      List<LocalMessage> result = myFound.subList(0, Math.min(maxCount, myFound.size()));
+      LocalMessage[] messages = result.toArray(new LocalMessage[result.size()]);
+      result.clear();
+      return messages;
+    }
   }
 
   public boolean isEmpty() {
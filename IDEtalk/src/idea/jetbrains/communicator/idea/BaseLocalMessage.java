@@ -21,7 +21,6 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.project.ProjectManager;
 import jetbrains.communicator.core.dispatcher.LocalMessage;
 import jetbrains.communicator.core.users.User;
-import jetbrains.communicator.util.StringUtil;
 import jetbrains.communicator.util.UIUtil;
 import jetbrains.communicator.util.icons.EmptyIcon;
 
@@ -50,8 +49,8 @@ public abstract class BaseLocalMessage implements LocalMessage {
     return myWhen;
   }
 
-  public boolean containsString(String searchString) {
-    return StringUtil.containedIn(myComment, searchString);
+  public String getSearchableText() {
+    return myComment != null ? myComment : "";
   }
 
   protected abstract Icon getIcon();
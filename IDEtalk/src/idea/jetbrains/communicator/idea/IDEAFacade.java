@@ -43,6 +43,7 @@ import com.intellij.xml.util.XmlStringUtil;
 import jetbrains.communicator.commands.FindUsersCommand;
 import jetbrains.communicator.commands.SendMessageInvoker;
 import jetbrains.communicator.core.EventVisitor;
+import jetbrains.communicator.core.dispatcher.HistoryPager;
 import jetbrains.communicator.core.dispatcher.LocalMessage;
 import jetbrains.communicator.core.transport.CodePointerEvent;
 import jetbrains.communicator.core.transport.MessageEvent;
@@ -204,10 +205,10 @@ public class IDEAFacade implements IDEFacade {
   }
 
   @Override
-  public void showSearchHistoryResults(List<LocalMessage> foundMessages, User user) {
+  public void showSearchHistoryResults(List<LocalMessage> foundMessages, HistoryPager moreMessages, User user) {
     Project project = getProject(null);
     assert project != null;
-    new ShowHistoryDialog(project, foundMessages, user).show();
+    new ShowHistoryDialog(project, foundMessages, moreMessages, user).show();
   }
 
   @Override
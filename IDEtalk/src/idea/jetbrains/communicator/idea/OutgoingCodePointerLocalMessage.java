@@ -36,8 +36,8 @@ public class OutgoingCodePointerLocalMessage extends BaseOutgoingLocalMessage {
     myEvent = event;
   }
 
-  public boolean containsString(String searchString) {
-    return super.containsString(searchString) || myEvent.getFile().containsSearchString(searchString);
+  public String getSearchableText() {
+    return super.getSearchableText() + '\n' + myEvent.getFile().getSearchableText();
   }
 
   public ConsoleMessage createConsoleMessage(User user) {
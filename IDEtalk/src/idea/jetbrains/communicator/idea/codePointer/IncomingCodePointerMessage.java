@@ -67,8 +67,8 @@ public class IncomingCodePointerMessage extends BaseIncomingLocalMessage {
     myFacade = facade;
   }
 
-  public boolean containsString(String searchString) {
-    return super.containsString(searchString) || myRemoteFile.containsSearchString(searchString);
+  public String getSearchableText() {
+    return super.getSearchableText() + '\n' + myRemoteFile.getSearchableText();
   }
 
   protected Icon getIcon() {
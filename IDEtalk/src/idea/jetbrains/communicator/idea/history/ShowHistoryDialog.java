@@ -23,9 +23,11 @@ import com.intellij.execution.ui.ConsoleViewContentType;
 import com.intellij.openapi.actionSystem.CommonDataKeys;
 import com.intellij.openapi.actionSystem.DataProvider;
 import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.ui.components.panels.NonOpaquePanel;
 import com.intellij.util.text.DateFormatUtil;
+import jetbrains.communicator.core.dispatcher.HistoryPager;
 import jetbrains.communicator.core.dispatcher.LocalMessage;
 import jetbrains.communicator.core.users.User;
 import jetbrains.communicator.idea.BaseLocalMessage;
@@ -40,19 +42,33 @@ import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
 /**
+ * Shows messages newest first. Older messages are read from the pager a page at a time, when the console
+ * is scrolled close to its end.
+ *
  * @author Kir
  */
 public class ShowHistoryDialog extends IdeaDialog {
+  private static final int PAGE_SIZE = 100;
+
   private final ConsoleView myConsole;
   private final User myUser;
   private final List<LocalMessage> myFoundMessages;
+  private final HistoryPager myMoreMessages;
   private final Project myProject;
 
-  public ShowHistoryDialog(Project project, List<LocalMessage> foundMessages, User user) {
+  private Date myDay;
+  private boolean myLoading;
+  private boolean myHasMore = true;
+  private boolean myDisposed;
+
+  public ShowHistoryDialog(Project project, List<LocalMessage> foundMessages, HistoryPager moreMessages, User user) {
     super(project, true);
     setModal(false);
 
@@ -65,6 +81,7 @@ public class ShowHistoryDialog extends IdeaDialog {
 
     myUser = user;
     myFoundMessages = foundMessages;
+    myMoreMessages = moreMessages;
     myProject = project;
 
     init();
@@ -72,16 +89,16 @@ public class ShowHistoryDialog extends IdeaDialog {
     UIUtil.runWhenShown(myConsole.getComponent(), new Runnable() {
       @Override
       public void run() {
-        outputMessages();
+        outputMessages(myFoundMessages);
+        listenToScrolling();
       }
     });
   }
 
-  private void outputMessages() {
-    Date day = null;
-    for (LocalMessage message : myFoundMessages) {
+  private void outputMessages(List<LocalMessage> messages) {
+    for (LocalMessage message : messages) {
 
-      day = printDaySeparatorIfNeeded(message, day);
+      myDay = printDaySeparatorIfNeeded(message, myDay);
 
       BaseLocalMessage localMessage = ((BaseLocalMessage) message);
       ConsoleUtil.outputMessage(localMessage.createConsoleMessage(myUser), myProject, myConsole);
@@ -89,6 +106,44 @@ public class ShowHistoryDialog extends IdeaDialog {
 
   }
 
+  private void listenToScrolling() {
+    JScrollPane scrollPane = com.intellij.util.ui.UIUtil.findComponentOfType(myConsole.getComponent(), JScrollPane.class);
+    if (scrollPane == null) return;
+
+    final JScrollBar scrollBar = scrollPane.getVerticalScrollBar();
+    scrollBar.addAdjustmentListener(new AdjustmentListener() {
+      @Override
+      public void adjustmentValueChanged(AdjustmentEvent e) {
+        // the model changes when a page is printed too, so pages are read until the console is filled
+        if (scrollBar.getValue() + scrollBar.getVisibleAmount() * 2 >= scrollBar.getMaximum()) {
+          loadOlderMessages();
+        }
+      }
+    });
+  }
+
+  private void loadOlderMessages() {
+    if (myLoading || !myHasMore || myDisposed) return;
+
+    myLoading = true;
+    ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+      @Override
+      public void run() {
+        final LocalMessage[] messages = myMoreMessages.readOlder(PAGE_SIZE);
+        UIUtil.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            myLoading = false;
+            myHasMore = messages.length > 0;
+            if (!myDisposed) {
+              outputMessages(Arrays.asList(messages));
+            }
+          }
+        });
+      }
+    });
+  }
+
   private Date printDaySeparatorIfNeeded(LocalMessage message, Date day) {
     final Date date = TimeUtil.getDay(message.getWhen());
 
@@ -121,6 +176,7 @@ public class ShowHistoryDialog extends IdeaDialog {
 
   @Override
   protected void dispose() {
+    myDisposed = true;
     myConsole.dispose();
     super.dispose();
   }
@@ -36,8 +36,8 @@ public class IncomingStacktraceMessage extends BaseIncomingLocalMessage {
   }
 
   @Override
-  public boolean containsString(String searchString) {
-    return super.containsString(searchString) || StringUtil.containedIn(myStacktrace, searchString);
+  public String getSearchableText() {
+    return myStacktrace != null ? super.getSearchableText() + '\n' + myStacktrace : super.getSearchableText();
   }
 
   @Override
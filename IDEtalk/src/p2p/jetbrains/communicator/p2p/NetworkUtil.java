@@ -19,7 +19,6 @@ import jetbrains.communicator.core.Pico;
 import jetbrains.communicator.util.TimeoutCachedValue;
 import jetbrains.communicator.util.XmlRpcTarget;
 import org.apache.log4j.Logger;
-import org.apache.xmlrpc.XmlRpcClient;
 import org.apache.xmlrpc.XmlRpcException;
 import org.jetbrains.annotations.Nullable;
 
@@ -59,6 +58,8 @@ public class NetworkUtil {
     }
   };
 
+  private static final XmlRpcClientPool ourClients = new XmlRpcClientPool();
+
   private NetworkUtil() {
   }
 
@@ -73,7 +74,7 @@ public class NetworkUtil {
   private static Object sendMessage(XmlRpcTarget target, String xmlRpcId, String method, List<Object> parameters) {
     checkParameters(parameters, method);
 
-    String url = "http://" + target.getAddress().getHostAddress() + ':' + target.getPort() + "/rpc2";
+    String url = XmlRpcClientPool.getUrl(target);
     String fullMethodName = xmlRpcId + '.' + method;
 
     String logLine = "Call [" + url + "] " + fullMethodName;
@@ -86,12 +87,13 @@ public class NetworkUtil {
     }
 
     try {
-      return new XmlRpcClient(url).execute(fullMethodName, new Vector<Object>(parameters));
+      return ourClients.getClient(target).execute(fullMethodName, new Vector<Object>(parameters));
     }
     catch (MalformedURLException e) {
       LOG.info(buildFullLogLine(logLine, parameters) + ' ' + e.getLocalizedMessage());
     }
     catch (IOException e) {
+      ourClients.closeIdleConnections(target);
       LOG.info(buildFullLogLine(logLine, parameters) + ' ' + e.getLocalizedMessage());
     }
     catch (XmlRpcException e) {
@@ -100,6 +102,13 @@ public class NetworkUtil {
     return null;
   }
 
+  /**
+   * Closes kept-alive connections to peers which are not used at the moment.
+   */
+  static void closeIdleConnections() {
+    ourClients.closeIdleConnections();
+  }
+
   private static String buildFullLogLine(String logLine, List<?> parameters) {
     return logLine + '(' + parameters + ')';
   }
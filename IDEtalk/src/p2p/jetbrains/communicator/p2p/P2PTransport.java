@@ -196,6 +196,7 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
     try {
       myEventBroadcaster.removeListener(myUserAddedCallbackListener);
       myUserMonitorThread.shutdown();
+      NetworkUtil.closeIdleConnections();
     }
     catch (Throwable e) {
       LOG.info(e);
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.Time;
+import gnu.trove.THashMap;
+import jetbrains.communicator.util.XmlRpcTarget;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.log4j.Logger;
+import org.apache.xmlrpc.CommonsXmlRpcTransport;
+import org.apache.xmlrpc.XmlRpcClient;
+import org.apache.xmlrpc.XmlRpcTransport;
+import org.apache.xmlrpc.XmlRpcTransportFactory;
+import org.jetbrains.annotations.NonNls;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps an XML-RPC client per peer. Requests to a peer share its keep-alive HTTP connections, so consecutive
+ * messages, pings and file requests don't reconnect, and up to <code>maxConnectionsPerPeer</code> requests
+ * to the same peer may be in flight at once. Connections unused for {@link #IDLE_TIMEOUT} are closed.
+ */
+class XmlRpcClientPool {
+  private static final Logger LOG = Logger.getLogger(XmlRpcClientPool.class);
+
+  @NonNls static final String CONNECT_TIMEOUT_PROPERTY = "ideTalk.p2p.connectTimeout";
+  @NonNls static final String READ_TIMEOUT_PROPERTY = "ideTalk.p2p.readTimeout";
+  @NonNls static final String MAX_CONNECTIONS_PROPERTY = "ideTalk.p2p.maxConnectionsPerPeer";
+
+  static final int CONNECT_TIMEOUT = 2 * Time.SECOND;
+  static final int READ_TIMEOUT = 30 * Time.SECOND;
+  static final int MAX_CONNECTIONS_PER_PEER = 4;
+  static final long IDLE_TIMEOUT = Time.MINUTE;
+
+  private final int myConnectTimeout;
+  private final int myReadTimeout;
+  private final int myMaxConnectionsPerPeer;
+
+  private final Map<String, Peer> myPeers = new THashMap<String, Peer>();
+  private long myLastCleanup = System.currentTimeMillis();
+
+  XmlRpcClientPool() {
+    this(getIntProperty(CONNECT_TIMEOUT_PROPERTY, CONNECT_TIMEOUT),
+         getIntProperty(READ_TIMEOUT_PROPERTY, READ_TIMEOUT),
+         getIntProperty(MAX_CONNECTIONS_PROPERTY, MAX_CONNECTIONS_PER_PEER));
+  }
+
+  XmlRpcClientPool(int connectTimeout, int readTimeout, int maxConnectionsPerPeer) {
+    assert maxConnectionsPerPeer > 0;
+    myConnectTimeout = connectTimeout;
+    myReadTimeout = readTimeout;
+    myMaxConnectionsPerPeer = maxConnectionsPerPeer;
+  }
+
+  static String getUrl(XmlRpcTarget target) {
+    return "http://" + target.getAddress().getHostAddress() + ':' + target.getPort() + "/rpc2";
+  }
+
+  XmlRpcClient getClient(XmlRpcTarget target) throws MalformedURLException {
+    String url = getUrl(target);
+    List<Peer> expired;
+    Peer peer;
+    synchronized (myPeers) {
+      long now = System.currentTimeMillis();
+      expired = removeExpiredPeers(now);
+
+      peer = myPeers.get(url);
+      if (peer == null) {
+        peer = new Peer(new URL(url));
+        myPeers.put(url, peer);
+      }
+      peer.myLastUsed = now;
+    }
+
+    for (Peer expiredPeer : expired) {
+      expiredPeer.shutdown();
+    }
+    return peer.myClient;
+  }
+
+  /**
+   * Closes idle connections to the target, e.g. after an I/O error, so that next request opens a fresh one.
+   * Requests in flight are not affected.
+   */
+  void closeIdleConnections(XmlRpcTarget target) {
+    Peer peer;
+    synchronized (myPeers) {
+      peer = myPeers.get(getUrl(target));
+    }
+    if (peer != null) {
+      peer.myConnectionManager.closeIdleConnections(0);
+    }
+  }
+
+  void closeIdleConnections() {
+    List<Peer> peers;
+    synchronized (myPeers) {
+      peers = new ArrayList<Peer>(myPeers.values());
+    }
+    for (Peer peer : peers) {
+      peer.myConnectionManager.closeIdleConnections(0);
+    }
+  }
+
+  int getPeersCount() {
+    synchronized (myPeers) {
+      return myPeers.size();
+    }
+  }
+
+  private List<Peer> removeExpiredPeers(long now) {
+    List<Peer> result = new ArrayList<Peer>();
+    if (now - myLastCleanup < IDLE_TIMEOUT) return result;
+    myLastCleanup = now;
+
+    // a request in flight keeps its peer for at least the read timeout
+    long expirationTime = IDLE_TIMEOUT + myReadTimeout;
+    for (Iterator<Peer> it = myPeers.values().iterator(); it.hasNext();) {
+      Peer peer = it.next();
+      if (now - peer.myLastUsed > expirationTime) {
+        it.remove();
+        result.add(peer);
+      }
+      else {
+        peer.myConnectionManager.closeIdleConnections(IDLE_TIMEOUT);
+      }
+    }
+    return result;
+  }
+
+  private static int getIntProperty(String name, int defaultValue) {
+    String value = System.getProperty(name);
+    if (StringUtil.isEmptyOrSpaces(value)) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    }
+    catch (NumberFormatException e) {
+      LOG.warn("Invalid value of " + name + '=' + value + ", using " + defaultValue);
+      return defaultValue;
+    }
+  }
+
+  private class Peer {
+    private final MultiThreadedHttpConnectionManager myConnectionManager = new MultiThreadedHttpConnectionManager();
+    private final XmlRpcClient myClient;
+    private volatile long myLastUsed;
+
+    Peer(final URL url) {
+      HttpConnectionManagerParams params = myConnectionManager.getParams();
+      params.setConnectionTimeout(myConnectTimeout);
+      params.setSoTimeout(myReadTimeout);
+      params.setDefaultMaxConnectionsPerHost(myMaxConnectionsPerPeer);
+      params.setMaxTotalConnections(myMaxConnectionsPerPeer);
+
+      final HttpClient httpClient = new HttpClient(myConnectionManager);
+      // wait for a free connection no longer than a single request to the peer may take
+      httpClient.getParams().setConnectionManagerTimeout(myConnectTimeout + myReadTimeout);
+
+      myClient = new XmlRpcClient(url, new XmlRpcTransportFactory() {
+        @Override
+        public XmlRpcTransport createTransport() {
+          CommonsXmlRpcTransport transport = new CommonsXmlRpcTransport(url, httpClient);
+          // HTTP/1.0 is used by default, and its connections are closed after every request
+          transport.setHttp11(true);
+          return transport;
+        }
+
+        @Override
+        public void setProperty(String propertyName, Object value) {
+        }
+      });
+    }
+
+    void shutdown() {
+      myConnectionManager.shutdown();
+    }
+  }
+}
@@ -16,6 +16,7 @@
 package jetbrains.communicator.commands;
 
 import jetbrains.communicator.LightTestCase;
+import jetbrains.communicator.core.dispatcher.HistoryPager;
 import jetbrains.communicator.core.dispatcher.LocalMessage;
 import jetbrains.communicator.core.dispatcher.LocalMessageDispatcher;
 import jetbrains.communicator.core.impl.users.UserImpl;
@@ -25,10 +26,13 @@ import jetbrains.communicator.mock.MockMessage;
 import jetbrains.communicator.mock.MockTransport;
 import jetbrains.communicator.util.StringUtil;
 import org.jmock.Mock;
+import org.jmock.core.Invocation;
+import org.jmock.core.stub.CustomStub;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 /**
  * @author Kir
@@ -75,7 +79,7 @@ public class SearchHistoryCommandTest extends LightTestCase {
   public void testSearchHistory_NoResults() throws Exception {
     query("");
 
-    myDispatcherMock.expects(once()).method("getHistory").with(eq(myUser), eq(null)).will(returnValue(new LocalMessage[0]));
+    myDispatcherMock.expects(once()).method("findInHistory").with(eq(myUser), ANYTHING).will(returnValue(createPager()));
 
     myIdeMock.expects(once()).method("showMessage").with(
         eq(StringUtil.getMsg("SearchHistoryCommand.search.history", myUser.getDisplayName())),
@@ -86,22 +90,67 @@ public class SearchHistoryCommandTest extends LightTestCase {
   }
 
   public void testSearchHistory_WithResult() throws Exception {
-    MockMessage m1 = new MockMessage(new Date(), "some text1");
     MockMessage m2 = new MockMessage(new Date(), "some text2");
     MockMessage m3 = new MockMessage(new Date(), "some text2 ataing");
 
     query("text2");
-    myDispatcherMock.expects(once()).method("getHistory").with(eq(myUser), eq(null)).will(
-        returnValue(new LocalMessage[]{m1, m2, m3}));
+    myDispatcherMock.expects(once()).method("findInHistory").with(eq(myUser), ANYTHING).will(
+        returnValue(createPager(m3, m2)));
 
     myIdeMock.expects(once()).method("showSearchHistoryResults").with(
-        eq(new ArrayList<LocalMessage>(Arrays.asList(m2, m3))),
+        eq(new ArrayList<LocalMessage>(Arrays.asList(m3, m2))),
+        ANYTHING,
         eq(myUser)
     );
 
     myCommand.execute();
   }
 
+  public void testSearchHistory_Paging() throws Exception {
+    LocalMessage[] messages = new LocalMessage[SearchHistoryCommand.PAGE_SIZE * 3 / 2];
+    for (int i = 0; i < messages.length; i++) {
+      messages[i] = new MockMessage(new Date(), "message " + i);
+    }
+
+    query("message");
+    myDispatcherMock.expects(once()).method("findInHistory").with(eq(myUser), ANYTHING).will(returnValue(createPager(messages)));
+
+    myIdeMock.expects(once()).method("showSearchHistoryResults").will(new CustomStub("Check paged results") {
+      @Override
+      @SuppressWarnings({"unchecked"})
+      public Object invoke(Invocation invocation) throws Throwable {
+        List<LocalMessage> firstPage = (List<LocalMessage>)invocation.parameterValues.get(0);
+        HistoryPager moreMessages = (HistoryPager)invocation.parameterValues.get(1);
+
+        assertEquals(SearchHistoryCommand.PAGE_SIZE, firstPage.size());
+        assertEquals("message 0", ((MockMessage)firstPage.get(0)).getMessage());
+        LocalMessage[] secondPage = moreMessages.readOlder(SearchHistoryCommand.PAGE_SIZE);
+        assertEquals(SearchHistoryCommand.PAGE_SIZE / 2, secondPage.length);
+        assertEquals("message " + SearchHistoryCommand.PAGE_SIZE, ((MockMessage)secondPage[0]).getMessage());
+        assertEquals(0, moreMessages.readOlder(SearchHistoryCommand.PAGE_SIZE).length);
+
+        return null;
+      }
+    });
+
+    myCommand.execute();
+  }
+
+  /** Returns the messages, newest first, in pages of requested size */
+  private static HistoryPager createPager(final LocalMessage... messages) {
+    return new HistoryPager() {
+      private int myPosition;
+
+      public LocalMessage[] readOlder(int maxCount) {
+        int count = Math.min(maxCount, messages.length - myPosition);
+        LocalMessage[] result = new LocalMessage[count];
+        System.arraycopy(messages, myPosition, result, 0, count);
+        myPosition += count;
+        return result;
+      }
+    };
+  }
+
   private void query(String s) {
     myIdeMock.expects(once()).method("getMessage").with(
         eq(StringUtil.getMsg("SearchHistoryCommand.enter.query.string")),
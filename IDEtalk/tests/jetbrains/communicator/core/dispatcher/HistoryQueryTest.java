@@ -0,0 +1,69 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.dispatcher;
+
+import jetbrains.communicator.mock.MockMessage;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+
+@SuppressWarnings({"HardCodedStringLiteral"})
+public class HistoryQueryTest extends TestCase {
+
+  public void testTokenize() throws Exception {
+    assertEquals(Arrays.asList("hello", "world", "42foo", "bar"), HistoryQuery.tokenize(" Hello, World! 42foo.bar"));
+    assertEquals(Arrays.asList("\u043f\u0440\u0438"), HistoryQuery.tokenize("\u041f\u0440\u0438"));
+    assertEquals(0, HistoryQuery.tokenize(null).size());
+  }
+
+  public void testParse() throws Exception {
+    HistoryQuery query = new HistoryQuery("Build \"is broken\" since:2013-02-03 until:2013-02-05 until:bad");
+
+    assertEquals(Arrays.asList("build", "until", "bad"), new ArrayList<String>(query.getPrefixes()));
+    assertEquals(Arrays.asList("is", "broken"), new ArrayList<String>(query.getWords()));
+    assertEquals(Arrays.asList(Arrays.asList("is", "broken")), query.getPhrases());
+
+    Calendar calendar = Calendar.getInstance();
+    calendar.clear();
+    calendar.set(2013, Calendar.FEBRUARY, 3);
+    assertEquals(calendar.getTime(), query.getSince());
+    calendar.set(2013, Calendar.FEBRUARY, 6);
+    assertEquals("Until day should be included", calendar.getTime(), query.getUntil());
+  }
+
+  public void testMatches() throws Exception {
+    Date now = new Date();
+    assertTrue(new HistoryQuery("").matches(new MockMessage(now, "anything")));
+    assertTrue(new HistoryQuery("broken BUILD").matches(new MockMessage(now, "The build is broken")));
+    assertFalse(new HistoryQuery("broken build green").matches(new MockMessage(now, "The build is broken")));
+    assertTrue(new HistoryQuery("\"is broken\"").matches(new MockMessage(now, "The build is broken")));
+    assertFalse(new HistoryQuery("\"broken build\"").matches(new MockMessage(now, "The build is broken")));
+    assertFalse(new HistoryQuery("build since:2100-01-01").matches(new MockMessage(now, "The build is broken")));
+  }
+
+  public void testMatchesPrefixes() throws Exception {
+    Date now = new Date();
+    MockMessage message = new MockMessage(now, "java.lang.NullPointerException at Foo.bar");
+    assertTrue(new HistoryQuery("NullPointer").matches(message));
+    assertTrue(new HistoryQuery("nullpointer* foo").matches(message));
+    assertFalse(new HistoryQuery("Pointer").matches(message));
+    assertFalse(new HistoryQuery("\"NullPointer\"").matches(message));
+    assertTrue(new HistoryQuery("\"NullPointerException at\"").matches(message));
+  }
+}
@@ -15,13 +15,20 @@
  */
 package jetbrains.communicator.core.impl.dispatcher;
 
+import com.thoughtworks.xstream.XStream;
 import jetbrains.communicator.core.impl.BaseTestCase;
 import jetbrains.communicator.core.dispatcher.Message;
+import jetbrains.communicator.core.impl.users.UserImpl;
+import jetbrains.communicator.core.users.User;
 import jetbrains.communicator.core.users.UserEvent;
 import jetbrains.communicator.mock.MockIDEFacade;
 import jetbrains.communicator.mock.MockMessage;
 import jetbrains.communicator.mock.MockUser;
 import jetbrains.communicator.p2p.commands.P2PNetworkMessage;
+import jetbrains.communicator.util.XMLUtil;
+
+import java.io.File;
+import java.util.*;
 
 /**
  * @author kir
@@ -146,4 +153,50 @@ public class AbstractMessageDispatcherTest extends BaseTestCase {
     dispatcher.dispose();
   }
 
+  public void testPersistency_OnlyChangedQueuesSaved() throws Exception {
+    MockUser user2 = new MockUser("user2", null);
+    myDispatcher.performDispatch(myUser, new P2PNetworkMessage("foo", "foo2", new String[]{"test"}));
+    MockMessage message2 = new MockMessage(false);
+    myDispatcher.performDispatch(user2, message2);
+    myDispatcher.save();
+
+    File[] files = new File(myIdeFacade.getCacheDir(), "test").listFiles();
+    assertEquals("File per user expected", 2, files.length);
+    for (File file : files) {
+      assertTrue(file.setLastModified(1000));
+    }
+
+    message2.setSendSuccessful(true);
+    myDispatcher.performDispatch(user2, message2);
+    myDispatcher.save();
+
+    files = new File(myIdeFacade.getCacheDir(), "test").listFiles();
+    assertEquals("File of delivered queue should be removed", 1, files.length);
+    assertEquals("Unchanged queue should not be rewritten", 1000, files[0].lastModified());
+
+    AbstractMessageDispatcher dispatcher = createDispatcher();
+    assertEquals(1, dispatcher.getPendingMessages(myUser).length);
+    assertEquals(0, dispatcher.getPendingMessages(user2).length);
+    dispatcher.dispose();
+  }
+
+  public void testPersistency_SingleFileMigrated() throws Exception {
+    Map<User, List<Message>> user2Messages = new HashMap<User, List<Message>>();
+    user2Messages.put(myUser, new ArrayList<Message>(Arrays.asList(new P2PNetworkMessage("foo", "foo2", new String[]{"test"}))));
+    XStream xStream = XMLUtil.createXStream();
+    xStream.alias("user", UserImpl.class);
+    xStream.alias("pendingEvents", MessagesStorable.class);
+    XMLUtil.toXml(xStream, myIdeFacade.getCacheDir(), "test.xml", new MessagesStorable(user2Messages));
+
+    AbstractMessageDispatcher dispatcher = createDispatcher();
+    assertEquals("Messages should be read from the old file", 1, dispatcher.getPendingMessages(myUser).length);
+    assertFalse("Old file should be removed", new File(myIdeFacade.getCacheDir(), "test.xml").exists());
+    dispatcher.dispose();
+
+    dispatcher = createDispatcher();
+    assertEquals("Messages should be saved in the new format", 1, dispatcher.getPendingMessages(myUser).length);
+    dispatcher.clearAll();
+    dispatcher.dispose();
+  }
+
 }
\ No newline at end of file
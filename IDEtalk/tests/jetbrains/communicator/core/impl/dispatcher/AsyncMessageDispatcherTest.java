@@ -17,6 +17,7 @@ package jetbrains.communicator.core.impl.dispatcher;
 
 import jetbrains.communicator.core.impl.BaseTestCase;
 import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.core.users.UserEvent;
 import jetbrains.communicator.mock.MockIDEFacade;
 import jetbrains.communicator.mock.MockMessage;
 import jetbrains.communicator.mock.MockUser;
@@ -122,8 +123,14 @@ public class AsyncMessageDispatcherTest extends BaseTestCase {
     mockMessage.waitUntilDispatchingStarted();
     myDispatcher.sendLater(user2, new MockMessage(true));
 
-    assertEquals("Messages not delivered yet", 2,
-        myDispatcher.getUsersWithMessages().length);
+    new WaitFor(1000) {
+      @Override
+      protected boolean condition() {
+        return myDispatcher.getUsersWithMessages().length == 1;
+      }
+    };
+    assertEquals("Delivery to user2 should not wait for user1", 1, myDispatcher.getUsersWithMessages().length);
+    assertSame(user1, myDispatcher.getUsersWithMessages()[0]);
 
     triggerMessageProcessing(mockMessage);
 
@@ -137,6 +144,105 @@ public class AsyncMessageDispatcherTest extends BaseTestCase {
     assertEquals("All messages should be delivered", 0, myDispatcher.getUsersWithMessages().length);
   }
 
+  public void testRetryWithBackoff() throws Exception {
+    myDispatcher.setRetryDelays(50, 400);
+    long[] expected = {50, 100, 200, 400, 400};
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals("Delay after " + (i + 1) + " failures", expected[i], myDispatcher.getRetryDelay(i + 1));
+    }
+    assertEquals("Shift must not overflow", 400, myDispatcher.getRetryDelay(100));
+  }
+
+  public void testFailedDeliveryIsRetriedLater() throws Exception {
+    myDispatcher.setRetryDelays(10000, 10000);
+    final CountingMessage message = new CountingMessage(false);
+
+    myDispatcher.sendLater(myUser, message);
+    new WaitFor(1000) {
+      @Override
+      protected boolean condition() {
+        return myDispatcher.getFailureCount(myUser) == 1;
+      }
+    };
+    assertEquals(1, myDispatcher.getFailureCount(myUser));
+    assertEquals("Should wait for the retry delay", 1, message.getAttempts());
+    assertEquals("Message is still pending", 1, myDispatcher.getPendingMessages(myUser).length);
+  }
+
+  public void testOnlineUserRetriedImmediately() throws Exception {
+    myDispatcher.setRetryDelays(10000, 10000);
+    final CountingMessage message = new CountingMessage(false);
+
+    myDispatcher.sendLater(myUser, message);
+    new WaitFor(1000) {
+      @Override
+      protected boolean condition() {
+        return message.getAttempts() == 1;
+      }
+    };
+    assertEquals(1, message.getAttempts());
+
+    message.setSendSuccessful(true);
+    getBroadcaster().fireEvent(new UserEvent.Online(myUser));
+    new WaitFor(1000) {
+      @Override
+      protected boolean condition() {
+        return myDispatcher.getUsersWithMessages().length == 0;
+      }
+    };
+    assertEquals("Should be delivered without waiting for the retry delay", 0, myDispatcher.getUsersWithMessages().length);
+    assertEquals(2, message.getAttempts());
+  }
+
+  public void testSlowUserDoesNotBlockOthers() throws Exception {
+    NotifyableMessage slowMessage = new NotifyableMessage(true, myLog);
+    MockUser slowUser = new MockUser("slow", null);
+    myDispatcher.sendLater(slowUser, slowMessage);
+    slowMessage.waitUntilDispatchingStarted();
+
+    final int count = 20;
+    final CountingMessage[] messages = new CountingMessage[count];
+    for (int i = 0; i < count; i++) {
+      messages[i] = new CountingMessage(true);
+      myDispatcher.sendLater(new MockUser("user" + i, null), messages[i]);
+    }
+
+    new WaitFor(2000) {
+      @Override
+      protected boolean condition() {
+        return myDispatcher.getUsersWithMessages().length == 1;
+      }
+    };
+    for (CountingMessage message : messages) {
+      assertEquals("Should be delivered while slow user is blocked", 1, message.getAttempts());
+    }
+
+    triggerMessageProcessing(slowMessage);
+  }
+
+  private static class CountingMessage extends MockMessage {
+    private int myAttempts;
+
+    CountingMessage(boolean sendSuccessful) {
+      super(sendSuccessful);
+    }
+
+    @Override
+    public synchronized boolean send(User user) {
+      myAttempts++;
+      return super.send(user);
+    }
+
+    public synchronized int getAttempts() {
+      return myAttempts;
+    }
+
+    @Override
+    public synchronized void setSendSuccessful(boolean sendSuccessful) {
+      super.setSendSuccessful(sendSuccessful);
+    }
+  }
+
   private static class NotifyableMessage extends MockMessage {
     private boolean myDispatchingStarted;
     private boolean myProcessed;
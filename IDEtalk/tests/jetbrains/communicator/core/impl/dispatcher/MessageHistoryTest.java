@@ -0,0 +1,383 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.impl.dispatcher;
+
+import com.thoughtworks.xstream.XStream;
+import jetbrains.communicator.core.dispatcher.HistoryPager;
+import jetbrains.communicator.core.dispatcher.HistoryQuery;
+import jetbrains.communicator.core.dispatcher.LocalMessage;
+import jetbrains.communicator.core.impl.BaseTestCase;
+import jetbrains.communicator.core.impl.users.UserImpl;
+import jetbrains.communicator.core.impl.users.UserModelImpl;
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.mock.MockIDEFacade;
+import jetbrains.communicator.mock.MockMessage;
+import jetbrains.communicator.mock.MockTransport;
+import jetbrains.communicator.util.WaitFor;
+import jetbrains.communicator.util.XMLUtil;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+@SuppressWarnings({"HardCodedStringLiteral"})
+public class MessageHistoryTest extends BaseTestCase {
+  private static final Logger LOG = Logger.getLogger(MessageHistoryTest.class);
+
+  private MockIDEFacade myIdeFacade;
+  private UserModelImpl myUserModel;
+  private User myUser;
+  private MessageHistory myHistory;
+  private static final long DAY = 24 * 3600 * 1000L;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    myUserModel = new UserModelImpl(getBroadcaster());
+    disposeOnTearDown(myUserModel);
+    myIdeFacade = new MockIDEFacade(getClass());
+    myUser = UserImpl.create("user", MockTransport.NAME);
+    myHistory = new MessageHistory(myIdeFacade, myUserModel);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myHistory.clear();
+    myHistory.dispose();
+    super.tearDown();
+  }
+
+  public void testSaveAppendsOnlyNewMessages() throws Exception {
+    myHistory.addMessage(myUser, new MockMessage(new Date(), "first"));
+    myHistory.saveHistory();
+    File journal = getTodayJournal();
+    long length = journal.length();
+    assertTrue(length > 0);
+
+    myHistory.addMessage(myUser, new MockMessage(new Date(), "second"));
+    myHistory.saveHistory();
+    assertTrue("Expect the journal to grow", journal.length() > length);
+
+    LocalMessage[] messages = reopen().getHistory(myUser, null);
+    assertEquals(2, messages.length);
+    assertEquals("first", ((MockMessage)messages[0]).getMessage());
+    assertEquals("second", ((MockMessage)messages[1]).getMessage());
+  }
+
+  public void testTornRecordIsDropped() throws Exception {
+    myHistory.addMessage(myUser, new MockMessage(new Date(), "first"));
+    myHistory.saveHistory();
+
+    FileOutputStream out = new FileOutputStream(getTodayJournal(), true);
+    out.write(new byte[]{0, 0, 1, 0, 42, 42});
+    out.close();
+
+    MessageHistory history = reopen();
+    assertEquals(1, history.getHistory(myUser, null).length);
+
+    history.addMessage(myUser, new MockMessage(new Date(), "second"));
+    history.saveHistory();
+
+    LocalMessage[] messages = reopen().getHistory(myUser, null);
+    assertEquals(2, messages.length);
+    assertEquals("second", ((MockMessage)messages[1]).getMessage());
+  }
+
+  public void testFailedSaveIsRetried() throws Exception {
+    File journal = getTodayJournal();
+    // a directory in place of the journal makes the append fail
+    assertTrue(journal.mkdirs());
+    myHistory.addMessage(myUser, new MockMessage(new Date(), "first"));
+    myHistory.saveHistory();
+    assertTrue(journal.isDirectory());
+
+    assertTrue(journal.delete());
+    myHistory.addMessage(myUser, new MockMessage(new Date(), "second"));
+    myHistory.saveHistory();
+
+    LocalMessage[] messages = reopen().getHistory(myUser, null);
+    assertEquals(2, messages.length);
+    assertEquals("first", ((MockMessage)messages[0]).getMessage());
+    assertEquals("second", ((MockMessage)messages[1]).getMessage());
+  }
+
+  public void testCorruptIndexIsRebuilt() throws Exception {
+    myHistory.addMessage(myUser, new MockMessage(new Date(), "first"));
+    myHistory.saveHistory();
+    myHistory.dispose();
+
+    String dayName = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
+    File index = new File(myIdeFacade.getCacheDir(), "historyIndex/" + dayName + ".idx");
+    assertTrue(index.exists());
+    FileOutputStream out = new FileOutputStream(index, false);
+    // a string of two malformed UTF-8 bytes
+    out.write(new byte[]{0, 2, (byte)0xFF, (byte)0xFF, 1, 2, 3});
+    out.close();
+
+    MessageHistory history = reopen();
+    history.addMessage(myUser, new MockMessage(new Date(), "second"));
+    history.saveHistory();
+
+    LocalMessage[] page = reopen().getHistoryPager(myUser).readOlder(10);
+    assertEquals(2, page.length);
+    assertEquals("second", ((MockMessage)page[0]).getMessage());
+    assertEquals("first", ((MockMessage)page[1]).getMessage());
+  }
+
+  public void testMigrateXmlHistory() throws Exception {
+    DayHistory dayHistory = new DayHistory();
+    dayHistory.addMessage(myUser, new MockMessage(new Date(), "old format"));
+
+    XStream xStream = XMLUtil.createXStream();
+    xStream.alias("user", UserImpl.class);
+    xStream.alias("dayHistory", DayHistory.class);
+    xStream.aliasField("historyEntries", DayHistory.class, "myData");
+    xStream.registerConverter(new UserConverter(myUserModel));
+    String dayName = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
+    XMLUtil.toXml(xStream, myIdeFacade.getCacheDir(), "history/" + dayName + ".xml", dayHistory);
+
+    LocalMessage[] messages = reopen().getHistory(myUser, null);
+    assertEquals(1, messages.length);
+    assertEquals("old format", ((MockMessage)messages[0]).getMessage());
+
+    File[] files = getHistoryDir().listFiles();
+    assertEquals(1, files.length);
+    assertEquals(dayName + HistoryJournal.JOURNAL_EXT, files[0].getName());
+  }
+
+  public void testHistoryPager() throws Exception {
+    User otherUser = UserImpl.create("other", MockTransport.NAME);
+    long start = System.currentTimeMillis() - 10 * DAY;
+    for (int i = 0; i < 25; i++) {
+      myHistory.addMessage(myUser, new MockMessage(new Date(start + i * DAY / 3), "message " + i));
+      myHistory.addMessage(otherUser, new MockMessage(new Date(start + i * DAY / 3), "other " + i));
+    }
+    // unsaved messages are paged too
+    HistoryPager pager = myHistory.getHistoryPager(myUser);
+
+    LocalMessage[] page = pager.readOlder(10);
+    assertEquals(10, page.length);
+    assertEquals("message 24", ((MockMessage)page[0]).getMessage());
+    assertEquals("message 15", ((MockMessage)page[9]).getMessage());
+
+    page = pager.readOlder(10);
+    assertEquals(10, page.length);
+    assertEquals("message 14", ((MockMessage)page[0]).getMessage());
+
+    page = pager.readOlder(10);
+    assertEquals(5, page.length);
+    assertEquals("message 0", ((MockMessage)page[4]).getMessage());
+    assertEquals(0, pager.readOlder(10).length);
+  }
+
+  public void testHistoryPager_SegmentsRebuilt() throws Exception {
+    myHistory.addMessage(myUser, new MockMessage(new Date(System.currentTimeMillis() - DAY), "yesterday"));
+    myHistory.addMessage(myUser, new MockMessage(new Date(), "today"));
+    myHistory.saveHistory();
+    myHistory.dispose();
+
+    assertTrue(new File(myIdeFacade.getCacheDir(), "historyIndex/segments").delete());
+
+    LocalMessage[] page = reopen().getHistoryPager(myUser).readOlder(10);
+    assertEquals(2, page.length);
+    assertEquals("today", ((MockMessage)page[0]).getMessage());
+    assertEquals("yesterday", ((MockMessage)page[1]).getMessage());
+  }
+
+  public void testFindInHistory() throws Exception {
+    User otherUser = UserImpl.create("other", MockTransport.NAME);
+    myHistory.addMessage(myUser, new MockMessage(new Date(System.currentTimeMillis() - 3 * DAY), "Build is broken again"));
+    myHistory.addMessage(myUser, new MockMessage(new Date(System.currentTimeMillis() - DAY), "the build is green, broken tests fixed"));
+    myHistory.addMessage(myUser, new MockMessage(new Date(), "Is the build broken?"));
+    myHistory.addMessage(otherUser, new MockMessage(new Date(), "build broken"));
+    waitForSearchIndex(myHistory);
+
+    assertFound(myHistory, "BUILD broken", "Is the build broken?", "the build is green, broken tests fixed", "Build is broken again");
+    assertFound(myHistory, "\"build broken\"", "Is the build broken?");
+    assertFound(myHistory, "\"broken again\" build", "Build is broken again");
+    assertFound(myHistory, "green", "the build is green, broken tests fixed");
+    assertFound(myHistory, "nothing");
+    assertFound(myHistory, "gre", "the build is green, broken tests fixed");
+    assertFound(myHistory, "bro bui", "Is the build broken?", "the build is green, broken tests fixed", "Build is broken again");
+    assertFound(myHistory, "\"gre\"");
+
+    String yesterday = new SimpleDateFormat("yyyy-MM-dd").format(new Date(System.currentTimeMillis() - DAY));
+    assertFound(myHistory, "build since:" + yesterday, "Is the build broken?", "the build is green, broken tests fixed");
+    assertFound(myHistory, "until:" + yesterday, "the build is green, broken tests fixed", "Build is broken again");
+  }
+
+  public void testFindInHistory_Persistence() throws Exception {
+    myHistory.addMessage(myUser, new MockMessage(new Date(), "persistent words"));
+    myHistory.saveHistory();
+
+    MessageHistory history = reopen();
+    waitForSearchIndex(history);
+    assertFound(history, "words", "persistent words");
+
+    // the index catches up with the journal when it is lost
+    history.dispose();
+    File[] indexFiles = new File(myIdeFacade.getCacheDir(), "historySearch").listFiles();
+    assertEquals(1, indexFiles.length);
+    assertTrue(indexFiles[0].delete());
+
+    history = reopen();
+    waitForSearchIndex(history);
+    assertFound(history, "persistent", "persistent words");
+  }
+
+  public void testFindInHistory_WhileIndexIsLoading() throws Exception {
+    myHistory.addMessage(myUser, new MockMessage(new Date(), "some words"));
+    myHistory.saveHistory();
+    myHistory.dispose();
+    assertTrue(new File(myIdeFacade.getCacheDir(), "historySearch/postings").delete());
+
+    // results are the same, either scanned or found by the index
+    MessageHistory history = reopen();
+    assertFound(history, "words", "some words");
+    assertFound(history, "wor", "some words");
+    waitForSearchIndex(history);
+    assertFound(history, "words", "some words");
+    assertFound(history, "wor", "some words");
+  }
+
+  public void testSearchIndexPerformance() throws Exception {
+    File dir = new File(myIdeFacade.getCacheDir(), "searchPerformance");
+    HistorySearchIndex index = new HistorySearchIndex(dir);
+    int count = 200000;
+    String[] vocabulary = new String[5000];
+    for (int i = 0; i < vocabulary.length; i++) {
+      vocabulary[i] = "word" + i;
+    }
+
+    List<HistoryJournal.Entry> entries = new ArrayList<HistoryJournal.Entry>();
+    Random random = new Random(0);
+    long start = System.currentTimeMillis() - count * 60 * 1000L;
+    for (int i = 0; i < count; i++) {
+      StringBuilder text = new StringBuilder();
+      for (int j = 0; j < 10; j++) {
+        text.append(vocabulary[(int)Math.abs(random.nextGaussian() * vocabulary.length / 4) % vocabulary.length]).append(' ');
+      }
+      HistoryJournal.Entry entry = new HistoryJournal.Entry(myUser, new MockMessage(new Date(start + i * 60 * 1000L), text.toString()));
+      entry.myUserKey = i % 10 == 0 ? "other" : "user";
+      entry.myDayName = "day" + i / 1000;
+      entry.myOffset = i % 1000;
+      entry.myEnd = entry.myOffset + 1;
+      entries.add(entry);
+    }
+    long indexStart = System.currentTimeMillis();
+    index.add(entries);
+    LOG.info("Indexed " + count + " messages in " + (System.currentTimeMillis() - indexStart) + " ms");
+
+    // the index must beat matching every message of the user, which is what searching did without it
+    String[] queries = {"word1", "word1 word2", "word4000", "word1 word2 word3 since:2000-01-01", "\"word10 word20\""};
+    for (String query : queries) {
+      HistoryQuery historyQuery = new HistoryQuery(query);
+      long searchStart = System.nanoTime();
+      int found = index.search("user", historyQuery).length;
+      long searchTime = System.nanoTime() - searchStart;
+
+      long scanStart = System.nanoTime();
+      int scanned = 0;
+      for (HistoryJournal.Entry entry : entries) {
+        if ("user".equals(entry.myUserKey) && historyQuery.matches(entry.myMessage)) scanned++;
+      }
+      long scanTime = System.nanoTime() - scanStart;
+
+      String stats = "Query '" + query + "': " + found + " documents in " + searchTime / 1000 + " us, " +
+                     "linear scan found " + scanned + " in " + scanTime / 1000 + " us";
+      LOG.info(stats);
+      assertTrue(stats, searchTime < scanTime);
+    }
+
+    long loadStart = System.currentTimeMillis();
+    HistorySearchIndex loaded = new HistorySearchIndex(dir);
+    loaded.load();
+    LOG.info("Loaded index of " + count + " messages in " + (System.currentTimeMillis() - loadStart) + " ms");
+    assertEquals(index.search("user", new HistoryQuery("word1")).length, loaded.search("user", new HistoryQuery("word1")).length);
+  }
+
+  public void testSaveTimeDoesNotDependOnHistorySize() throws Exception {
+    Logger logger = Logger.getLogger("jetbrains.communicator");
+    Level oldLevel = logger.getLevel();
+    try {
+      logger.setLevel(Level.WARN);
+
+      long[] times = new long[3];
+      int size = 100;
+      for (int i = 0; i < times.length; i++, size *= 10) {
+        myHistory.clear();
+        long start = System.currentTimeMillis() - size * 60 * 1000L;
+        for (int j = 0; j < size; j++) {
+          myHistory.addMessage(myUser, new MockMessage(new Date(start + j * 60 * 1000L)));
+        }
+        myHistory.saveHistory();
+
+        int iterations = 50;
+        long saveStart = System.nanoTime();
+        for (int j = 0; j < iterations; j++) {
+          myHistory.addMessage(myUser, new MockMessage(new Date()));
+          myHistory.saveHistory();
+        }
+        times[i] = (System.nanoTime() - saveStart) / iterations / 1000;
+      }
+
+      assertTrue("Save time grows with the history size: " + times[0] + " us, " + times[1] + " us, " + times[2] +
+                 " us per saved message for 100, 1000 and 10000 messages",
+                 times[2] < Math.max(times[0], 1000) * 10);
+    } finally {
+      logger.setLevel(oldLevel);
+    }
+  }
+
+  private static void assertFound(MessageHistory history, String query, String... expected) {
+    List<String> found = new ArrayList<String>();
+    HistoryPager pager = history.findInHistory(UserImpl.create("user", MockTransport.NAME), new HistoryQuery(query));
+    LocalMessage[] page;
+    while ((page = pager.readOlder(2)).length > 0) {
+      for (LocalMessage message : page) {
+        found.add(((MockMessage)message).getMessage());
+      }
+    }
+    assertEquals(query, Arrays.asList(expected), found);
+  }
+
+  private static void waitForSearchIndex(final MessageHistory history) {
+    new WaitFor(5000) {
+      protected boolean condition() {
+        return history.isSearchIndexUpToDate();
+      }
+    };
+    assertTrue("Search index is not updated", history.isSearchIndexUpToDate());
+  }
+
+  private MessageHistory reopen() {
+    myHistory.dispose();
+    myHistory = new MessageHistory(myIdeFacade, myUserModel);
+    return myHistory;
+  }
+
+  private File getHistoryDir() {
+    return new File(myIdeFacade.getCacheDir(), "history");
+  }
+
+  private File getTodayJournal() {
+    return new File(getHistoryDir(), new SimpleDateFormat("yyyy-MM-dd").format(new Date()) + HistoryJournal.JOURNAL_EXT);
+  }
+}
@@ -21,6 +21,7 @@ import jetbrains.communicator.commands.FindUsersCommand;
 import jetbrains.communicator.commands.SendMessageInvoker;
 import jetbrains.communicator.core.Pico;
 import jetbrains.communicator.core.TestFactory;
+import jetbrains.communicator.core.dispatcher.HistoryPager;
 import jetbrains.communicator.core.dispatcher.LocalMessage;
 import jetbrains.communicator.core.transport.TransportEvent;
 import jetbrains.communicator.core.users.User;
@@ -80,7 +81,7 @@ public class MockIDEFacade implements IDEFacade {
   }
 
   @Override
-  public void showSearchHistoryResults(List<LocalMessage> foundMessages, User user) {
+  public void showSearchHistoryResults(List<LocalMessage> foundMessages, HistoryPager moreMessages, User user) {
     throw new UnsupportedOperationException("Not implemented in " + getClass().getName());
   }
 
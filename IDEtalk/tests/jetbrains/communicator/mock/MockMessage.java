@@ -46,8 +46,8 @@ public class MockMessage implements LocalMessage {
   }
 
   @Override
-  public boolean containsString(String searchString) {
-    return myMessage.indexOf(searchString) >= 0;
+  public String getSearchableText() {
+    return myMessage;
   }
 
   @Override
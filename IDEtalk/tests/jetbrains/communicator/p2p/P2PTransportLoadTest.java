@@ -0,0 +1,179 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import jetbrains.communicator.core.Pico;
+import jetbrains.communicator.core.dispatcher.Message;
+import jetbrains.communicator.core.impl.BaseTestCase;
+import jetbrains.communicator.core.impl.dispatcher.AsyncMessageDispatcherImpl;
+import jetbrains.communicator.core.impl.users.UserModelImpl;
+import jetbrains.communicator.core.transport.Transport;
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.mock.MockIDEFacade;
+import jetbrains.communicator.p2p.commands.SendXmlMessageP2PCommand;
+import jetbrains.communicator.util.StringUtil;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.DefaultProtocolSocketFactory;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.jdom.Element;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes messages over the loopback interface from one in-process transport to another.
+ * Both transports are served by the same built-in XML-RPC server, the one created last handles incoming calls.
+ */
+public class P2PTransportLoadTest extends BaseTestCase {
+  private static final String TAG = "loadTestMessage";
+  private static final int MESSAGES = 4000;
+  private static final int THREADS = 4;
+
+  private P2PTransport mySender;
+  private P2PTransport myReceiver;
+  private User myPeer;
+  private final AtomicInteger myReceived = new AtomicInteger();
+  private final AtomicInteger myOpenedConnections = new AtomicInteger();
+  private CountingProvider myProvider;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    // count the connections opened by the HTTP client
+    Protocol.registerProtocol("http", new Protocol("http", new CountingSocketFactory(), 80));
+
+    mySender = createTransport();
+    Pico.getInstance().registerComponentInstance(mySender);
+    myReceiver = createTransport();
+
+    myProvider = new CountingProvider();
+    Pico.getInstance().registerComponentInstance(myProvider);
+
+    myPeer = mySender.createUser("loadTestPeer", new OnlineUserInfo(InetAddress.getByName("127.0.0.1"), mySender.getPort()));
+    mySender.setOnlineUsers(Collections.singleton(myPeer));
+  }
+
+  private P2PTransport createTransport() {
+    MockIDEFacade ideFacade = new MockIDEFacade(getClass());
+    UserModelImpl userModel = new UserModelImpl(getBroadcaster());
+    disposeOnTearDown(userModel);
+    AsyncMessageDispatcherImpl dispatcher = new AsyncMessageDispatcherImpl(getBroadcaster(), ideFacade);
+    disposeOnTearDown(dispatcher);
+    return new P2PTransport(dispatcher, userModel, P2PTransportTest.WAIT_USER_RESPONSES_TIMEOUT);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (myProvider != null) {
+      Pico.getInstance().unregisterComponentByInstance(myProvider);
+    }
+    if (mySender != null) {
+      mySender.dispose();
+      Pico.getInstance().unregisterComponentByInstance(mySender);
+    }
+    if (myReceiver != null) {
+      myReceiver.dispose();
+    }
+
+    Protocol.unregisterProtocol("http");
+    StringUtil.setMyUsername(null);
+    super.tearDown();
+  }
+
+  public void testThroughputAndLatency() throws Exception {
+    final long[] latencies = new long[MESSAGES];
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicInteger failed = new AtomicInteger();
+
+    Thread[] threads = new Thread[THREADS];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread("P2P load test sender " + i) {
+        @Override
+        public void run() {
+          int n;
+          while ((n = next.getAndIncrement()) < MESSAGES) {
+            Message message = SendXmlMessageP2PCommand.createNetworkMessage(new MockXmlMessage(TAG));
+            long start = System.nanoTime();
+            if (!message.send(myPeer)) {
+              failed.incrementAndGet();
+            }
+            latencies[n] = System.nanoTime() - start;
+          }
+        }
+      };
+    }
+
+    long start = System.currentTimeMillis();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long totalMs = Math.max(1, System.currentTimeMillis() - start);
+
+    assertEquals("All messages should be delivered", 0, failed.get());
+    assertEquals("All messages should be received by the other transport", MESSAGES, myReceived.get());
+    assertTrue("Keep-alive connections should be reused, opened " + myOpenedConnections.get() + " for " + MESSAGES + " messages",
+               myOpenedConnections.get() < MESSAGES / 100);
+
+    Arrays.sort(latencies);
+    long p99 = latencies[MESSAGES * 99 / 100 - 1];
+    System.out.println(String.format("P2P loopback: %d messages in %d threads, %.0f msg/s, p50 %.2f ms, p99 %.2f ms, " +
+                                     "%d connections", MESSAGES, THREADS, MESSAGES * 1000.0 / totalMs,
+                                     latencies[MESSAGES / 2 - 1] / 1e6, p99 / 1e6, myOpenedConnections.get()));
+  }
+
+  private class CountingSocketFactory implements ProtocolSocketFactory {
+    private final ProtocolSocketFactory myDelegate = DefaultProtocolSocketFactory.getSocketFactory();
+
+    public Socket createSocket(String host, int port, InetAddress localAddress, int localPort) throws IOException {
+      myOpenedConnections.incrementAndGet();
+      return myDelegate.createSocket(host, port, localAddress, localPort);
+    }
+
+    public Socket createSocket(String host, int port, InetAddress localAddress, int localPort, HttpConnectionParams params)
+      throws IOException {
+      myOpenedConnections.incrementAndGet();
+      return myDelegate.createSocket(host, port, localAddress, localPort, params);
+    }
+
+    public Socket createSocket(String host, int port) throws IOException {
+      myOpenedConnections.incrementAndGet();
+      return myDelegate.createSocket(host, port);
+    }
+  }
+
+  private class CountingProvider extends MockXmlResponseProvider {
+    CountingProvider() {
+      super(TAG, Transport.NAMESPACE, getBroadcaster());
+    }
+
+    @Override
+    public boolean processAndFillResponse(Element response, Element requestRoot, Transport transport, String remoteUser) {
+      if (transport == myReceiver) {
+        myReceived.incrementAndGet();
+      }
+      return true;
+    }
+  }
+}